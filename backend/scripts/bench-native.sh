@@ -0,0 +1,42 @@
+#!/bin/sh
+# Compares the native image with the JVM build: the time from start to the first successful request, and the
+# resident memory after the same warm-up requests. Build both first with
+#   mvn -Pnative package -DskipTests
+# which leaves the executable jar beside the native image, and export the variables application.properties needs (MYSQL_*, JWT_SECRET, AZURE_*, OASIP_JWT_ISSUER_URI).
+#
+# usage: scripts/bench-native.sh
+# needs hey (https://github.com/rakyll/hey) for the warm-up
+set -eu
+
+PORT=${PORT:-18080}
+WARMUP_REQUESTS=${WARMUP_REQUESTS:-2000}
+URL="http://localhost:$PORT/api/categories"
+
+now_millis() {
+  echo $(($(date +%s%N) / 1000000))
+}
+
+measure() {
+  name=$1
+  shift
+  start=$(now_millis)
+  SERVER_PORT=$PORT "$@" > "target/bench-$name.log" 2>&1 &
+  pid=$!
+  until curl -fsS -o /dev/null "$URL" 2>/dev/null; do
+    if ! kill -0 "$pid" 2>/dev/null; then
+      echo "$name exited before answering, see target/bench-$name.log" >&2
+      exit 1
+    fi
+    sleep 0.02
+  done
+  first_request=$(($(now_millis) - start))
+  rss_idle=$(ps -o rss= -p "$pid")
+  hey -n "$WARMUP_REQUESTS" -c 20 "$URL" > /dev/null
+  rss_warm=$(ps -o rss= -p "$pid")
+  kill "$pid"
+  wait "$pid" 2>/dev/null || true
+  echo "$name: first request after ${first_request} ms, RSS $((rss_idle / 1024)) MiB idle, $((rss_warm / 1024)) MiB after $WARMUP_REQUESTS requests"
+}
+
+measure jvm java ${JAVA_OPTS:-} -jar target/backend-us3-0.0.1-SNAPSHOT-exec.jar
+measure native target/backend-us3
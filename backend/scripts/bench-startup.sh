@@ -0,0 +1,57 @@
+#!/bin/sh
+# Measures the time from starting a backend container to its first successful request, with FAST_STARTUP=false
+# (the way java -jar started) and FAST_STARTUP=true, and prints each run and the average per mode.
+# BASELINE_IMAGE adds the image built before the layered jar, e.g. from an older commit, as a third mode.
+# The averages are also appended to RESULTS (scripts/bench-startup.results by default) with the date, the commit and
+# the machine, so that a change to the startup can be compared with the numbers measured before it.
+#
+# usage: scripts/bench-startup.sh [image]
+# run it from the repository root with the database of docker-compose.yml up (docker compose up -d db)
+set -eu
+
+IMAGE=${1:-oasip-backend}
+RUNS=${RUNS:-5}
+NETWORK=${NETWORK:-$(basename "$(pwd)")_default}
+PORT=${PORT:-18080}
+URL="http://localhost:$PORT/api/categories"
+RESULTS=${RESULTS:-backend/scripts/bench-startup.results}
+RUN_INFO="$(date -u +%Y-%m-%dT%H:%MZ) $(git rev-parse --short HEAD 2>/dev/null || echo unknown) $(uname -m) $(nproc) cpus"
+
+now_millis() {
+  echo $(($(date +%s%N) / 1000000))
+}
+
+# prints the milliseconds until $URL answers with 2xx
+measure() {
+  start=$(now_millis)
+  container=$(docker run -d --rm --network "$NETWORK" -p "$PORT:8080" --env-file backend/.env \
+    -e MYSQL_HOST=db -e MYSQL_PORT=3306 -e MYSQL_DATABASE=oasip "$@")
+  until curl -fsS -o /dev/null "$URL" 2>/dev/null; do
+    if [ -z "$(docker ps -q -f id="$container")" ]; then
+      echo "container exited before answering" >&2
+      exit 1
+    fi
+    sleep 0.05
+  done
+  echo $(($(now_millis) - start))
+  docker stop "$container" > /dev/null
+}
+
+run_mode() {
+  name=$1
+  shift
+  total=0
+  for i in $(seq "$RUNS"); do
+    millis=$(measure "$@")
+    echo "$name run $i: ${millis} ms"
+    total=$((total + millis))
+  done
+  echo "== $name average: $((total / RUNS)) ms"
+  echo "$RUN_INFO $name $RUNS runs: average $((total / RUNS)) ms" >> "$RESULTS"
+}
+
+if [ -n "${BASELINE_IMAGE:-}" ]; then
+  run_mode baseline "$BASELINE_IMAGE"
+fi
+run_mode "FAST_STARTUP=false" -e FAST_STARTUP=false "$IMAGE"
+run_mode "FAST_STARTUP=true" -e FAST_STARTUP=true "$IMAGE"
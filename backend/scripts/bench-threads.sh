@@ -0,0 +1,20 @@
+#!/bin/sh
+# Compares throughput of the platform thread pool and virtual threads under the same load.
+# Start the backend once with VIRTUAL_THREADS_ENABLED=false and once with true (on JDK 21+),
+# run this against each, and compare the "Requests/sec" and latency distribution lines.
+# Start the virtual thread one with -Djdk.tracePinnedThreads=full (JAVA_TOOL_OPTIONS) to log where requests pin.
+# Record the results in scripts/bench-threads.results.
+#
+# usage: TOKEN=<access token> scripts/bench-threads.sh [base url]
+# needs hey (https://github.com/rakyll/hey)
+set -eu
+
+BASE_URL=${1:-http://localhost:8080}
+CONCURRENCY=${CONCURRENCY:-400}
+DURATION=${DURATION:-60s}
+
+for path in "/api/events?type=upcoming" "/api/events/calendar?from=2022-09-01&to=2022-10-01" "/api/categories"; do
+  echo "== GET $path (c=$CONCURRENCY, $DURATION)"
+  hey -z "$DURATION" -c "$CONCURRENCY" -H "Authorization: Bearer $TOKEN" "$BASE_URL$path" \
+    | grep -E "Requests/sec|Average|Slowest|99%|\[[0-9]+\]"
+done
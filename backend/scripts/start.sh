@@ -0,0 +1,41 @@
+#!/bin/sh
+# Starts the backend from the layers extracted by the Dockerfile.
+#   FAST_STARTUP=true (default)  maps the classes loaded at startup from a class data sharing archive,
+#                                and creates most beans on first use (see LazyInitializationConfig)
+#   FAST_STARTUP=false           starts the way java -jar did, for comparison with scripts/bench-startup.sh
+#   start.sh --training          records the classes loaded at startup and writes the archive, at image build time
+set -eu
+
+cd /app
+MAIN=int221.oasip.backendus3.BackendUs3Application
+# the same order on every run, the archive is only used with the class path it was written for
+CLASSPATH=application.jar
+for jar in lib/*.jar; do
+  CLASSPATH="$CLASSPATH:$jar"
+done
+
+if [ "${1:-}" = "--training" ]; then
+  # there is no database during the build, Hibernate is given the dialect instead of asking MySQL for it and the
+  # migrations are left to the real start. Beans are created lazily as with FAST_STARTUP=true, which the archive is for.
+  # A run that does not start completely fails the build, an archive of half a startup would hide the error
+  LAZY_INITIALIZATION=true \
+    MYSQL_HOST=localhost MYSQL_PORT=3306 MYSQL_DATABASE=oasip MYSQL_USER=training MYSQL_PASSWORD=training \
+    JWT_SECRET=training-secret-that-is-long-enough-for-hs256 AZURE_CLIENT_ID=training AZURE_TENANT_ID=training \
+    OASIP_JWT_ISSUER_URI=http://localhost \
+    java -XX:DumpLoadedClassList=app.classlist -cp "$CLASSPATH" \
+      -Dstartup.training=true \
+      -Dspring.flyway.enabled=false \
+      -Dspring.jpa.database-platform=org.hibernate.dialect.MySQL8Dialect \
+      -Dspring.jpa.properties.hibernate.temp.use_jdbc_metadata_defaults=false \
+      "$MAIN"
+  java -Xshare:dump -XX:SharedClassListFile=app.classlist -XX:SharedArchiveFile=app.jsa -cp "$CLASSPATH"
+  rm app.classlist
+  exit 0
+fi
+
+if [ "${FAST_STARTUP:-true}" = "true" ]; then
+  export LAZY_INITIALIZATION="${LAZY_INITIALIZATION:-true}"
+  # -Xshare:auto starts without the archive if it does not match, e.g. a different JDK, instead of failing
+  exec java -XX:SharedArchiveFile=app.jsa -Xshare:auto ${JAVA_OPTS:-} -cp "$CLASSPATH" "$MAIN"
+fi
+exec java ${JAVA_OPTS:-} -cp "$CLASSPATH" "$MAIN"
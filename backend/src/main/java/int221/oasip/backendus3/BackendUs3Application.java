@@ -2,12 +2,19 @@ package int221.oasip.backendus3;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class BackendUs3Application {
 
     public static void main(String[] args) {
-        SpringApplication.run(BackendUs3Application.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(BackendUs3Application.class, args);
+        // the Docker build starts the application once to record the classes it loads, see scripts/start.sh
+        if (Boolean.getBoolean("startup.training")) {
+            System.exit(SpringApplication.exit(context));
+        }
     }
 
 }
@@ -0,0 +1,65 @@
+package int221.oasip.backendus3.configs;
+
+import org.flywaydb.core.Flyway;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Baselines a database without migration history at version 1 only when it has the tables of
+ * {@code db/scripts/entrypoint/00-schema.sql}, instead of Flyway's {@code baseline-on-migrate}, which would also
+ * baseline an unrelated schema and then fail or, worse, change it.
+ */
+@Configuration
+public class FlywayConfig {
+    /**
+     * the tables of db/scripts/entrypoint/00-schema.sql, which is version 1, the later ones are created by migrations
+     */
+    static final List<String> VERSION_1_TABLES = List.of("eventCategory", "event", "user", "eventCategoryOwner");
+
+    @Bean
+    public FlywayMigrationStrategy baselineVersion1Strategy() {
+        return flyway -> {
+            Set<String> tables = tables(flyway);
+            if (!tables.contains(flyway.getConfiguration().getTable())) {
+                if (!tables.isEmpty()) {
+                    List<String> missing = VERSION_1_TABLES.stream().filter(table -> !tables.contains(table)).collect(Collectors.toList());
+                    if (!missing.isEmpty()) {
+                        throw new IllegalStateException("The database has tables but no migration history, and it is not the schema of " +
+                                "db/scripts/entrypoint/00-schema.sql, it misses " + missing + ". Refusing to baseline it at version 1");
+                    }
+                    flyway.baseline();
+                } else if (flyway.info().pending().length > 0) {
+                    // the migrations start from version 1, they cannot create it
+                    throw new IllegalStateException("The database is empty, create it with db/scripts/entrypoint/00-schema.sql first");
+                }
+            }
+            flyway.migrate();
+        };
+    }
+
+    private static Set<String> tables(Flyway flyway) {
+        // MySQL keeps the case of table names on Linux but not on Windows
+        Set<String> tables = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        try (Connection connection = flyway.getConfiguration().getDataSource().getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet resultSet = metaData.getTables(connection.getCatalog(), connection.getSchema(), "%", new String[]{"TABLE"})) {
+                while (resultSet.next()) {
+                    tables.add(resultSet.getString("TABLE_NAME"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not list the tables of the database", e);
+        }
+        return tables;
+    }
+}
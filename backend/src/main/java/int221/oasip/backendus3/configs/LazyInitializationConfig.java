@@ -0,0 +1,34 @@
+package int221.oasip.backendus3.configs;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.orm.jpa.AbstractEntityManagerFactoryBean;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Beans that are still created at startup when {@code spring.main.lazy-initialization} is set, as the fast startup
+ * mode of the Docker image does. Everything else, e.g. mail, renditions and the calendar feeds, is created on first use.
+ * <p>
+ * Beans with {@link Scheduled} methods would never run their jobs if nothing else needed them, and JPA is started
+ * before the first request rather than during it, so an instance that is up can answer right away.
+ */
+@Configuration
+public class LazyInitializationConfig {
+    @Bean
+    static LazyInitializationExcludeFilter eagerBeans() {
+        return (beanName, beanDefinition, beanType) -> beanType != null && (
+                EntityManagerFactory.class.isAssignableFrom(beanType)
+                        || AbstractEntityManagerFactoryBean.class.isAssignableFrom(beanType)
+                        || hasScheduledMethods(beanType));
+    }
+
+    private static boolean hasScheduledMethods(Class<?> beanType) {
+        return !MethodIntrospector.selectMethods(beanType, (MethodIntrospector.MetadataLookup<Scheduled>) method ->
+                AnnotatedElementUtils.findMergedAnnotation(method, Scheduled.class)).isEmpty();
+    }
+}
@@ -0,0 +1,52 @@
+package int221.oasip.backendus3.configs;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Adds a replica pool for {@code @Transactional(readOnly = true)} methods when {@code replica.datasource.url} is set,
+ * see {@link ReplicaRoutingDataSource}. Without it the auto-configured data source is used as before.
+ */
+@Configuration
+@ConditionalOnExpression("!'${replica.datasource.url:}'.isEmpty()")
+public class ReplicaDataSourceConfig {
+    @Bean(destroyMethod = "close", autowireCandidate = false)
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean(destroyMethod = "close", autowireCandidate = false)
+    public HikariDataSource replicaDataSource(Environment environment) {
+        DataSourceProperties properties = Binder.get(environment)
+                .bind("replica.datasource", DataSourceProperties.class)
+                .get();
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("replica");
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(
+            DataSourceProperties properties,
+            Environment environment,
+            @Value("${replica.pin-seconds:5}") long pinSeconds
+    ) {
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primaryDataSource(properties), replicaDataSource(environment), pinSeconds);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+}
@@ -0,0 +1,111 @@
+package int221.oasip.backendus3.configs;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends read-only transactions to the replica and everything else to the primary.
+ * <p>
+ * After a user's transaction that may write commits, that user's reads stay on the primary for a while, so they see
+ * their own change even if the replica lags behind. The pins are kept per instance.
+ * <p>
+ * Read-only transactions that must not see a lagging replica call {@link #usePrimary()} first, which neither needs a
+ * read-write transaction nor pins the user.
+ * <p>
+ * Must be wrapped in a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}, since the
+ * transaction manager asks for a connection before the read-only flag of the transaction is set.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+    private static final int MAX_PINS = 10_000;
+    private static final String PIN_REGISTERED = ReplicaRoutingDataSource.class.getName() + ".PIN_REGISTERED";
+    private static final String USE_PRIMARY = ReplicaRoutingDataSource.class.getName() + ".USE_PRIMARY";
+
+    private final Map<String, Long> pinnedUntil = new ConcurrentHashMap<>();
+    private final long pinNanos;
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, long pinSeconds) {
+        setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        this.pinNanos = pinSeconds * 1_000_000_000L;
+    }
+
+    /**
+     * Send the rest of the current read-only transaction to the primary, e.g. for data that is cached after it is
+     * read. Must be called before the first query of the transaction, which is when its connection is chosen.
+     * Without a transaction, reads already go to the primary.
+     */
+    public static void usePrimary() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()
+                || TransactionSynchronizationManager.hasResource(USE_PRIMARY)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(USE_PRIMARY, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(USE_PRIMARY);
+            }
+        });
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String user = currentUser();
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (TransactionSynchronizationManager.hasResource(USE_PRIMARY)) {
+                return Target.PRIMARY;
+            }
+            return user != null && isPinned(user) ? Target.PRIMARY : Target.REPLICA;
+        }
+
+        if (user != null && TransactionSynchronizationManager.isSynchronizationActive()
+                && !TransactionSynchronizationManager.hasResource(PIN_REGISTERED)) {
+            TransactionSynchronizationManager.bindResource(PIN_REGISTERED, Boolean.TRUE);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    pin(user);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(PIN_REGISTERED);
+                }
+            });
+        }
+        return Target.PRIMARY;
+    }
+
+    private boolean isPinned(String user) {
+        Long until = pinnedUntil.get(user);
+        return until != null && System.nanoTime() - until < 0;
+    }
+
+    private void pin(String user) {
+        long now = System.nanoTime();
+        if (pinnedUntil.size() >= MAX_PINS) {
+            pinnedUntil.values().removeIf(until -> now - until >= 0);
+        }
+        pinnedUntil.put(user, now + pinNanos);
+    }
+
+    private static String currentUser() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || authentication instanceof AnonymousAuthenticationToken) {
+            return null;
+        }
+        return authentication.getName();
+    }
+
+    private enum Target {
+        PRIMARY, REPLICA
+    }
+}
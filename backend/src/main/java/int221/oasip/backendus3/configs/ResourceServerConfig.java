@@ -22,6 +22,7 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.jwt.JwtDecoder;
 import org.springframework.security.oauth2.jwt.JwtDecoders;
+import org.springframework.security.oauth2.jwt.SupplierJwtDecoder;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationProvider;
 import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
@@ -66,6 +67,7 @@ public class ResourceServerConfig extends WebSecurityConfigurerAdapter {
                 .antMatchers(HttpMethod.GET, "/api/events/files/**").permitAll()
 //                .antMatchers("/api/events/test").permitAll()
                 .antMatchers("/api/events/**").authenticated()
+                .antMatchers(HttpMethod.GET, "/api/feeds").authenticated()
                 .anyRequest().permitAll()
                 .and()
                 .csrf().disable()
@@ -82,7 +84,8 @@ public class ResourceServerConfig extends WebSecurityConfigurerAdapter {
     }
 
     private void addManager(Map<String, AuthenticationManager> authenticationManagers, String issuer, Converter<Jwt, AbstractAuthenticationToken> converter) {
-        JwtDecoder jwtDecoder = JwtDecoders.fromIssuerLocation(issuer);
+        // the issuer's metadata is fetched on the first token instead of during startup
+        JwtDecoder jwtDecoder = new SupplierJwtDecoder(() -> JwtDecoders.fromIssuerLocation(issuer));
         JwtAuthenticationProvider authenticationProvider = new JwtAuthenticationProvider(jwtDecoder);
         authenticationProvider.setJwtAuthenticationConverter(converter);
         authenticationManagers.put(issuer, authenticationProvider::authenticate);
@@ -0,0 +1,30 @@
+package int221.oasip.backendus3.configs;
+
+import int221.oasip.backendus3.utils.VirtualThreads;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs every Tomcat request on its own virtual thread when {@code spring.threads.virtual.enabled} is set, instead of
+ * the bounded platform thread pool ({@code server.tomcat.threads.max} no longer applies). Needs JDK 21 or later.
+ * <p>
+ * Requests then wait for a pooled connection instead of a thread, so the Hikari pool size becomes the limit.
+ * Tomcat 9.0.62's {@code SocketProcessorBase} holds the monitor of the socket for the whole request, so a request pins
+ * its carrier thread whenever it blocks, on Hikari, the Logback appender or MySQL Connector/J alike, see
+ * {@code scripts/bench-threads.results} for the measured throughput against the platform thread pool; run with
+ * {@code -Djdk.tracePinnedThreads=full} to see where requests pin.
+ */
+@Configuration
+@ConditionalOnProperty("spring.threads.virtual.enabled")
+public class VirtualThreadConfig {
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadExecutorCustomizer() {
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("http");
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+}
@@ -2,17 +2,32 @@ package int221.oasip.backendus3.controllers;
 
 import int221.oasip.backendus3.dtos.CategoryResponse;
 import int221.oasip.backendus3.dtos.EditCategoryRequest;
+import int221.oasip.backendus3.dtos.FreeIntervalResponse;
+import int221.oasip.backendus3.exceptions.EntityNotFoundException;
 import int221.oasip.backendus3.exceptions.FieldNotValidException;
 import int221.oasip.backendus3.exceptions.NotUniqueException;
+import int221.oasip.backendus3.services.AvailabilityService;
+import int221.oasip.backendus3.services.CachePurgeService;
 import int221.oasip.backendus3.services.EventCategoryService;
+import int221.oasip.backendus3.services.EventService;
+import int221.oasip.backendus3.services.EventStreamService;
+import int221.oasip.backendus3.services.ScopeVersionService;
 import lombok.AllArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.time.OffsetDateTime;
 import java.util.List;
 
 @RestController
@@ -20,10 +35,62 @@ import java.util.List;
 @AllArgsConstructor
 public class EventCategoryController {
     private EventCategoryService service;
+    private AvailabilityService availabilityService;
+    private ScopeVersionService versionService;
+    private EventService eventService;
+    private EventStreamService streamService;
 
+    /**
+     * Revalidated with the version of the categories, so an unchanged list is answered with 304 without being read
+     */
     @GetMapping("")
-    public List<CategoryResponse> getCategories() {
-        return service.getAll();
+    public ResponseEntity<List<CategoryResponse>> getCategories(WebRequest request) {
+        if (request.checkNotModified("categories-" + versionService.getCategoriesVersion())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .header(CachePurgeService.HEADER, CachePurgeService.CATEGORIES)
+                .body(service.getAll());
+    }
+
+    /**
+     * Free intervals of the category that are long enough for one booking, to pick a start time without fetching the events
+     */
+    @GetMapping("/{id}/availability")
+    public List<FreeIntervalResponse> getAvailability(
+            @PathVariable Integer id,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to
+    ) {
+        try {
+            return availabilityService.getFreeIntervals(id, from.toInstant(), to.toInstant());
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
+    /**
+     * Changes to the events of the category, pushed with Server-Sent Events once they are committed
+     */
+    @GetMapping(value = "/{id}/events/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("hasAnyRole('LECTURER', 'ADMIN')")
+    public SseEmitter streamEvents(
+            @PathVariable Integer id,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            Authentication authentication,
+            HttpServletResponse response
+    ) {
+        try {
+            // throws ForbiddenException if a lecturer does not own the category
+            eventService.resolveScope(isAdmin(authentication), authentication.getName(), id);
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+
+        // keep nginx from buffering the stream
+        response.setHeader("X-Accel-Buffering", "no");
+        return streamService.subscribe(id, lastEventId);
     }
 
     @PatchMapping("/{id}")
@@ -44,7 +111,19 @@ public class EventCategoryController {
     // TODO: merge with getCategories()?
     @GetMapping("/lecturer")
     @PreAuthorize("hasRole('LECTURER')")
-    public List<CategoryResponse> getLecturerCategories(Authentication authentication) {
-        return service.getLecturerCategories(authentication.getName());
+    public ResponseEntity<List<CategoryResponse>> getLecturerCategories(Authentication authentication, WebRequest request) {
+        // the owners of categories are only changed in the database, so the user's own version stands in for them
+        String email = authentication.getName();
+        String etag = "lecturer-" + ScopeVersionService.userTag(email) + "-"
+                + versionService.getUserVersion(email) + "-" + versionService.getCategoriesVersion();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache().cachePrivate()).body(service.getLecturerCategories(email));
+    }
+
+    private boolean isAdmin(Authentication authentication) {
+        return authentication.getAuthorities().stream()
+                .anyMatch(a -> a.getAuthority().equals("ROLE_ADMIN"));
     }
 }
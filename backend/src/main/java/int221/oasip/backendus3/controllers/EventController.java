@@ -1,17 +1,23 @@
 package int221.oasip.backendus3.controllers;
 
-import int221.oasip.backendus3.dtos.CreateEventMultipartRequest;
-import int221.oasip.backendus3.dtos.EditEventMultipartRequest;
-import int221.oasip.backendus3.dtos.EditEventRequest;
-import int221.oasip.backendus3.dtos.EventResponse;
+import int221.oasip.backendus3.dtos.*;
 import int221.oasip.backendus3.exceptions.EntityNotFoundException;
 import int221.oasip.backendus3.exceptions.EventOverlapException;
 import int221.oasip.backendus3.exceptions.FieldNotValidException;
+import int221.oasip.backendus3.exceptions.ForbiddenException;
+import int221.oasip.backendus3.services.CachePurgeService;
+import int221.oasip.backendus3.services.CalendarService;
+import int221.oasip.backendus3.services.EventSeriesService;
 import int221.oasip.backendus3.services.EventService;
+import int221.oasip.backendus3.services.IdempotencyService;
+import int221.oasip.backendus3.services.RenditionService;
+import int221.oasip.backendus3.services.ScopeVersionService;
+import int221.oasip.backendus3.utils.CompressedFiles;
 import lombok.AllArgsConstructor;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -19,31 +25,60 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
-import javax.mail.MessagingException;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api/events")
 @AllArgsConstructor
 public class EventController {
+    /**
+     * upcoming events drop out of the list as they end, so their ETag also changes this often
+     */
+    private static final long UPCOMING_ETAG_SECONDS = 60;
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
     private EventService service;
+    private EventSeriesService seriesService;
+    private CalendarService calendarService;
+    private ScopeVersionService versionService;
+    private RenditionService renditionService;
+    private IdempotencyService idempotencyService;
 
+    /**
+     * Upcoming events are revalidated with the versions of what the user can see, so an unchanged list is answered
+     * with 304 without querying the events
+     */
     @GetMapping("")
-    public List<EventResponse> getEvents(
+    public ResponseEntity<List<EventResponse>> getEvents(
             @RequestParam(required = false) Integer categoryId,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime startAt,
             @RequestParam(required = false) String type,
-            Authentication authentication
+            Authentication authentication,
+            WebRequest request
     ) {
+        boolean isUpcoming = EventService.EventTimeType.UPCOMING.equals(EventService.EventTimeType.fromString(type));
+        if (isUpcoming && request.checkNotModified(upcomingEventsETag(categoryId, authentication))) {
+            return null;
+        }
+
         EventService.GetEventsOptions options = EventService.GetEventsOptions.builder()
                 .categoryId(categoryId)
                 .startAt(startAt != null ? startAt.toInstant() : null)
@@ -52,7 +87,70 @@ public class EventController {
                 .userEmail(authentication.getName())
                 .build();
 
-        return service.getEvents(options);
+        List<EventResponse> events = service.getEvents(options);
+        if (!isUpcoming) {
+            return ResponseEntity.ok(events);
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache().cachePrivate()).body(events);
+    }
+
+    private String upcomingEventsETag(Integer categoryId, Authentication authentication) {
+        // the user's own version covers their bookings, and role changes that change what they can see
+        String email = authentication.getName();
+        String etag = "upcoming-" + ScopeVersionService.userTag(email) + "-" + categoryId + "-"
+                + versionService.getUserVersion(email) + "-"
+                + versionService.getCategoriesVersion() + "-"
+                + Instant.now().getEpochSecond() / UPCOMING_ETAG_SECONDS;
+        if (isAdmin(authentication) || isLecturer(authentication)) {
+            // bookings of any category may be visible, the owners of categories are only changed in the database
+            etag += "-" + versionService.getAllCategoriesVersion();
+        }
+        return etag;
+    }
+
+    /**
+     * Bookings whose name, email or notes contain all words of {@code q}, most relevant first
+     */
+    @GetMapping("/search")
+    public EventSearchResponse search(
+            @RequestParam String q,
+            @RequestParam(required = false) Integer categoryId,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size,
+            Authentication authentication
+    ) {
+        try {
+            EventService.EventScope scope = service.resolveScope(isAdmin(authentication), authentication.getName(), categoryId);
+            return service.search(q, page, size, scope);
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
+    /**
+     * Booking counts and booked minutes per day and category, for the month and week views
+     */
+    @GetMapping("/calendar")
+    public List<CalendarDayResponse> getCalendar(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String zoneOffset,
+            @RequestParam(required = false) Integer categoryId,
+            Authentication authentication
+    ) {
+        ZoneOffset offset;
+        try {
+            offset = zoneOffset != null ? ZoneOffset.of(zoneOffset) : null;
+        } catch (DateTimeException e) {
+            throw new FieldNotValidException("zoneOffset", "Invalid zone offset " + zoneOffset);
+        }
+
+        try {
+            EventService.EventScope scope = service.resolveScope(isAdmin(authentication), authentication.getName(), categoryId);
+            return calendarService.getDays(from, to, offset, scope);
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
     }
 
     @GetMapping("/{id}")
@@ -70,10 +168,19 @@ public class EventController {
         return event;
     }
 
+    /**
+     * A request with an {@code Idempotency-Key} header is run once per key and client: a retry waits for the booking
+     * if it is still running, or gets the same response if it completed, with the {@code Idempotent-Replayed} header
+     */
     @PostMapping("")
     @ResponseStatus(HttpStatus.CREATED)
     @PreAuthorize("!hasRole('LECTURER')")
-    public EventResponse create(@Valid CreateEventMultipartRequest newEvent, Authentication authentication) {
+    public EventResponse create(
+            @Valid CreateEventMultipartRequest newEvent,
+            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            Authentication authentication,
+            HttpServletResponse response
+    ) {
         boolean isGuest = authentication == null;
         boolean isAdmin = authentication != null && isAdmin(authentication);
 
@@ -82,6 +189,23 @@ public class EventController {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Email in request body does not match the authenticated user");
         }
 
+        if (idempotencyKey == null) {
+            return createEvent(newEvent, isGuest, isAdmin);
+        }
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, IDEMPOTENCY_KEY + " must be 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+        }
+
+        String client = isGuest ? "guest" : authentication.getName();
+        IdempotencyService.Outcome<EventResponse> outcome = idempotencyService.execute(client + ":" + idempotencyKey,
+                fingerprint(newEvent), () -> createEvent(newEvent, isGuest, isAdmin));
+        if (outcome.isReplayed()) {
+            response.setHeader(IDEMPOTENT_REPLAYED, "true");
+        }
+        return outcome.getValue();
+    }
+
+    private EventResponse createEvent(CreateEventMultipartRequest newEvent, boolean isGuest, boolean isAdmin) {
         try {
             return service.create(newEvent, isGuest, isAdmin);
         } catch (EventOverlapException e) {
@@ -89,27 +213,138 @@ public class EventController {
         } catch (EntityNotFoundException e) {
             // category not found or user not found
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
-        } catch (MessagingException e) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to send email");
         } catch (IOException e) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to send email");
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to save file");
         }
     }
 
-    @DeleteMapping("/{id}")
+    /**
+     * The fields of the booking, the attachment by its name and size
+     */
+    private static String fingerprint(CreateEventMultipartRequest newEvent) {
+        MultipartFile file = newEvent.getFile();
+        return String.join("\n",
+                String.valueOf(newEvent.getEventCategoryId()),
+                newEvent.getBookingName(),
+                newEvent.getBookingEmail(),
+                newEvent.getEventStartTime().toInstant().toString(),
+                String.valueOf(newEvent.getEventNotes()),
+                file == null || file.isEmpty() ? "" : file.getOriginalFilename() + ":" + file.getSize());
+    }
+
+    @PostMapping("/batch")
+    @ResponseStatus(HttpStatus.CREATED)
     @PreAuthorize("!hasRole('LECTURER')")
-    public void delete(@PathVariable Integer id, Authentication authentication) {
-        EventResponse event = service.getEvent(id);
-        if (event == null) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Event with id " + id + " not found");
+    public EventBatchResponse createBatch(@Valid @RequestBody CreateEventBatchRequest request, Authentication authentication) {
+        boolean isAdmin = isAdmin(authentication);
+
+        if (!isAdmin && !authentication.getName().equals(request.getBookingEmail())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Email in request body does not match the authenticated user");
         }
 
-        String email = authentication.getName();
-        if (!isAdmin(authentication) && !event.getBookingEmail().equals(email)) {
-            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You are not allowed to access this event");
+        try {
+            return service.createBatch(request, isAdmin);
+        } catch (EventOverlapException e) {
+            throw new FieldNotValidException("eventStartTimes", e.getMessage());
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
+    @GetMapping("/series")
+    public List<EventSeriesResponse> getSeries(Authentication authentication) {
+        return seriesService.getAll(isAdmin(authentication) ? null : authentication.getName());
+    }
+
+    @PostMapping("/series")
+    @ResponseStatus(HttpStatus.CREATED)
+    @PreAuthorize("!hasRole('LECTURER')")
+    public EventSeriesResponse createSeries(@Valid @RequestBody CreateEventSeriesRequest request, Authentication authentication) {
+        boolean isAdmin = isAdmin(authentication);
+
+        if (!isAdmin && !authentication.getName().equals(request.getBookingEmail())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Email in request body does not match the authenticated user");
+        }
+
+        try {
+            return seriesService.create(request, isAdmin);
+        } catch (EventOverlapException e) {
+            throw new FieldNotValidException("firstStartTime", e.getMessage());
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/series/{id}")
+    @PreAuthorize("!hasRole('LECTURER')")
+    public void deleteSeries(@PathVariable Integer id, Authentication authentication) {
+        checkSeriesAccess(id, authentication);
+        seriesService.delete(id);
+    }
+
+    @DeleteMapping("/series/{id}/occurrences/{occurrenceStartTime}")
+    @PreAuthorize("!hasRole('LECTURER')")
+    public void cancelOccurrence(
+            @PathVariable Integer id,
+            @PathVariable @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime occurrenceStartTime,
+            Authentication authentication
+    ) {
+        checkSeriesAccess(id, authentication);
+
+        try {
+            seriesService.cancelOccurrence(id, occurrenceStartTime.toInstant());
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
+    /**
+     * Reschedule or change the notes of one occurrence, which turns it into a standalone event
+     */
+    @PatchMapping("/series/{id}/occurrences/{occurrenceStartTime}")
+    @PreAuthorize("!hasRole('LECTURER')")
+    public EventResponse rescheduleOccurrence(
+            @PathVariable Integer id,
+            @PathVariable @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime occurrenceStartTime,
+            @Valid @RequestBody EditEventRequest editEvent,
+            Authentication authentication
+    ) {
+        if (editEvent.getEventStartTime() == null && editEvent.getEventNotes() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one of eventStartTime or eventNotes must be provided");
         }
 
-        service.delete(id);
+        checkSeriesAccess(id, authentication);
+
+        try {
+            return service.rescheduleOccurrence(id, occurrenceStartTime.toInstant(), editEvent);
+        } catch (EventOverlapException e) {
+            throw new FieldNotValidException("eventStartTime", e.getMessage());
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
+    private void checkSeriesAccess(Integer id, Authentication authentication) {
+        EventSeriesResponse series = seriesService.get(id);
+        if (series == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Event series with id " + id + " not found");
+        }
+
+        if (!isAdmin(authentication) && !series.getBookingEmail().equals(authentication.getName())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You are not allowed to access this event series");
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    @PreAuthorize("!hasRole('LECTURER')")
+    public void delete(@PathVariable Integer id, Authentication authentication) {
+        try {
+            service.delete(id, isAdmin(authentication) ? null : authentication.getName());
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (ForbiddenException e) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, e.getMessage());
+        }
     }
 
     @PatchMapping("/{id}")
@@ -120,22 +355,14 @@ public class EventController {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one of eventStartTime, eventNotes, or file must be provided");
         }
 
-        EventResponse event = service.getEvent(id);
-        if (event == null) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Event with id " + id + " not found");
-        }
-
-        String email = authentication.getName();
-        if (!isAdmin(authentication) && !event.getBookingEmail().equals(email)) {
-            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You are not allowed to access this event");
-        }
-
         try {
-            return service.update(id, editEvent);
+            return service.update(id, editEvent, isAdmin(authentication) ? null : authentication.getName());
         } catch (EventOverlapException e) {
             throw new FieldNotValidException("eventStartTime", e.getMessage());
         } catch (EntityNotFoundException e) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (ForbiddenException e) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, e.getMessage());
         } catch (IOException e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to update file");
         }
@@ -146,30 +373,80 @@ public class EventController {
                 .anyMatch(a -> a.getAuthority().equals("ROLE_ADMIN"));
     }
 
+    private boolean isLecturer(Authentication authentication) {
+        return authentication.getAuthorities().stream()
+                .anyMatch(a -> a.getAuthority().equals("ROLE_LECTURER"));
+    }
+
     // with optional query parameter to only fetch the file name without the file content
+    // or to fetch a small JPEG rendition (thumbnail or preview) of an image or PDF instead of the file
     @GetMapping("/files/{uuid}")
     public ResponseEntity<?> getFile(
             @PathVariable String uuid,
-            @RequestParam(required = false) Boolean noContent
+            @RequestParam(required = false) Boolean noContent,
+            @RequestParam(required = false) String rendition,
+            WebRequest request
     ) throws IOException {
+        if (rendition != null) {
+            return getRendition(uuid, rendition, request);
+        }
+
         File file = service.getFileByBucketUuid(uuid)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found"));
 
         Path path = Paths.get(file.getAbsolutePath());
-        Resource resource = new ByteArrayResource(Files.readAllBytes(path));
-        String contentType = Files.probeContentType(path);
+        // a replaced file keeps its bucket, so it is revalidated instead of cached as immutable
+        if (request.checkNotModified(Files.getLastModifiedTime(path).toMillis())) {
+            return null;
+        }
+        String fileName = CompressedFiles.originalName(path);
+        String contentType = Files.probeContentType(Paths.get(fileName));
 
         HttpHeaders headers = new HttpHeaders();
-        headers.add(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=" + file.getName());
+        headers.add(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=" + fileName);
 
         ResponseEntity.BodyBuilder bodyBuilder = ResponseEntity.ok()
                 .headers(headers)
+                .cacheControl(CacheControl.noCache())
+                .header(CachePurgeService.HEADER, CachePurgeService.fileTag(uuid))
                 .contentType(contentType == null ? MediaType.APPLICATION_OCTET_STREAM : MediaType.parseMediaType(contentType));
 
-        if (noContent == null || !noContent) {
-            return bodyBuilder.body(resource);
-        } else {
-            return bodyBuilder.body(file.getName());
+        if (noContent != null && noContent) {
+            return bodyBuilder.body(fileName);
+        }
+        if (!CompressedFiles.isCompressed(path)) {
+            return bodyBuilder.body(new FileSystemResource(path));
+        }
+
+        // the stored gzip is sent as it is to clients that accept it, and decompressed while sending to the others
+        bodyBuilder.varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (CompressedFiles.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            return bodyBuilder
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(new FileSystemResource(path));
+        }
+        return bodyBuilder.body(new InputStreamResource(CompressedFiles.open(path)));
+    }
+
+    private ResponseEntity<?> getRendition(String uuid, String rendition, WebRequest request) throws IOException {
+        RenditionService.Rendition parsed;
+        try {
+            parsed = RenditionService.Rendition.fromString(rendition);
+        } catch (IllegalArgumentException e) {
+            throw new FieldNotValidException("rendition", e.getMessage());
+        }
+
+        // not found until it is generated, or if the file is not an image or PDF
+        Path path = renditionService.get(uuid, parsed)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Rendition not found"));
+        // a replaced file keeps its bucket, so renditions are revalidated instead of cached as immutable
+        if (request.checkNotModified(Files.getLastModifiedTime(path).toMillis())) {
+            return null;
         }
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .header(CachePurgeService.HEADER, CachePurgeService.fileTag(uuid))
+                .contentType(MediaType.IMAGE_JPEG)
+                .body(new FileSystemResource(path));
     }
 }
@@ -0,0 +1,53 @@
+package int221.oasip.backendus3.controllers;
+
+import int221.oasip.backendus3.dtos.FeedLinkResponse;
+import int221.oasip.backendus3.exceptions.EntityNotFoundException;
+import int221.oasip.backendus3.services.FeedService;
+import lombok.AllArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/feeds")
+@AllArgsConstructor
+public class FeedController {
+    private FeedService service;
+
+    @GetMapping("")
+    public List<FeedLinkResponse> getLinks(Authentication authentication) {
+        try {
+            return service.getLinks(authentication.getName());
+        } catch (EntityNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
+    /**
+     * Subscription URL for calendar apps, which poll it without logging in. An unchanged feed is answered with 304
+     * from the version counters alone.
+     */
+    @GetMapping("/calendar.ics")
+    public void getCalendar(@RequestParam String token, ServletWebRequest request, HttpServletResponse response) throws IOException {
+        FeedService.Feed feed = service.resolve(token);
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+        if (request.checkNotModified(feed.getEtag())) {
+            return;
+        }
+
+        response.setContentType("text/calendar;charset=UTF-8");
+        service.write(feed, response.getWriter());
+    }
+}
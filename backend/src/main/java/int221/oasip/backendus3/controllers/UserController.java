@@ -2,18 +2,22 @@ package int221.oasip.backendus3.controllers;
 
 import int221.oasip.backendus3.dtos.CreateUserRequest;
 import int221.oasip.backendus3.dtos.EditUserRequest;
+import int221.oasip.backendus3.dtos.UserImportResponse;
 import int221.oasip.backendus3.dtos.UserResponse;
 import int221.oasip.backendus3.entities.Role;
 import int221.oasip.backendus3.exceptions.EntityNotFoundException;
 import int221.oasip.backendus3.exceptions.ValidationErrors;
+import int221.oasip.backendus3.services.UserImportService;
 import int221.oasip.backendus3.services.UserServive;
 import lombok.AllArgsConstructor;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
 import javax.validation.Valid;
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -21,6 +25,7 @@ import java.util.List;
 @AllArgsConstructor
 public class UserController {
     private UserServive service;
+    private UserImportService importService;
 
     @GetMapping("")
     public List<UserResponse> getUsers() {
@@ -38,6 +43,22 @@ public class UserController {
         }
     }
 
+    /**
+     * Create users from CSV with a header line naming the columns, rows that are rejected are listed with their errors
+     */
+    @PostMapping(value = "/import", consumes = "text/csv")
+    public UserImportResponse importCsv(InputStream body) {
+        return importService.importCsv(body);
+    }
+
+    /**
+     * Create users from a JSON array of users, rows that are rejected are listed with their errors
+     */
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public UserImportResponse importJson(InputStream body) {
+        return importService.importJson(body);
+    }
+
     @GetMapping("/roles")
     public Role[] getRoles() {
         return Role.values();
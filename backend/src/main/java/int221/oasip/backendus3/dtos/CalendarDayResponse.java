@@ -0,0 +1,19 @@
+package int221.oasip.backendus3.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDate;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CalendarDayResponse {
+    private LocalDate date;
+    private Integer eventCategoryId;
+    private long eventCount;
+    private long bookedMinutes;
+}
@@ -0,0 +1,38 @@
+package int221.oasip.backendus3.dtos;
+
+import int221.oasip.backendus3.services.EventService;
+import int221.oasip.backendus3.validators.EnumValue;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.*;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+@Getter
+@Setter
+public class CreateEventBatchRequest {
+    @NotNull(message = "Event category ID must not be null")
+    private Integer eventCategoryId;
+
+    @NotBlank(message = "Booking name must not be blank")
+    @Size(max = 100, message = "Booking name must be less than {max} characters")
+    private String bookingName;
+
+    @NotBlank(message = "Booking email must not be blank")
+    @Size(max = 50, message = "Booking email must be less than {max} characters")
+    @Email(message = "Booking email is invalid")
+    private String bookingEmail;
+
+    @NotEmpty(message = "Start times must not be empty")
+    @Size(max = 100, message = "At most {max} start times can be booked at once")
+    private List<@NotNull(message = "Start time must not be null") @Future(message = "Start time must be in the future") OffsetDateTime> eventStartTimes;
+
+    @Size(max = 500, message = "Event notes must be less than {max} characters")
+    @Nullable
+    private String eventNotes;
+
+    @EnumValue(enumClass = EventService.BatchMode.class, method = "fromString", message = "Mode must be either all_or_nothing or best_effort")
+    private String mode = EventService.BatchMode.ALL_OR_NOTHING.toString();
+}
@@ -0,0 +1,44 @@
+package int221.oasip.backendus3.dtos;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.*;
+import java.time.OffsetDateTime;
+
+@Getter
+@Setter
+public class CreateEventSeriesRequest {
+    @NotNull(message = "Event category ID must not be null")
+    private Integer eventCategoryId;
+
+    @NotBlank(message = "Booking name must not be blank")
+    @Size(max = 100, message = "Booking name must be less than {max} characters")
+    private String bookingName;
+
+    @NotBlank(message = "Booking email must not be blank")
+    @Size(max = 50, message = "Booking email must be less than {max} characters")
+    @Email(message = "Booking email is invalid")
+    private String bookingEmail;
+
+    @NotNull(message = "First start time must not be null")
+    @Future(message = "First start time must be in the future")
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private OffsetDateTime firstStartTime;
+
+    @NotNull(message = "Interval must not be null")
+    @Min(value = 1, message = "Interval must be between {value} and 4 weeks")
+    @Max(value = 4, message = "Interval must be between 1 and {value} weeks")
+    private Integer intervalWeeks = 1;
+
+    @NotNull(message = "Until time must not be null")
+    @Future(message = "Until time must be in the future")
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private OffsetDateTime untilTime;
+
+    @Size(max = 500, message = "Event notes must be less than {max} characters")
+    @Nullable
+    private String eventNotes;
+}
@@ -0,0 +1,13 @@
+package int221.oasip.backendus3.dtos;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+public class EventBatchResponse {
+    private List<EventResponse> created;
+    private List<RejectedEventStartTime> rejected;
+}
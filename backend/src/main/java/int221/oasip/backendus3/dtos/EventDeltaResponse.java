@@ -0,0 +1,26 @@
+package int221.oasip.backendus3.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.annotation.Nullable;
+
+/**
+ * One change to the events of a category, as pushed to subscribers of the category
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+public class EventDeltaResponse {
+    /**
+     * created, updated or deleted
+     */
+    private String type;
+    private Integer eventId;
+    /**
+     * the event after the change, null if it was deleted
+     */
+    @Nullable
+    private EventResponse event;
+}
@@ -3,6 +3,7 @@ package int221.oasip.backendus3.dtos;
 import lombok.Getter;
 import lombok.Setter;
 
+import javax.annotation.Nullable;
 import java.time.Instant;
 
 @Getter
@@ -16,4 +17,9 @@ public class EventResponse {
     private Integer eventDuration;
     private String eventNotes;
     private String bucketUuid;
+    /**
+     * set when this is an occurrence of a recurring series, {@code id} is null in that case
+     */
+    @Nullable
+    private Integer seriesId;
 }
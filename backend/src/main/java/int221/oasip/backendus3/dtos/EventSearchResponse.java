@@ -0,0 +1,21 @@
+package int221.oasip.backendus3.dtos;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+public class EventSearchResponse {
+    /**
+     * matching events, most relevant first
+     */
+    private List<EventResponse> events;
+    private int page;
+    private int size;
+    /**
+     * whether the next page has more events, found without counting all matches
+     */
+    private boolean hasNext;
+}
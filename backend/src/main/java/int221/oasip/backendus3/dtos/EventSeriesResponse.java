@@ -0,0 +1,22 @@
+package int221.oasip.backendus3.dtos;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.util.List;
+
+@Getter
+@Setter
+public class EventSeriesResponse {
+    private Integer id;
+    private EventCategoryIdAndNameResponse eventCategory;
+    private String bookingName;
+    private String bookingEmail;
+    private Instant firstStartTime;
+    private Integer eventDuration;
+    private Integer intervalWeeks;
+    private Instant untilTime;
+    private String eventNotes;
+    private List<Instant> cancelledOccurrences;
+}
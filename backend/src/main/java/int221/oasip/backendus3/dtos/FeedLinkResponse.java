@@ -0,0 +1,16 @@
+package int221.oasip.backendus3.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+public class FeedLinkResponse {
+    private String name;
+    /**
+     * path of the feed on this server, including its token
+     */
+    private String path;
+}
@@ -0,0 +1,18 @@
+package int221.oasip.backendus3.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+@Getter
+@Setter
+@AllArgsConstructor
+public class FreeIntervalResponse {
+    private Instant startTime;
+    /**
+     * exclusive
+     */
+    private Instant endTime;
+}
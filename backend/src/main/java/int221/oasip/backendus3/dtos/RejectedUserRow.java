@@ -0,0 +1,22 @@
+package int221.oasip.backendus3.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Collection;
+import java.util.Map;
+
+@Getter
+@Setter
+@AllArgsConstructor
+public class RejectedUserRow {
+    /**
+     * position of the user in the import, counting from 1
+     */
+    private int row;
+    /**
+     * messages by field, as for a single user
+     */
+    private Map<String, Collection<String>> errors;
+}
@@ -0,0 +1,49 @@
+package int221.oasip.backendus3.entities;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * An event moved out of the event table after it was long over, with the same columns and id.
+ * It is written by the archive job with SQL and read back as an {@link Event}, this mapping only describes the table.
+ */
+@Entity
+@Table(name = "eventArchive")
+@Getter
+@Setter
+@NoArgsConstructor
+public class ArchivedEvent {
+    @Id
+    @Column(name = "eventId", nullable = false)
+    private Integer id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "userId")
+    private User user;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "eventCategoryId", nullable = false)
+    private EventCategory eventCategory;
+
+    @Column(name = "bookingName", nullable = false, length = 100)
+    private String bookingName;
+
+    @Column(name = "bookingEmail", nullable = false, length = 50)
+    private String bookingEmail;
+
+    @Column(name = "eventStartTime", nullable = false)
+    private Instant eventStartTime;
+
+    @Column(name = "eventDuration", nullable = false)
+    private Integer eventDuration;
+
+    @Column(name = "eventNotes", length = 500)
+    private String eventNotes;
+
+    @Column(name = "bucketUuid", length = 36)
+    private String bucketUuid;
+}
@@ -0,0 +1,48 @@
+package int221.oasip.backendus3.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * Number of events and booked minutes of one category on one day, counted again after every change to its events.
+ * Days are taken at the fixed offset {@code calendar.summary.zone-offset}, and an event counts on the day it starts.
+ * Occurrences of recurring series are not included.
+ */
+@Entity
+@Table(name = "eventDaySummary")
+@IdClass(EventDaySummary.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+public class EventDaySummary {
+    @Id
+    @Column(name = "summaryDate", nullable = false)
+    private LocalDate summaryDate;
+
+    @Id
+    @Column(name = "eventCategoryId", nullable = false)
+    private Integer eventCategoryId;
+
+    @Column(name = "eventCount", nullable = false)
+    private Integer eventCount;
+
+    @Column(name = "bookedMinutes", nullable = false)
+    private Integer bookedMinutes;
+
+    @EqualsAndHashCode
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private LocalDate summaryDate;
+        private Integer eventCategoryId;
+    }
+}
@@ -0,0 +1,146 @@
+package int221.oasip.backendus3.entities;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * A booking that repeats every {@code intervalWeeks} weeks, stored once instead of one {@link Event} per occurrence.
+ * Occurrences start at {@code firstStartTime + n * intervalWeeks weeks} for every {@code n >= 0} while the start is
+ * before {@code untilTime}, except for the cancelled ones in {@code exceptions}.
+ */
+@Entity
+@Table(name = "eventSeries")
+@Getter
+@Setter
+@NoArgsConstructor
+public class EventSeries {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "eventSeriesId", nullable = false)
+    private Integer id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "userId")
+    private User user;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "eventCategoryId", nullable = false)
+    private EventCategory eventCategory;
+
+    @Column(name = "bookingName", nullable = false, length = 100)
+    private String bookingName;
+
+    @Column(name = "bookingEmail", nullable = false, length = 50)
+    private String bookingEmail;
+
+    @Column(name = "eventNotes", length = 500)
+    private String eventNotes;
+
+    @Column(name = "firstStartTime", nullable = false)
+    private Instant firstStartTime;
+
+    @Column(name = "eventDuration", nullable = false)
+    private Integer eventDuration;
+
+    @Column(name = "intervalWeeks", nullable = false)
+    private Integer intervalWeeks;
+
+    /**
+     * exclusive upper bound of occurrence start times
+     */
+    @Column(name = "untilTime", nullable = false)
+    private Instant untilTime;
+
+    @OneToMany(mappedBy = "eventSeries", fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
+    private Set<EventSeriesException> exceptions = new HashSet<>();
+
+    public Duration getPeriod() {
+        return Duration.ofDays(7L * intervalWeeks);
+    }
+
+    public boolean isCancelled(Instant occurrenceStartTime) {
+        return exceptions.stream().anyMatch(e -> e.getOccurrenceStartTime().equals(occurrenceStartTime));
+    }
+
+    public boolean isOccurrence(Instant startTime) {
+        if (startTime.isBefore(firstStartTime) || !startTime.isBefore(untilTime)) {
+            return false;
+        }
+        return Duration.between(firstStartTime, startTime).toSeconds() % getPeriod().toSeconds() == 0;
+    }
+
+    /**
+     * Expand only the occurrences that start between {@code fromInclusive} and {@code toExclusive}
+     *
+     * @return start times of the occurrences that are not cancelled, in ascending order
+     */
+    public List<Instant> getOccurrenceStartTimes(Instant fromInclusive, Instant toExclusive) {
+        long periodSeconds = getPeriod().toSeconds();
+        long index = Math.max(0, ceilDiv(Duration.between(firstStartTime, fromInclusive).toSeconds(), periodSeconds));
+
+        List<Instant> startTimes = new ArrayList<>();
+        for (Instant start = occurrence(index); start.isBefore(toExclusive) && start.isBefore(untilTime); start = occurrence(++index)) {
+            if (!isCancelled(start)) {
+                startTimes.add(start);
+            }
+        }
+        return startTimes;
+    }
+
+    /**
+     * Find an occurrence that overlaps {@code startAt} (inclusive) to {@code endAt} (exclusive) without expanding the series.
+     * Only the occurrences right before and after {@code startAt} are looked at, since an event is shorter than the period.
+     *
+     * @return start time of the overlapping occurrence
+     */
+    public Optional<Instant> findOverlappingOccurrence(Instant startAt, Instant endAt) {
+        long periodSeconds = getPeriod().toSeconds();
+        long index = Math.floorDiv(Duration.between(firstStartTime, startAt).toSeconds(), periodSeconds);
+
+        for (long i = Math.max(0, index); i <= Math.max(0, index + 1); i++) {
+            Instant start = occurrence(i);
+            Instant end = start.plus(eventDuration, ChronoUnit.MINUTES);
+            if (start.isBefore(untilTime) && start.isBefore(endAt) && end.isAfter(startAt) && !isCancelled(start)) {
+                return Optional.of(start);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Whether any occurrence of this series may overlap an occurrence of {@code other}, without expanding either.
+     * The offsets between two periodic series repeat every gcd of the periods, so only one offset has to be checked.
+     * Cancelled occurrences are not taken into account.
+     */
+    public boolean mayOverlap(EventSeries other) {
+        Instant lastEnd = untilTime.plus(eventDuration, ChronoUnit.MINUTES);
+        Instant otherLastEnd = other.untilTime.plus(other.eventDuration, ChronoUnit.MINUTES);
+        if (!firstStartTime.isBefore(otherLastEnd) || !other.firstStartTime.isBefore(lastEnd)) {
+            return false;
+        }
+
+        long gcd = gcd(getPeriod().toSeconds(), other.getPeriod().toSeconds());
+        long offset = Math.floorMod(Duration.between(firstStartTime, other.firstStartTime).toSeconds(), gcd);
+        // the other series starts `offset` seconds after (or `gcd - offset` seconds before) an occurrence of this one
+        return offset < eventDuration * 60L || gcd - offset < other.eventDuration * 60L;
+    }
+
+    private Instant occurrence(long index) {
+        return firstStartTime.plus(getPeriod().multipliedBy(index));
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+}
@@ -0,0 +1,37 @@
+package int221.oasip.backendus3.entities;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * A cancelled occurrence of an {@link EventSeries}. A rescheduled occurrence is cancelled here and booked as a standalone {@link Event}.
+ */
+@Entity
+@Table(name = "eventSeriesException", uniqueConstraints = {
+        @UniqueConstraint(name = "eventSeriesException_series_occurrence_UNIQUE", columnNames = {"eventSeriesId", "occurrenceStartTime"})
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class EventSeriesException {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "eventSeriesExceptionId", nullable = false)
+    private Integer id;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "eventSeriesId", nullable = false)
+    private EventSeries eventSeries;
+
+    @Column(name = "occurrenceStartTime", nullable = false)
+    private Instant occurrenceStartTime;
+
+    public EventSeriesException(EventSeries eventSeries, Instant occurrenceStartTime) {
+        this.eventSeries = eventSeries;
+        this.occurrenceStartTime = occurrenceStartTime;
+    }
+}
@@ -0,0 +1,37 @@
+package int221.oasip.backendus3.entities;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * A fixed-size time slot claimed by an event. The unique key on ({@code eventCategoryId}, {@code slotStart})
+ * lets the database reject double bookings atomically.
+ */
+@Entity
+@Table(name = "eventSlot", uniqueConstraints = {
+        @UniqueConstraint(name = "eventSlot_category_slotStart_UNIQUE", columnNames = {"eventCategoryId", "slotStart"})
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class EventSlot {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "eventSlotId", nullable = false)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "eventCategoryId", nullable = false)
+    private EventCategory eventCategory;
+
+    @Column(name = "slotStart", nullable = false)
+    private Instant slotStart;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "eventId", nullable = false)
+    private Event event;
+}
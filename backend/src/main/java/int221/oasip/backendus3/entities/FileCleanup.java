@@ -0,0 +1,32 @@
+package int221.oasip.backendus3.entities;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * An upload directory waiting to be deleted by the background cleaner. Rows are added in the transaction that stops
+ * using the directory, so a rolled back change keeps its file.
+ */
+@Entity
+@Table(name = "fileCleanup")
+@Getter
+@Setter
+@NoArgsConstructor
+public class FileCleanup {
+    @Id
+    @Column(name = "bucketUuid", nullable = false, length = 36)
+    private String bucketUuid;
+
+    /**
+     * not deleted before this, pushed back after every failed attempt
+     */
+    @Column(name = "dueAt", nullable = false)
+    private Instant dueAt;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts;
+}
@@ -0,0 +1,28 @@
+package int221.oasip.backendus3.entities;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * A mail that one of the backend instances has taken on to send, so the instances that know of it do not all send it
+ */
+@Entity
+@Table(name = "mailClaim")
+@Getter
+@Setter
+@NoArgsConstructor
+public class MailClaim {
+    /**
+     * e.g. {@code reminder:<eventId>:<eventStartTime in epoch seconds>} or {@code digest:<date>}
+     */
+    @Id
+    @Column(name = "claimKey", nullable = false, length = 64)
+    private String claimKey;
+
+    @Column(name = "claimedAt", nullable = false)
+    private Instant claimedAt;
+}
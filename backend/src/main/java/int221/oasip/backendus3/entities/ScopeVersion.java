@@ -0,0 +1,43 @@
+package int221.oasip.backendus3.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * Change counter of one scope of data, e.g. the events of a category or of a user. The counter only ever goes up,
+ * so a client that saw the same version has seen the same data.
+ */
+@Entity
+@Table(name = "scopeVersion")
+@IdClass(ScopeVersion.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+public class ScopeVersion {
+    @Id
+    @Column(name = "scopeType", nullable = false, length = 20)
+    private String scopeType;
+
+    @Id
+    @Column(name = "scopeKey", nullable = false, length = 50)
+    private String scopeKey;
+
+    @Column(name = "version", nullable = false)
+    private Long version;
+
+    @EqualsAndHashCode
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String scopeType;
+        private String scopeKey;
+    }
+}
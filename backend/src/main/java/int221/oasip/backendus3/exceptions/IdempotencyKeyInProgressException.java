@@ -0,0 +1,13 @@
+package int221.oasip.backendus3.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.CONFLICT)
+public class IdempotencyKeyInProgressException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public IdempotencyKeyInProgressException() {
+        super("A request with this Idempotency-Key is still in progress");
+    }
+}
@@ -1,9 +1,16 @@
 package int221.oasip.backendus3.repository;
 
 import int221.oasip.backendus3.entities.EventCategoryOwner;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface EventCategoryOwnerRepository extends JpaRepository<EventCategoryOwner, Integer> {
+    @EntityGraph(attributePaths = "user")
+    @Query("SELECT o FROM EventCategoryOwner o")
+    List<EventCategoryOwner> findAllWithUser();
 }
@@ -2,11 +2,29 @@ package int221.oasip.backendus3.repository;
 
 import int221.oasip.backendus3.entities.EventCategory;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
 
+import javax.persistence.LockModeType;
 import java.util.List;
+import java.util.Optional;
 
 public interface EventCategoryRepository extends JpaRepository<EventCategory, Integer> {
     EventCategory findByEventCategoryNameIgnoreCase(String name);
 
+    /**
+     * Get the category and lock its row until the transaction ends ({@code SELECT ... FOR UPDATE}), so the bookings of
+     * a category are checked and written one at a time, also across backend instances.
+     * <p>
+     * Call it before the transaction reads anything else: under REPEATABLE READ, the first plain read fixes the
+     * snapshot that later plain reads see, and the lock is only worth something if that is taken after it.
+     *
+     * @param id category id
+     * @return the locked category
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT C FROM EventCategory C WHERE C.id = :id")
+    Optional<EventCategory> lockById(Integer id);
+
     List<EventCategory> findByOwners_User_Email(String email);
 }
@@ -0,0 +1,16 @@
+package int221.oasip.backendus3.repository;
+
+import java.time.LocalDate;
+
+/**
+ * Number of bookings and booked minutes of one category on one day, as grouped by the database
+ */
+public interface EventDayCount {
+    LocalDate getEventDate();
+
+    Integer getCategoryId();
+
+    long getEventCount();
+
+    long getBookedMinutes();
+}
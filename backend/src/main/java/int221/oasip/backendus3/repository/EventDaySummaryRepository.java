@@ -0,0 +1,27 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.EventDaySummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.lang.Nullable;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public interface EventDaySummaryRepository extends JpaRepository<EventDaySummary, EventDaySummary.Key>, EventDaySummaryRepositoryCustom {
+    /**
+     * Get the summaries of the days from {@code fromInclusive} to {@code toExclusive} that have at least one event
+     * <p>{@code categoryIds} is optional. If it is not null, only summaries with category id in the list will be returned.
+     *
+     * @param fromInclusive first day
+     * @param toExclusive   day after the last day
+     * @param categoryIds   list of category ids
+     * @return summaries ordered by day and category id
+     */
+    @Query("SELECT S.summaryDate AS eventDate, S.eventCategoryId AS categoryId, S.eventCount AS eventCount, S.bookedMinutes AS bookedMinutes " +
+            "FROM EventDaySummary S WHERE " +
+            "(:#{#categoryIds == null} = true OR S.eventCategoryId IN :#{#categoryIds == null ? T(java.util.List).of(0) : #categoryIds}) AND " +
+            "S.summaryDate >= :fromInclusive AND S.summaryDate < :toExclusive AND S.eventCount > 0 " +
+            "ORDER BY S.summaryDate, S.eventCategoryId")
+    List<EventDayCount> findByDateRange(LocalDate fromInclusive, LocalDate toExclusive, @Nullable List<Integer> categoryIds);
+}
@@ -0,0 +1,18 @@
+package int221.oasip.backendus3.repository;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+public interface EventDaySummaryRepositoryCustom {
+    /**
+     * Count the events of one day of a category again, including archived events, and store the counts in a single
+     * upsert, creating the row if it does not exist yet. Running it again gives the same result, so it can be run
+     * after the change has committed and in any order with the changes of other transactions.
+     *
+     * @param day           day of the summary
+     * @param categoryId    category id of the summary
+     * @param fromInclusive start of the day
+     * @param toExclusive   start of the next day
+     */
+    void recount(LocalDate day, Integer categoryId, Instant fromInclusive, Instant toExclusive);
+}
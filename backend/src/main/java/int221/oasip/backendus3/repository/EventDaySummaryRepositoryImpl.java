@@ -0,0 +1,29 @@
+package int221.oasip.backendus3.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+
+@RequiredArgsConstructor
+public class EventDaySummaryRepositoryImpl implements EventDaySummaryRepositoryCustom {
+    private static final String RECOUNT_SUMMARY = "INSERT INTO eventDaySummary (summaryDate, eventCategoryId, eventCount, bookedMinutes) " +
+            "SELECT ?, ?, COUNT(*), COALESCE(SUM(e.eventDuration), 0) FROM (" +
+            "SELECT eventDuration FROM event WHERE eventCategoryId = ? AND eventStartTime >= ? AND eventStartTime < ? " +
+            "UNION ALL " +
+            "SELECT eventDuration FROM eventArchive WHERE eventCategoryId = ? AND eventStartTime >= ? AND eventStartTime < ?" +
+            ") e " +
+            "ON DUPLICATE KEY UPDATE eventCount = VALUES(eventCount), bookedMinutes = VALUES(bookedMinutes)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void recount(LocalDate day, Integer categoryId, Instant fromInclusive, Instant toExclusive) {
+        Timestamp from = Timestamp.from(fromInclusive);
+        Timestamp to = Timestamp.from(toExclusive);
+        jdbcTemplate.update(RECOUNT_SUMMARY, Date.valueOf(day), categoryId, categoryId, from, to, categoryId, from, to);
+    }
+}
@@ -1,15 +1,48 @@
 package int221.oasip.backendus3.repository;
 
 import int221.oasip.backendus3.entities.Event;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.lang.Nullable;
 
+import javax.persistence.QueryHint;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static int221.oasip.backendus3.services.EventService.MAX_EVENT_DURATION_MINUTES;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+public interface EventRepository extends JpaRepository<Event, Integer>, EventRepositoryCustom {
+    /**
+     * columns that the event and eventArchive tables share, listed so both select them in the same order
+     */
+    String ARCHIVED_COLUMNS = "eventId, bookingName, bookingEmail, eventStartTime, eventDuration, eventNotes, eventCategoryId, userId, bucketUuid";
+
+    /**
+     * Events that end after {@code :startAt} started at most the longest duration before it. Queries on the end time
+     * add this bound so they can use an index on eventStartTime, see EventQueryPlanTest. The bound is computed before
+     * binding it, H2 cannot tell the type of a parameter inside TIMESTAMPADD.
+     */
+    String STARTED_WITHIN_MAX_DURATION_BEFORE_START_AT = "eventStartTime > :#{#startAt.minusSeconds(" + MAX_EVENT_DURATION_MINUTES * 60 + ")}";
+
+    @Override
+    @EntityGraph(attributePaths = "eventCategory")
+    Optional<Event> findById(Integer id);
+
+    @Override
+    @EntityGraph(attributePaths = "eventCategory")
+    List<Event> findAll();
 
-public interface EventRepository extends JpaRepository<Event, Integer> {
     /**
      * Get all overlap events. There are two scenarios:
      * <ol>
@@ -29,15 +62,46 @@ public interface EventRepository extends JpaRepository<Event, Integer> {
                     "FROM event e " +
                     "WHERE e.eventCategoryId = :categoryId " +
                     "AND (:currentEventId IS NULL OR e.eventId <> :currentEventId) AND " +
-                    "((e.eventStartTime < :startAt AND TIMESTAMPADD(MINUTE, e.eventDuration, e.eventStartTime) > :startAt) OR " +
+                    "((e.eventStartTime < :startAt AND e." + STARTED_WITHIN_MAX_DURATION_BEFORE_START_AT + " AND " +
+                    "TIMESTAMPADD(MINUTE, e.eventDuration, e.eventStartTime) > :startAt) OR " +
                     "(e.eventStartTime >= :startAt AND e.eventStartTime < :endAt))")
     List<Event> findOverlapEventsByCategoryId(Instant startAt, Instant endAt, Integer categoryId, @Nullable Integer currentEventId);
 
-    @Query("SELECT E FROM Event E WHERE (:#{#categoryIds == null} = true OR E.eventCategory.id IN :#{#categoryIds == null ? (new java.util.ArrayList()) : #categoryIds}) AND " +
+    @Query("SELECT E FROM Event E JOIN FETCH E.eventCategory WHERE (:#{#categoryIds == null} = true OR E.eventCategory.id IN :#{#categoryIds == null ? T(java.util.List).of(0) : #categoryIds}) AND " +
             "(:userId IS NULL OR E.user.id = :userId) AND " +
             "E.eventStartTime >= :fromInclusive AND E.eventStartTime < :toExclusive")
     List<Event> findByDateRange(Instant fromInclusive, Instant toExclusive, @Nullable List<Integer> categoryIds, Integer userId);
 
+    /**
+     * Count the events and their booked minutes per day and category, for events that started between
+     * {@code fromInclusive} and {@code toExclusive}. An event counts on the day it starts, and days are taken at
+     * {@code offsetMinutes} from the stored (UTC) start times.
+     * <p>{@code categoryIds} is optional. If it is not null, only events with category id in the list will be counted.
+     * <p>{@code userId} is optional. If it is not null, only events with the user id will be counted.
+     *
+     * @param fromInclusive start of the range
+     * @param toExclusive   end of the range
+     * @param offsetMinutes offset of the calendar days from UTC
+     * @param categoryIds   list of category ids
+     * @param userId        user id of event
+     * @return counts ordered by day and category id, days without events are left out; archived events are counted
+     */
+    @Query(nativeQuery = true,
+            value = "SELECT CAST(TIMESTAMPADD(MINUTE, :offsetMinutes, e.eventStartTime) AS DATE) AS eventDate, " +
+                    "e.eventCategoryId AS categoryId, COUNT(*) AS eventCount, SUM(e.eventDuration) AS bookedMinutes " +
+                    "FROM (" +
+                    "SELECT eventStartTime, eventDuration, eventCategoryId, userId FROM event " +
+                    "WHERE eventStartTime >= :fromInclusive AND eventStartTime < :toExclusive " +
+                    "UNION ALL " +
+                    "SELECT eventStartTime, eventDuration, eventCategoryId, userId FROM eventArchive " +
+                    "WHERE eventStartTime >= :fromInclusive AND eventStartTime < :toExclusive" +
+                    ") e " +
+                    "WHERE (:#{#categoryIds == null} = true OR e.eventCategoryId IN :#{#categoryIds == null ? T(java.util.List).of(0) : #categoryIds}) AND " +
+                    "(:userId IS NULL OR e.userId = :userId) " +
+                    "GROUP BY eventDate, categoryId " +
+                    "ORDER BY eventDate, categoryId")
+    List<EventDayCount> countByDay(Instant fromInclusive, Instant toExclusive, int offsetMinutes, @Nullable List<Integer> categoryIds, @Nullable Integer userId);
+
     /**
      * Get all events that started in the selected day, starting from {@code startAt} (inclusive) to {@code startAt + 1 day} (exclusive)
      * <p>{@code categoryIds} is optional. If it is not null, only events with category id in the list will be returned.
@@ -63,7 +127,7 @@ public interface EventRepository extends JpaRepository<Event, Integer> {
      */
     //    List<Event> findByEventCategory_IdAndUser_Id(Integer categoryId, Integer userId);
     // refactor the above method to support optional userId
-    @Query("SELECT E FROM Event E WHERE :categoryId = E.eventCategory.id AND " +
+    @Query("SELECT E FROM Event E JOIN FETCH E.eventCategory WHERE :categoryId = E.eventCategory.id AND " +
             "(:userId IS NULL OR :userId = E.user.id)")
     List<Event> findByEventCategory_IdAndUser_Id(Integer categoryId, @Nullable Integer userId);
 
@@ -80,8 +144,9 @@ public interface EventRepository extends JpaRepository<Event, Integer> {
     @Query(nativeQuery = true,
             value = "SELECT * " +
                     "FROM event e " +
-                    "WHERE (:#{#categoryIds == null} = true OR e.eventCategoryId IN :#{#categoryIds == null ? (new java.util.ArrayList()) : #categoryIds}) AND " +
+                    "WHERE (:#{#categoryIds == null} = true OR e.eventCategoryId IN :#{#categoryIds == null ? T(java.util.List).of(0) : #categoryIds}) AND " +
                     "(:userId IS NULL OR e.userId = :userId) AND " +
+                    "e." + STARTED_WITHIN_MAX_DURATION_BEFORE_START_AT + " AND " +
                     "TIMESTAMPADD(MINUTE, e.eventDuration, e.eventStartTime) > :startAt")
     List<Event> findUpcomingAndOngoingEvents(Instant startAt, @Nullable List<Integer> categoryIds, @Nullable Integer userId);
 
@@ -93,18 +158,86 @@ public interface EventRepository extends JpaRepository<Event, Integer> {
      * @param startAt     start time of event
      * @param categoryIds list of category ids
      * @param userId      user id of event
-     * @return list of events that ended before or at the {@code startAt}
+     * @return list of events that ended before or at the {@code startAt}, followed by the archived ones, which are not
+     * attached to the persistence context, see {@link #findArchivedPastEvents(Instant, List, Integer)}
+     */
+    default List<Event> findPastEvents(Instant startAt, @Nullable List<Integer> categoryIds, @Nullable Integer userId) {
+        List<Event> events = new ArrayList<>(findPastUnarchivedEvents(startAt, categoryIds, userId));
+        events.addAll(findArchivedPastEvents(startAt, categoryIds, userId));
+        return events;
+    }
+
+    /**
+     * Same as {@link #findPastEvents(Instant, List, Integer)} without the archived events
      */
     @Query(nativeQuery = true,
             value = "SELECT * " +
                     "FROM event e " +
-                    "WHERE (:#{#categoryIds == null} = true OR e.eventCategoryId IN :#{#categoryIds == null ? (new java.util.ArrayList()) : #categoryIds}) AND " +
+                    "WHERE (:#{#categoryIds == null} = true OR e.eventCategoryId IN :#{#categoryIds == null ? T(java.util.List).of(0) : #categoryIds}) AND " +
                     "(:userId IS NULL OR e.userId = :userId) AND " +
-                    "TIMESTAMPADD(MINUTE, e.eventDuration, e.eventStartTime) <= :startAt")
-    List<Event> findPastEvents(Instant startAt, @Nullable List<Integer> categoryIds, Integer userId);
+                    "e.eventStartTime < :startAt AND TIMESTAMPADD(MINUTE, e.eventDuration, e.eventStartTime) <= :startAt")
+    List<Event> findPastUnarchivedEvents(Instant startAt, @Nullable List<Integer> categoryIds, @Nullable Integer userId);
+
+    /**
+     * Search events with the {@code event_search_idx} FULLTEXT index over bookingName, bookingEmail and eventNotes,
+     * most relevant first. The page is read with one more row than its size to tell if there is a next one,
+     * so matches are never counted.
+     * <p>{@code categoryIds} is optional. If it is not null, only events with category id in the list will be returned.
+     * <p>{@code userId} is optional. If it is not null, only events with the user id will be returned.
+     *
+     * @param booleanQuery query in MySQL boolean full-text syntax
+     * @param categoryIds  list of category ids
+     * @param userId       user id of event
+     * @param pageable     page to read, its sort is ignored
+     * @return matching events ordered by relevance, then by start time from the latest
+     */
+    @Query(nativeQuery = true,
+            value = "SELECT * " +
+                    "FROM event e " +
+                    "WHERE MATCH (e.bookingName, e.bookingEmail, e.eventNotes) AGAINST (:booleanQuery IN BOOLEAN MODE) AND " +
+                    "(:#{#categoryIds == null} = true OR e.eventCategoryId IN :#{#categoryIds == null ? T(java.util.List).of(0) : #categoryIds}) AND " +
+                    "(:userId IS NULL OR e.userId = :userId) " +
+                    "ORDER BY MATCH (e.bookingName, e.bookingEmail, e.eventNotes) AGAINST (:booleanQuery IN BOOLEAN MODE) DESC, e.eventStartTime DESC")
+    Slice<Event> search(String booleanQuery, @Nullable List<Integer> categoryIds, @Nullable Integer userId, Pageable pageable);
+
+    /**
+     * Get which of the upload directories are still used by an event, archived or not
+     *
+     * @param bucketUuids names of the directories
+     * @return the names that are used
+     */
+    @Query(nativeQuery = true,
+            value = "SELECT bucketUuid FROM event WHERE bucketUuid IN :bucketUuids " +
+                    "UNION " +
+                    "SELECT bucketUuid FROM eventArchive WHERE bucketUuid IN :bucketUuids")
+    List<String> findUsedBucketUuids(Collection<String> bucketUuids);
+
+    /**
+     * Stream the events of the user with their category, ordered by start time. Rows are read from a cursor one at a
+     * time instead of being loaded into a list, so the stream must be consumed and closed inside a transaction.
+     *
+     * @param userId user id of event
+     * @return stream of events of the user
+     */
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE), @QueryHint(name = HINT_READONLY, value = "true")})
+    @Query("SELECT E FROM Event E JOIN FETCH E.eventCategory WHERE E.user.id = :userId ORDER BY E.eventStartTime")
+    Stream<Event> streamByUserId(Integer userId);
+
+    /**
+     * Stream the events of the category, ordered by start time
+     *
+     * @param categoryId category id of event
+     * @return stream of events in the category
+     * @see #streamByUserId(Integer)
+     */
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE), @QueryHint(name = HINT_READONLY, value = "true")})
+    @Query("SELECT E FROM Event E JOIN FETCH E.eventCategory WHERE E.eventCategory.id = :categoryId ORDER BY E.eventStartTime")
+    Stream<Event> streamByCategoryId(Integer categoryId);
 
+    @EntityGraph(attributePaths = "eventCategory")
     List<Event> findByUser_Id(Integer userId);
 
+    @EntityGraph(attributePaths = "eventCategory")
     List<Event> findByEventCategory_IdIn(List<Integer> categoryIds);
 
 //    List<Event> findByEventCategory_Lecturer_Email(String email);
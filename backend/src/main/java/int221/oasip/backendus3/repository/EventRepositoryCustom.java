@@ -0,0 +1,41 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.Event;
+import org.springframework.lang.Nullable;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface EventRepositoryCustom {
+    /**
+     * Insert all events in one JDBC batch and set the generated ids on them.
+     * The events are not attached to the persistence context.
+     *
+     * @param events new events, their category (and user, if any) must already exist
+     */
+    void insertAll(List<Event> events);
+
+    /**
+     * Move up to {@code limit} events that started before {@code startedBefore} to the archive table, oldest first.
+     * Rows locked by another transaction, such as a concurrent run on another instance, are skipped.
+     *
+     * @return number of events moved, less than {@code limit} if no more are left
+     */
+    int archiveStartedBefore(Instant startedBefore, int limit);
+
+    /**
+     * Get an event that was moved to the archive, see {@link #archiveStartedBefore(Instant, int)}.
+     * The event, its category and its user are new objects that are not attached to the persistence context, so an
+     * archived row never stands in for a row of the event table. The category only has its id and name, the user only
+     * its id.
+     */
+    Optional<Event> findArchivedById(Integer id);
+
+    /**
+     * Get the archived events that ended before or at {@code startAt}, as new objects like
+     * {@link #findArchivedById(Integer)}.
+     * <p>{@code categoryIds} and {@code userId} are optional, they filter the events when they are not null.
+     */
+    List<Event> findArchivedPastEvents(Instant startAt, @Nullable List<Integer> categoryIds, @Nullable Integer userId);
+}
@@ -0,0 +1,142 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.entities.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.lang.Nullable;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+@RequiredArgsConstructor
+public class EventRepositoryImpl implements EventRepositoryCustom {
+    private static final String INSERT_EVENT = "INSERT INTO event " +
+            "(bookingName, bookingEmail, eventStartTime, eventDuration, eventNotes, eventCategoryId, userId, bucketUuid) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SELECT_ARCHIVABLE = "SELECT eventId FROM event WHERE eventStartTime < ? " +
+            "ORDER BY eventStartTime LIMIT ? FOR UPDATE SKIP LOCKED";
+
+    private static final String SELECT_ARCHIVED = "SELECT a.eventId, a.bookingName, a.bookingEmail, a.eventStartTime, " +
+            "a.eventDuration, a.eventNotes, a.eventCategoryId, c.eventCategoryName, a.userId, a.bucketUuid " +
+            "FROM eventArchive a JOIN eventCategory c ON c.eventCategoryId = a.eventCategoryId ";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void insertAll(List<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_EVENT, Statement.RETURN_GENERATED_KEYS)) {
+                for (Event event : events) {
+                    statement.setString(1, event.getBookingName());
+                    statement.setString(2, event.getBookingEmail());
+                    statement.setTimestamp(3, Timestamp.from(event.getEventStartTime()));
+                    statement.setInt(4, event.getEventDuration());
+                    statement.setString(5, event.getEventNotes());
+                    statement.setInt(6, event.getEventCategory().getId());
+                    if (event.getUser() != null) {
+                        statement.setInt(7, event.getUser().getId());
+                    } else {
+                        statement.setNull(7, Types.INTEGER);
+                    }
+                    statement.setString(8, event.getBucketUuid());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+
+                // generated keys are returned in the order the rows were added to the batch
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    for (Event event : events) {
+                        if (!keys.next()) {
+                            throw new IllegalStateException("Missing generated key for event " + event.getEventStartTime());
+                        }
+                        event.setId(keys.getInt(1));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public int archiveStartedBefore(Instant startedBefore, int limit) {
+        List<Integer> ids = jdbcTemplate.queryForList(SELECT_ARCHIVABLE, Integer.class, Timestamp.from(startedBefore), limit);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        String in = String.join(", ", Collections.nCopies(ids.size(), "?"));
+        Object[] args = ids.toArray();
+        jdbcTemplate.update("INSERT INTO eventArchive (" + EventRepository.ARCHIVED_COLUMNS + ") SELECT " + EventRepository.ARCHIVED_COLUMNS +
+                " FROM event WHERE eventId IN (" + in + ")", args);
+        // the slots of the events are deleted with them
+        jdbcTemplate.update("DELETE FROM event WHERE eventId IN (" + in + ")", args);
+        return ids.size();
+    }
+
+    @Override
+    public Optional<Event> findArchivedById(Integer id) {
+        return jdbcTemplate.query(SELECT_ARCHIVED + "WHERE a.eventId = ?", EventRepositoryImpl::mapArchived, id).stream().findFirst();
+    }
+
+    @Override
+    public List<Event> findArchivedPastEvents(Instant startAt, @Nullable List<Integer> categoryIds, @Nullable Integer userId) {
+        if (categoryIds != null && categoryIds.isEmpty()) {
+            return List.of();
+        }
+
+        Timestamp start = Timestamp.from(startAt);
+        StringBuilder sql = new StringBuilder(SELECT_ARCHIVED)
+                .append("WHERE a.eventStartTime < ? AND TIMESTAMPADD(MINUTE, a.eventDuration, a.eventStartTime) <= ?");
+        List<Object> args = new ArrayList<>(List.of(start, start));
+        if (categoryIds != null) {
+            sql.append(" AND a.eventCategoryId IN (").append(String.join(", ", Collections.nCopies(categoryIds.size(), "?"))).append(")");
+            args.addAll(categoryIds);
+        }
+        if (userId != null) {
+            sql.append(" AND a.userId = ?");
+            args.add(userId);
+        }
+        return jdbcTemplate.query(sql.toString(), EventRepositoryImpl::mapArchived, args.toArray());
+    }
+
+    private static Event mapArchived(ResultSet resultSet, int rowNumber) throws SQLException {
+        EventCategory category = new EventCategory();
+        category.setId(resultSet.getInt("eventCategoryId"));
+        category.setEventCategoryName(resultSet.getString("eventCategoryName"));
+
+        Event event = new Event();
+        event.setId(resultSet.getInt("eventId"));
+        event.setBookingName(resultSet.getString("bookingName"));
+        event.setBookingEmail(resultSet.getString("bookingEmail"));
+        event.setEventStartTime(resultSet.getTimestamp("eventStartTime").toInstant());
+        event.setEventDuration(resultSet.getInt("eventDuration"));
+        event.setEventNotes(resultSet.getString("eventNotes"));
+        event.setEventCategory(category);
+        event.setBucketUuid(resultSet.getString("bucketUuid"));
+
+        int userId = resultSet.getInt("userId");
+        if (!resultSet.wasNull()) {
+            User user = new User();
+            user.setId(userId);
+            event.setUser(user);
+        }
+        return event;
+    }
+}
@@ -0,0 +1,89 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.EventSeries;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.lang.Nullable;
+
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface EventSeriesRepository extends JpaRepository<EventSeries, Integer> {
+    /**
+     * Get all series that may have occurrences starting between {@code fromInclusive} and {@code toExclusive}
+     * <p>{@code categoryIds} is optional. If it is not null, only series with category id in the list will be returned.
+     * <p>{@code userId} is optional. If it is not null, only series with the user id will be returned.
+     *
+     * @param fromInclusive start of the range
+     * @param toExclusive   end of the range
+     * @param categoryIds   list of category ids
+     * @param userId        user id of series
+     * @return list of series with their category and exceptions fetched
+     */
+    @Query("SELECT DISTINCT S FROM EventSeries S JOIN FETCH S.eventCategory LEFT JOIN FETCH S.exceptions WHERE " +
+            "(:#{#categoryIds == null} = true OR S.eventCategory.id IN :#{#categoryIds == null ? T(java.util.List).of(0) : #categoryIds}) AND " +
+            "(:userId IS NULL OR S.user.id = :userId) AND " +
+            "S.firstStartTime < :toExclusive AND S.untilTime > :fromInclusive")
+    List<EventSeries> findByDateRange(Instant fromInclusive, Instant toExclusive, @Nullable List<Integer> categoryIds, @Nullable Integer userId);
+
+    /**
+     * Same as {@link #findByDateRange(Instant, Instant, List, Integer)} for one category, as a locking read
+     * ({@code SELECT ... FOR SHARE}). Unlike a plain read, it sees the series committed since the transaction first
+     * read something, which is what an overlap check needs when the event was read before the category was locked.
+     * <p>
+     * DISTINCT is only applied in memory, since the database rejects it together with the lock on some dialects.
+     */
+    @Lock(LockModeType.PESSIMISTIC_READ)
+    @QueryHints(@QueryHint(name = "hibernate.query.passDistinctThrough", value = "false"))
+    @Query("SELECT DISTINCT S FROM EventSeries S JOIN FETCH S.eventCategory LEFT JOIN FETCH S.exceptions WHERE " +
+            "S.eventCategory.id = :categoryId AND S.firstStartTime < :toExclusive AND S.untilTime > :fromInclusive")
+    List<EventSeries> findByDateRangeForShare(Instant fromInclusive, Instant toExclusive, Integer categoryId);
+
+    /**
+     * Get the series with its exceptions and lock them until the transaction ends. The exceptions are the ones
+     * committed last, even if the transaction took its snapshot before.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "hibernate.query.passDistinctThrough", value = "false"))
+    @Query("SELECT DISTINCT S FROM EventSeries S LEFT JOIN FETCH S.exceptions WHERE S.id = :id")
+    Optional<EventSeries> lockById(Integer id);
+
+    /**
+     * Get the category id of the series, which never changes, to lock the category before the series
+     */
+    @Query("SELECT S.eventCategory.id FROM EventSeries S WHERE S.id = :id")
+    Optional<Integer> findCategoryIdById(Integer id);
+
+    /**
+     * Get all series that may have occurrences starting at or after {@code fromInclusive}
+     *
+     * @see #findByDateRange(Instant, Instant, List, Integer)
+     */
+    @Query("SELECT DISTINCT S FROM EventSeries S JOIN FETCH S.eventCategory LEFT JOIN FETCH S.exceptions WHERE " +
+            "(:#{#categoryIds == null} = true OR S.eventCategory.id IN :#{#categoryIds == null ? T(java.util.List).of(0) : #categoryIds}) AND " +
+            "(:userId IS NULL OR S.user.id = :userId) AND " +
+            "S.untilTime > :fromInclusive")
+    List<EventSeries> findStartingFrom(Instant fromInclusive, @Nullable List<Integer> categoryIds, @Nullable Integer userId);
+
+    /**
+     * Get all series that may have occurrences starting before {@code toExclusive}
+     *
+     * @see #findByDateRange(Instant, Instant, List, Integer)
+     */
+    @Query("SELECT DISTINCT S FROM EventSeries S JOIN FETCH S.eventCategory LEFT JOIN FETCH S.exceptions WHERE " +
+            "(:#{#categoryIds == null} = true OR S.eventCategory.id IN :#{#categoryIds == null ? T(java.util.List).of(0) : #categoryIds}) AND " +
+            "(:userId IS NULL OR S.user.id = :userId) AND " +
+            "S.firstStartTime < :toExclusive")
+    List<EventSeries> findStartingBefore(Instant toExclusive, @Nullable List<Integer> categoryIds, @Nullable Integer userId);
+
+    /**
+     * Get all series booked with {@code email}, or all series if it is null
+     */
+    @Query("SELECT DISTINCT S FROM EventSeries S JOIN FETCH S.eventCategory LEFT JOIN FETCH S.exceptions WHERE :#{#email == null} = true OR S.bookingEmail = :email")
+    List<EventSeries> findWithExceptionsByBookingEmail(@Nullable String email);
+}
@@ -0,0 +1,18 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.EventSlot;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+public interface EventSlotRepository extends JpaRepository<EventSlot, Long>, EventSlotRepositoryCustom {
+    /**
+     * Release all slots claimed by the event
+     *
+     * @param eventId event id
+     * @return number of released slots
+     */
+    @Modifying
+    @Query("DELETE FROM EventSlot S WHERE S.event.id = :eventId")
+    int releaseByEventId(Integer eventId);
+}
@@ -0,0 +1,31 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.Event;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface EventSlotRepositoryCustom {
+    /**
+     * Claim every slot that intersects {@code startAt} (inclusive) to {@code endAt} (exclusive) in one batched insert.
+     * Slot boundaries are aligned to {@code slotMinutes}; the range is widened to the enclosing slots.
+     *
+     * @param eventId     event that claims the slots, must already be flushed
+     * @param categoryId  category id of event
+     * @param startAt     start time of event
+     * @param endAt       end time of event
+     * @param slotMinutes slot granularity in minutes
+     * @throws DataIntegrityViolationException if any of the slots is already claimed in the category
+     */
+    void claim(Integer eventId, Integer categoryId, Instant startAt, Instant endAt, int slotMinutes);
+
+    /**
+     * Claim the slots of all events in one batched insert, see {@link #claim(Integer, Integer, Instant, Instant, int)}
+     *
+     * @param events      events that claim the slots, must already be inserted
+     * @param slotMinutes slot granularity in minutes
+     * @throws DataIntegrityViolationException if any of the slots is already claimed in the category
+     */
+    void claimAll(List<Event> events, int slotMinutes);
+}
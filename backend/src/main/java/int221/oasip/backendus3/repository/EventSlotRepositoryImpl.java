@@ -0,0 +1,46 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.Event;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+@RequiredArgsConstructor
+public class EventSlotRepositoryImpl implements EventSlotRepositoryCustom {
+    private static final String INSERT_SLOT = "INSERT INTO eventSlot (eventCategoryId, slotStart, eventId) VALUES (?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void claim(Integer eventId, Integer categoryId, Instant startAt, Instant endAt, int slotMinutes) {
+        List<Object[]> slots = new ArrayList<>();
+        addSlots(slots, eventId, categoryId, startAt, endAt, slotMinutes);
+        jdbcTemplate.batchUpdate(INSERT_SLOT, slots);
+    }
+
+    @Override
+    public void claimAll(List<Event> events, int slotMinutes) {
+        List<Object[]> slots = new ArrayList<>();
+        for (Event event : events) {
+            Instant startAt = event.getEventStartTime();
+            Instant endAt = startAt.plus(event.getEventDuration(), ChronoUnit.MINUTES);
+            addSlots(slots, event.getId(), event.getEventCategory().getId(), startAt, endAt, slotMinutes);
+        }
+        jdbcTemplate.batchUpdate(INSERT_SLOT, slots);
+    }
+
+    private void addSlots(List<Object[]> slots, Integer eventId, Integer categoryId, Instant startAt, Instant endAt, int slotMinutes) {
+        long slotSeconds = slotMinutes * 60L;
+        long first = Math.floorDiv(startAt.getEpochSecond(), slotSeconds) * slotSeconds;
+        long endSecond = endAt.getEpochSecond() + (endAt.getNano() > 0 ? 1 : 0);
+
+        for (long slot = first; slot < endSecond; slot += slotSeconds) {
+            slots.add(new Object[]{categoryId, Timestamp.from(Instant.ofEpochSecond(slot)), eventId});
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.FileCleanup;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface FileCleanupRepository extends JpaRepository<FileCleanup, String>, FileCleanupRepositoryCustom {
+}
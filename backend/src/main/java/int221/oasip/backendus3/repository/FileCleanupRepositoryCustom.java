@@ -0,0 +1,27 @@
+package int221.oasip.backendus3.repository;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface FileCleanupRepositoryCustom {
+    /**
+     * Queue the upload directory for deletion, unless it is already queued
+     *
+     * @param bucketUuid name of the directory
+     * @param dueAt      not deleted before this
+     */
+    void enqueue(String bucketUuid, Instant dueAt);
+
+    /**
+     * Lock up to {@code limit} directories that are due, oldest first, until the current transaction completes.
+     * Rows locked by another transaction, such as a cleaner on another instance, are skipped.
+     *
+     * @return names of the locked directories
+     */
+    List<String> lockDue(Instant now, int limit);
+
+    /**
+     * Count a failed attempt and try again at {@code dueAt}
+     */
+    void reschedule(String bucketUuid, Instant dueAt);
+}
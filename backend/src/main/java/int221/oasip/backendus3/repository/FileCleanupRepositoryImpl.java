@@ -0,0 +1,33 @@
+package int221.oasip.backendus3.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+@RequiredArgsConstructor
+public class FileCleanupRepositoryImpl implements FileCleanupRepositoryCustom {
+    private static final String ENQUEUE = "INSERT IGNORE INTO fileCleanup (bucketUuid, dueAt, attempts) VALUES (?, ?, 0)";
+    private static final String LOCK_DUE = "SELECT bucketUuid FROM fileCleanup WHERE dueAt <= ? " +
+            "ORDER BY dueAt LIMIT ? FOR UPDATE SKIP LOCKED";
+    private static final String RESCHEDULE = "UPDATE fileCleanup SET attempts = attempts + 1, dueAt = ? WHERE bucketUuid = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void enqueue(String bucketUuid, Instant dueAt) {
+        jdbcTemplate.update(ENQUEUE, bucketUuid, Timestamp.from(dueAt));
+    }
+
+    @Override
+    public List<String> lockDue(Instant now, int limit) {
+        return jdbcTemplate.queryForList(LOCK_DUE, String.class, Timestamp.from(now), limit);
+    }
+
+    @Override
+    public void reschedule(String bucketUuid, Instant dueAt) {
+        jdbcTemplate.update(RESCHEDULE, Timestamp.from(dueAt), bucketUuid);
+    }
+}
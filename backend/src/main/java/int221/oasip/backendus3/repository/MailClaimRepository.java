@@ -0,0 +1,7 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.MailClaim;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface MailClaimRepository extends JpaRepository<MailClaim, String>, MailClaimRepositoryCustom {
+}
@@ -0,0 +1,27 @@
+package int221.oasip.backendus3.repository;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+
+public interface MailClaimRepositoryCustom {
+    /**
+     * Claim the reminders of the events in one JDBC batch. A reminder is only claimed if nobody claimed it before and
+     * the event still starts at the given time, so a reminder that was loaded before the event moved or was deleted
+     * (e.g. through another instance) is not sent.
+     *
+     * @param startTimes start time of each event by its id
+     * @return ids of the events whose reminder was claimed
+     */
+    Set<Integer> claimReminders(Map<Integer, Instant> startTimes, Instant now);
+
+    /**
+     * @return false if the mail is already claimed
+     */
+    boolean claim(String claimKey, Instant now);
+
+    /**
+     * @return number of claims deleted
+     */
+    int deleteClaimedBefore(Instant claimedBefore);
+}
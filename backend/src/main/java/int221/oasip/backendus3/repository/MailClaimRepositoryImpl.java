@@ -0,0 +1,52 @@
+package int221.oasip.backendus3.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+
+@RequiredArgsConstructor
+public class MailClaimRepositoryImpl implements MailClaimRepositoryCustom {
+    private static final String CLAIM = "INSERT IGNORE INTO mailClaim (claimKey, claimedAt) VALUES (?, ?)";
+    // INSERT ... SELECT is not rewritten into a multi-row insert, so the batch reports the count of every row
+    private static final String CLAIM_REMINDER = "INSERT IGNORE INTO mailClaim (claimKey, claimedAt) " +
+            "SELECT ?, ? FROM event WHERE eventId = ? AND eventStartTime = ?";
+    private static final String DELETE_CLAIMED_BEFORE = "DELETE FROM mailClaim WHERE claimedAt < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public Set<Integer> claimReminders(Map<Integer, Instant> startTimes, Instant now) {
+        if (startTimes.isEmpty()) {
+            return Set.of();
+        }
+
+        List<Integer> eventIds = new ArrayList<>(startTimes.keySet());
+        List<Object[]> rows = new ArrayList<>(eventIds.size());
+        for (Integer eventId : eventIds) {
+            Instant startTime = startTimes.get(eventId);
+            rows.add(new Object[]{"reminder:" + eventId + ":" + startTime.getEpochSecond(), Timestamp.from(now), eventId, Timestamp.from(startTime)});
+        }
+        int[] counts = jdbcTemplate.batchUpdate(CLAIM_REMINDER, rows);
+
+        Set<Integer> claimed = new HashSet<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                claimed.add(eventIds.get(i));
+            }
+        }
+        return claimed;
+    }
+
+    @Override
+    public boolean claim(String claimKey, Instant now) {
+        return jdbcTemplate.update(CLAIM, claimKey, Timestamp.from(now)) > 0;
+    }
+
+    @Override
+    public int deleteClaimedBefore(Instant claimedBefore) {
+        return jdbcTemplate.update(DELETE_CLAIMED_BEFORE, Timestamp.from(claimedBefore));
+    }
+}
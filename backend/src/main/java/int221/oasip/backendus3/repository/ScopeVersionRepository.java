@@ -0,0 +1,18 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.ScopeVersion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+public interface ScopeVersionRepository extends JpaRepository<ScopeVersion, ScopeVersion.Key>, ScopeVersionRepositoryCustom {
+    /**
+     * Version of a scope that is keyed by user id, found by the email of the user in one query
+     *
+     * @param scopeType type of the scope
+     * @param email     email of the user
+     * @return the version, 0 if the scope never changed or there is no such user
+     */
+    @Query("SELECT COALESCE(MAX(V.version), 0) FROM ScopeVersion V, User U " +
+            "WHERE U.email = :email AND V.scopeType = :scopeType AND V.scopeKey = CAST(U.id AS string)")
+    long findUserVersion(String scopeType, String email);
+}
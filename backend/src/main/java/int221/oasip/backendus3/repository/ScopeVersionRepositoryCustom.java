@@ -0,0 +1,12 @@
+package int221.oasip.backendus3.repository;
+
+public interface ScopeVersionRepositoryCustom {
+    /**
+     * Increment the version of the scope in a single upsert, starting at 1 if the scope has no version yet.
+     * The row stays locked until the current transaction completes.
+     *
+     * @param scopeType type of the scope
+     * @param scopeKey  key of the scope within its type
+     */
+    void increment(String scopeType, String scopeKey);
+}
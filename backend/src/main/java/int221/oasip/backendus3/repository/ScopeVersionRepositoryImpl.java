@@ -0,0 +1,17 @@
+package int221.oasip.backendus3.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+@RequiredArgsConstructor
+public class ScopeVersionRepositoryImpl implements ScopeVersionRepositoryCustom {
+    private static final String INCREMENT_VERSION = "INSERT INTO scopeVersion (scopeType, scopeKey, version) VALUES (?, ?, 1) " +
+            "ON DUPLICATE KEY UPDATE version = version + 1";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void increment(String scopeType, String scopeKey) {
+        jdbcTemplate.update(INCREMENT_VERSION, scopeType, scopeKey);
+    }
+}
@@ -2,12 +2,30 @@ package int221.oasip.backendus3.repository;
 
 import int221.oasip.backendus3.entities.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
-public interface UserRepository extends JpaRepository<User, Integer> {
+public interface UserRepository extends JpaRepository<User, Integer>, UserRepositoryCustom {
     Optional<User> findByName(String name);
     Optional<User> findByEmail(String email);
     boolean existsByName(String name);
     boolean existsByEmail(String email);
+
+    /**
+     * Users that have one of the names or one of the emails, in one query
+     */
+    List<User> findByNameInOrEmailIn(Collection<String> names, Collection<String> emails);
+
+    /**
+     * Delete the user in one statement, without loading it first
+     *
+     * @return number of users deleted, 0 if there is no user with the id
+     */
+    @Modifying
+    @Query("DELETE FROM User u WHERE u.id = :id")
+    int deleteUserById(Integer id);
 }
@@ -0,0 +1,13 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.User;
+
+import java.util.List;
+
+public interface UserRepositoryCustom {
+    /**
+     * Insert all users in one JDBC batch and set the generated ids on them.
+     * The users are not attached to the persistence context.
+     */
+    void insertAll(List<User> users);
+}
@@ -0,0 +1,50 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+@RequiredArgsConstructor
+public class UserRepositoryImpl implements UserRepositoryCustom {
+    // createdOn and updatedOn are set by the database
+    private static final String INSERT_USER = "INSERT INTO user (name, email, password, role) VALUES (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void insertAll(List<User> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_USER, Statement.RETURN_GENERATED_KEYS)) {
+                for (User user : users) {
+                    statement.setString(1, user.getName());
+                    statement.setString(2, user.getEmail());
+                    statement.setString(3, user.getPassword());
+                    statement.setString(4, user.getRole().name());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+
+                // generated keys are returned in the order the rows were added to the batch
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    for (User user : users) {
+                        if (!keys.next()) {
+                            throw new IllegalStateException("Missing generated key for user " + user.getEmail());
+                        }
+                        user.setId(keys.getInt(1));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+}
@@ -7,6 +7,7 @@ import int221.oasip.backendus3.repository.UserRepository;
 import lombok.AllArgsConstructor;
 import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 @Service
 @AllArgsConstructor
@@ -14,6 +15,7 @@ public class AuthService {
     private UserRepository userRepository;
     private Argon2PasswordEncoder argon2PasswordEncoder;
 
+    @Transactional(readOnly = true)
     public boolean match(MatchRequest matchRequest) {
         String strippedEmail = matchRequest.getEmail().strip();
         User user = userRepository.findByEmail(strippedEmail).orElseThrow(() -> new EntityNotFoundException("A user with the specified email DOES NOT exist"));
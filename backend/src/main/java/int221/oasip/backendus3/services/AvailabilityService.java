@@ -0,0 +1,289 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.configs.ReplicaRoutingDataSource;
+import int221.oasip.backendus3.dtos.FreeIntervalResponse;
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.entities.EventSeries;
+import int221.oasip.backendus3.exceptions.EntityNotFoundException;
+import int221.oasip.backendus3.exceptions.FieldNotValidException;
+import int221.oasip.backendus3.repository.EventCategoryRepository;
+import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.EventSeriesRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static int221.oasip.backendus3.services.EventService.MAX_EVENT_DURATION_MINUTES;
+
+/**
+ * Free time of each category, answered from one 1440-bit occupancy bitmap per category per UTC day.
+ * <p>
+ * Bitmaps are built from the database the first time a day is asked for, then kept up to date from
+ * {@link EventChangedEvent}s after each commit. Changes committed by other instances are not seen,
+ * so a bitmap is rebuilt once it is older than {@code availability.ttl-seconds}.
+ */
+@Service
+@RequiredArgsConstructor
+public class AvailabilityService {
+    public static final int MAX_RANGE_DAYS = 31;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    /**
+     * when a category has more days cached than this, its cache is dropped, to bound the memory of sparse lookups
+     */
+    private static final int MAX_CACHED_DAYS_PER_CATEGORY = 400;
+
+    private final EventCategoryRepository categoryRepository;
+    private final EventRepository eventRepository;
+    private final EventSeriesRepository seriesRepository;
+
+    private final Map<Integer, CategoryDays> categories = new ConcurrentHashMap<>();
+
+    @Value("${availability.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    /**
+     * Get the free intervals of the category between {@code from} and {@code to} that are long enough for a booking
+     * of the category. Times are rounded to whole minutes and times before now are never free.
+     *
+     * @throws EntityNotFoundException if the category does not exist
+     * @throws FieldNotValidException  if the range is empty or longer than {@link #MAX_RANGE_DAYS} days
+     */
+    @Transactional(readOnly = true)
+    public List<FreeIntervalResponse> getFreeIntervals(Integer categoryId, Instant from, Instant to) {
+        // a day built from a lagging replica would stay cached until its TTL
+        ReplicaRoutingDataSource.usePrimary();
+
+        // the version is read before the first query takes the snapshot that the days are built from, so any change
+        // committed after the snapshot also changes the version and keeps the days built from it out of the cache
+        CategoryDays cached = categories.computeIfAbsent(categoryId, id -> new CategoryDays());
+        long version = cached.version;
+
+        Optional<EventCategory> found = categoryRepository.findById(categoryId);
+        if (found.isEmpty()) {
+            categories.remove(categoryId, cached);
+            throw new EntityNotFoundException("Event category with id " + categoryId + " not found");
+        }
+        EventCategory category = found.get();
+
+        if (!to.isAfter(from)) {
+            throw new FieldNotValidException("to", "to must be after from");
+        }
+        if (to.isAfter(from.plus(MAX_RANGE_DAYS, ChronoUnit.DAYS))) {
+            throw new FieldNotValidException("to", "The range must not be longer than " + MAX_RANGE_DAYS + " days");
+        }
+
+        long fromMinute = Math.max(ceilMinute(from), ceilMinute(Instant.now()));
+        long toMinute = floorMinute(to);
+        List<FreeIntervalResponse> free = new ArrayList<>();
+        if (fromMinute >= toMinute) {
+            return free;
+        }
+
+        long firstDay = Math.floorDiv(fromMinute, MINUTES_PER_DAY);
+        long lastDay = Math.floorDiv(toMinute - 1, MINUTES_PER_DAY);
+        BitSet[] days = getDays(categoryId, cached, version, firstDay, lastDay);
+
+        int minLength = category.getEventDuration();
+        long gapStart = -1;
+        for (long day = firstDay; day <= lastDay; day++) {
+            BitSet bits = days[(int) (day - firstDay)];
+            long dayStart = day * MINUTES_PER_DAY;
+            int lo = (int) Math.max(fromMinute - dayStart, 0);
+            int hi = (int) Math.min(toMinute - dayStart, MINUTES_PER_DAY);
+
+            int i = lo;
+            while (i < hi) {
+                if (gapStart < 0) {
+                    i = bits.nextClearBit(i);
+                    if (i >= hi) {
+                        break;
+                    }
+                    gapStart = dayStart + i;
+                }
+
+                int busy = bits.nextSetBit(i);
+                if (busy < 0 || busy >= hi) {
+                    // the gap continues into the next day
+                    break;
+                }
+                addGap(free, gapStart, dayStart + busy, minLength);
+                gapStart = -1;
+                i = busy;
+            }
+        }
+        if (gapStart >= 0) {
+            addGap(free, gapStart, toMinute, minLength);
+        }
+
+        return free;
+    }
+
+    @TransactionalEventListener
+    public void onEventChanged(EventChangedEvent event) {
+        CategoryDays cached = categories.get(event.getCategoryId());
+        if (cached == null) {
+            return;
+        }
+
+        synchronized (cached) {
+            cached.version++;
+            if (event.isWholeCategory()) {
+                cached.days.clear();
+                return;
+            }
+            if (event.getReleased() != null) {
+                // only clear whole minutes, a partly released minute may still be used by the neighbouring booking
+                update(cached, ceilMinute(event.getReleased().getStartInclusive()), floorMinute(event.getReleased().getEndExclusive()), false);
+            }
+            if (event.getOccupied() != null) {
+                update(cached, floorMinute(event.getOccupied().getStartInclusive()), ceilMinute(event.getOccupied().getEndExclusive()), true);
+            }
+        }
+    }
+
+    /**
+     * @param version version of {@code cached} read before the transaction took its snapshot
+     */
+    private BitSet[] getDays(Integer categoryId, CategoryDays cached, long version, long firstDay, long lastDay) {
+        long now = System.nanoTime();
+        long ttlNanos = ttlSeconds * 1_000_000_000L;
+
+        BitSet[] days = new BitSet[(int) (lastDay - firstDay + 1)];
+        long firstMissing = Long.MAX_VALUE;
+        long lastMissing = Long.MIN_VALUE;
+        for (long day = firstDay; day <= lastDay; day++) {
+            Day d = cached.days.get(day);
+            if (d != null && now - d.builtAt < ttlNanos) {
+                days[(int) (day - firstDay)] = d.bits;
+            } else {
+                firstMissing = Math.min(firstMissing, day);
+                lastMissing = Math.max(lastMissing, day);
+            }
+        }
+        if (firstMissing > lastMissing) {
+            return days;
+        }
+
+        BitSet[] built = build(categoryId, firstMissing, lastMissing);
+        synchronized (cached) {
+            // a change committed while building may be missing from the result, use it for this answer only
+            boolean cacheable = cached.version == version;
+            if (cacheable && cached.days.size() + built.length > MAX_CACHED_DAYS_PER_CATEGORY) {
+                cached.days.clear();
+            }
+            for (long day = firstMissing; day <= lastMissing; day++) {
+                BitSet bits = built[(int) (day - firstMissing)];
+                days[(int) (day - firstDay)] = bits;
+                if (cacheable) {
+                    cached.days.put(day, new Day(bits, now));
+                }
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Build the bitmaps of {@code firstDay} to {@code lastDay} with one query for events and one for series
+     */
+    private BitSet[] build(Integer categoryId, long firstDay, long lastDay) {
+        BitSet[] days = new BitSet[(int) (lastDay - firstDay + 1)];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = new BitSet(MINUTES_PER_DAY);
+        }
+
+        Instant from = Instant.EPOCH.plus(firstDay, ChronoUnit.DAYS);
+        Instant to = Instant.EPOCH.plus(lastDay + 1, ChronoUnit.DAYS);
+        // events that started before the first day may still run into it
+        Instant lookBehind = from.minus(MAX_EVENT_DURATION_MINUTES, ChronoUnit.MINUTES);
+        List<Integer> categoryIds = List.of(categoryId);
+
+        for (Event event : eventRepository.findByDateRange(lookBehind, to, categoryIds, null)) {
+            Instant start = event.getEventStartTime();
+            mark(days, firstDay, floorMinute(start), ceilMinute(start.plus(event.getEventDuration(), ChronoUnit.MINUTES)));
+        }
+        for (EventSeries series : seriesRepository.findByDateRange(lookBehind, to, categoryIds, null)) {
+            for (Instant start : series.getOccurrenceStartTimes(lookBehind, to)) {
+                mark(days, firstDay, floorMinute(start), ceilMinute(start.plus(series.getEventDuration(), ChronoUnit.MINUTES)));
+            }
+        }
+        return days;
+    }
+
+    private static void mark(BitSet[] days, long firstDay, long fromMinute, long toMinute) {
+        for (int i = 0; i < days.length; i++) {
+            long dayStart = (firstDay + i) * MINUTES_PER_DAY;
+            int lo = (int) Math.max(fromMinute - dayStart, 0);
+            int hi = (int) Math.min(toMinute - dayStart, MINUTES_PER_DAY);
+            if (lo < hi) {
+                days[i].set(lo, hi);
+            }
+        }
+    }
+
+    /**
+     * Copy on write, so readers never see a bitmap being changed
+     */
+    private static void update(CategoryDays cached, long fromMinute, long toMinute, boolean occupied) {
+        if (fromMinute >= toMinute) {
+            return;
+        }
+        for (long day = Math.floorDiv(fromMinute, MINUTES_PER_DAY); day <= Math.floorDiv(toMinute - 1, MINUTES_PER_DAY); day++) {
+            Day d = cached.days.get(day);
+            if (d == null) {
+                continue;
+            }
+
+            long dayStart = day * MINUTES_PER_DAY;
+            int lo = (int) Math.max(fromMinute - dayStart, 0);
+            int hi = (int) Math.min(toMinute - dayStart, MINUTES_PER_DAY);
+            BitSet bits = (BitSet) d.bits.clone();
+            bits.set(lo, hi, occupied);
+            cached.days.put(day, new Day(bits, d.builtAt));
+        }
+    }
+
+    private static void addGap(List<FreeIntervalResponse> free, long fromMinute, long toMinute, int minLength) {
+        if (toMinute - fromMinute >= minLength) {
+            free.add(new FreeIntervalResponse(Instant.EPOCH.plus(fromMinute, ChronoUnit.MINUTES), Instant.EPOCH.plus(toMinute, ChronoUnit.MINUTES)));
+        }
+    }
+
+    private static long floorMinute(Instant instant) {
+        return Math.floorDiv(instant.getEpochSecond(), 60);
+    }
+
+    private static long ceilMinute(Instant instant) {
+        long minute = floorMinute(instant);
+        return Instant.EPOCH.plus(minute, ChronoUnit.MINUTES).equals(instant) ? minute : minute + 1;
+    }
+
+    private static class CategoryDays {
+        private final Map<Long, Day> days = new ConcurrentHashMap<>();
+        /**
+         * incremented on every change, guarded by the instance lock
+         */
+        private volatile long version;
+    }
+
+    private static class Day {
+        private final BitSet bits;
+        private final long builtAt;
+
+        private Day(BitSet bits, long builtAt) {
+            this.bits = bits;
+            this.builtAt = builtAt;
+        }
+    }
+}
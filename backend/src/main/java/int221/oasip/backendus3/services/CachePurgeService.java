@@ -0,0 +1,75 @@
+package int221.oasip.backendus3.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * Purges responses cached by the reverse proxy. Cacheable responses name their tags in the {@value #HEADER} header,
+ * and changes purge the tags they affect once they commit.
+ * <p>
+ * Purges are posted to {@code cache.purge-url} without waiting for the proxy; a failed purge is only logged, the
+ * entries then expire on their own. Nothing is sent when the URL is not set.
+ */
+@Service
+public class CachePurgeService {
+    public static final String HEADER = "Cache-Tag";
+    public static final String CATEGORIES = "categories";
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(2))
+            .build();
+
+    @Value("${cache.purge-url:}")
+    private String purgeUrl;
+
+    /**
+     * tag of the attachment in the bucket and its renditions
+     */
+    public static String fileTag(String bucketUuid) {
+        return "file:" + bucketUuid;
+    }
+
+    /**
+     * Purge the tags once the current transaction commits, or now if there is none
+     */
+    public void purgeLater(String... tags) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            purge(tags);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                purge(tags);
+            }
+        });
+    }
+
+    private void purge(String... tags) {
+        if (purgeUrl.isEmpty() || tags.length == 0) {
+            return;
+        }
+
+        String joined = String.join(",", tags);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(purgeUrl))
+                .timeout(Duration.ofSeconds(5))
+                .header(HEADER, joined)
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+            if (e != null) {
+                System.err.println("Cannot purge " + joined + ": " + e.getMessage());
+            } else if (response.statusCode() / 100 != 2) {
+                System.err.println("Cannot purge " + joined + ": status " + response.statusCode());
+            }
+        });
+    }
+}
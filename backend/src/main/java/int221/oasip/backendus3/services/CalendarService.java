@@ -0,0 +1,138 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.dtos.CalendarDayResponse;
+import int221.oasip.backendus3.entities.EventSeries;
+import int221.oasip.backendus3.exceptions.FieldNotValidException;
+import int221.oasip.backendus3.repository.EventDayCount;
+import int221.oasip.backendus3.repository.EventDaySummaryRepository;
+import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.EventSeriesRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Booking counts and booked minutes per day and category, for month and week views that do not need the events themselves.
+ * <p>
+ * Stored events are counted by the database. If {@code calendar.summary.enabled} is set, the counts of the events
+ * visible to admins and lecturers are read from the {@code eventDaySummary} table instead, whose days are counted again
+ * after every change commits. Occurrences of recurring series are expanded in memory in both cases.
+ */
+@Service
+@RequiredArgsConstructor
+public class CalendarService {
+    public static final int MAX_RANGE_DAYS = 62;
+
+    private final EventRepository eventRepository;
+    private final EventSeriesRepository seriesRepository;
+    private final EventDaySummaryRepository summaryRepository;
+
+    @Value("${calendar.summary.enabled:false}")
+    private boolean summaryEnabled;
+
+    @Value("${calendar.summary.zone-offset:+07:00}")
+    private ZoneOffset summaryOffset;
+
+    /**
+     * Get the counts of the days from {@code from} to {@code to} (exclusive) that have at least one booking.
+     * An event counts on the day it starts.
+     *
+     * @param zoneOffset offset of the calendar days, or the offset of the summary table if it is null
+     * @param scope      events that the user can see
+     * @return counts ordered by day and category id
+     * @throws FieldNotValidException if the range is empty or longer than {@link #MAX_RANGE_DAYS} days
+     */
+    @Transactional(readOnly = true)
+    public List<CalendarDayResponse> getDays(LocalDate from, LocalDate to, @Nullable ZoneOffset zoneOffset, EventService.EventScope scope) {
+        if (!to.isAfter(from)) {
+            throw new FieldNotValidException("to", "to must be after from");
+        }
+        if (to.isAfter(from.plusDays(MAX_RANGE_DAYS))) {
+            throw new FieldNotValidException("to", "The range must not be longer than " + MAX_RANGE_DAYS + " days");
+        }
+        if (scope.isLecturer() && scope.getCategoryIds() == null) {
+            // a lecturer without categories has nothing to see
+            return List.of();
+        }
+
+        ZoneOffset offset = zoneOffset != null ? zoneOffset : summaryOffset;
+        Instant fromInstant = from.atStartOfDay().toInstant(offset);
+        Instant toInstant = to.atStartOfDay().toInstant(offset);
+        List<Integer> categoryIds = scope.getCategoryIds();
+        Integer userId = scope.getUserId();
+
+        List<EventDayCount> counts;
+        if (summaryEnabled && userId == null && offset.equals(summaryOffset)) {
+            counts = summaryRepository.findByDateRange(from, to, categoryIds);
+        } else {
+            counts = eventRepository.countByDay(fromInstant, toInstant, offset.getTotalSeconds() / 60, categoryIds, userId);
+        }
+
+        Map<LocalDate, Map<Integer, CalendarDayResponse>> days = new TreeMap<>();
+        for (EventDayCount count : counts) {
+            add(days, count.getEventDate(), count.getCategoryId(), count.getEventCount(), count.getBookedMinutes());
+        }
+        for (EventSeries series : seriesRepository.findByDateRange(fromInstant, toInstant, categoryIds, userId)) {
+            for (Instant start : series.getOccurrenceStartTimes(fromInstant, toInstant)) {
+                add(days, LocalDate.ofInstant(start, offset), series.getEventCategory().getId(), 1, series.getEventDuration());
+            }
+        }
+
+        List<CalendarDayResponse> responses = new ArrayList<>();
+        days.values().forEach(categories -> responses.addAll(categories.values()));
+        return responses;
+    }
+
+    /**
+     * Count the days that a change touched again once it has committed, so the summary rows are not locked for the
+     * rest of the booking transaction. If counting fails, the day stays off until it changes again or the summary is
+     * backfilled.
+     * <p>
+     * The connection of the booking is still bound after its commit, so the counts are written in a new transaction.
+     */
+    @TransactionalEventListener
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void onEventChanged(EventChangedEvent event) {
+        // series are expanded on read, and an update that did not move the event changes nothing
+        if (!summaryEnabled || event.isSeries() || Objects.equals(event.getReleased(), event.getOccupied())) {
+            return;
+        }
+
+        LocalDate released = event.getReleased() != null ? LocalDate.ofInstant(event.getReleased().getStartInclusive(), summaryOffset) : null;
+        LocalDate occupied = event.getOccupied() != null ? LocalDate.ofInstant(event.getOccupied().getStartInclusive(), summaryOffset) : null;
+        try {
+            if (released != null) {
+                recount(event.getCategoryId(), released);
+            }
+            if (occupied != null && !occupied.equals(released)) {
+                recount(event.getCategoryId(), occupied);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Failed to count the calendar summary of category " + event.getCategoryId() + ": " + e.getMessage());
+        }
+    }
+
+    private void recount(Integer categoryId, LocalDate day) {
+        summaryRepository.recount(day, categoryId, day.atStartOfDay().toInstant(summaryOffset), day.plusDays(1).atStartOfDay().toInstant(summaryOffset));
+    }
+
+    private static void add(Map<LocalDate, Map<Integer, CalendarDayResponse>> days, LocalDate date, Integer categoryId, long eventCount, long bookedMinutes) {
+        CalendarDayResponse day = days.computeIfAbsent(date, d -> new TreeMap<>())
+                .computeIfAbsent(categoryId, id -> new CalendarDayResponse(date, id, 0, 0));
+        day.setEventCount(day.getEventCount() + eventCount);
+        day.setBookedMinutes(day.getBookedMinutes() + bookedMinutes);
+    }
+}
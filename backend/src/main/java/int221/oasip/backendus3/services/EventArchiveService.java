@@ -0,0 +1,45 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.repository.EventRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Moves events to the {@code eventArchive} table once {@code event.archive.after-days} have passed since they started,
+ * so the event table that the upcoming, day and overlap queries read only holds recent and future events.
+ * Past events, single events and calendar counts also read the archive.
+ */
+@Service
+@RequiredArgsConstructor
+public class EventArchiveService {
+    private static final int BATCH_SIZE = 500;
+
+    private final EventRepository repository;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * 0 turns archiving off
+     */
+    @Value("${event.archive.after-days:365}")
+    private int afterDays;
+
+    @Scheduled(cron = "${event.archive.cron:0 30 3 * * *}", zone = "Asia/Bangkok")
+    public void archive() {
+        if (afterDays <= 0) {
+            return;
+        }
+
+        Instant startedBefore = Instant.now().minus(afterDays, ChronoUnit.DAYS);
+        Integer moved;
+        // one transaction per batch, so the locks on the moved rows are held briefly
+        do {
+            moved = transactionTemplate.execute(status -> repository.archiveStartedBefore(startedBefore, BATCH_SIZE));
+        } while (moved != null && moved == BATCH_SIZE);
+    }
+}
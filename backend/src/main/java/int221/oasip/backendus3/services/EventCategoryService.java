@@ -1,5 +1,6 @@
 package int221.oasip.backendus3.services;
 
+import int221.oasip.backendus3.configs.ReplicaRoutingDataSource;
 import int221.oasip.backendus3.dtos.CategoryResponse;
 import int221.oasip.backendus3.dtos.EditCategoryRequest;
 import int221.oasip.backendus3.entities.EventCategory;
@@ -11,6 +12,7 @@ import int221.oasip.backendus3.utils.ModelMapperUtils;
 import lombok.AllArgsConstructor;
 import org.modelmapper.ModelMapper;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -20,11 +22,20 @@ public class EventCategoryService {
     private EventCategoryRepository repository;
     private ModelMapper modelMapper;
     private ModelMapperUtils modelMapperUtils;
+    private ScopeVersionService versionService;
+    private CachePurgeService cachePurgeService;
+    private EventService eventService;
 
+    /**
+     * Read from the primary, since the proxy caches the list until the next update
+     */
+    @Transactional(readOnly = true)
     public List<CategoryResponse> getAll() {
+        ReplicaRoutingDataSource.usePrimary();
         return modelMapperUtils.mapList(repository.findAll(), CategoryResponse.class);
     }
 
+    @Transactional
     public CategoryResponse update(Integer id, EditCategoryRequest editCategory) {
         EventCategory category = repository.findById(id).orElseThrow(() -> new EntityNotFoundException("Category with id" + id + " not found"));
 
@@ -47,12 +58,17 @@ public class EventCategoryService {
         }
 
         if (editCategory.getEventDuration() != null) {
+            eventService.assertWholeSlots(editCategory.getEventDuration());
             category.setEventDuration(editCategory.getEventDuration());
         }
 
-        return modelMapper.map(repository.saveAndFlush(category), CategoryResponse.class);
+        category = repository.saveAndFlush(category);
+        versionService.incrementCategory(category.getId());
+        cachePurgeService.purgeLater(CachePurgeService.CATEGORIES);
+        return modelMapper.map(category, CategoryResponse.class);
     }
 
+    @Transactional(readOnly = true)
     public List<CategoryResponse> getLecturerCategories(String email) {
         return modelMapperUtils.mapList(repository.findByOwners_User_Email(email), CategoryResponse.class);
     }
@@ -0,0 +1,103 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventSeries;
+import int221.oasip.backendus3.entities.User;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Value;
+import org.springframework.lang.Nullable;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Published inside the transaction that changes the bookings of a category. Listeners that must only see committed
+ * changes should use {@link org.springframework.transaction.event.TransactionalEventListener}, listeners that write
+ * derived data in the same transaction use {@link org.springframework.context.event.EventListener}.
+ * <p>
+ * If both {@code released} and {@code occupied} are null, the change affects an unknown set of times in the category
+ * (e.g. a recurring series was created or deleted), and anything derived from the category should be rebuilt.
+ */
+@Getter
+@AllArgsConstructor
+public class EventChangedEvent {
+    private final Integer categoryId;
+
+    /**
+     * user the booking belongs to, null for bookings that admins made for someone without an account
+     */
+    @Nullable
+    private final Integer userId;
+
+    private final Type type;
+
+    /**
+     * the event after the change, or before it was deleted; null for changes to a recurring series
+     */
+    @Nullable
+    private final Event event;
+
+    /**
+     * time range that was occupied before the change, null if nothing was occupied before
+     */
+    @Nullable
+    private final TimeRange released;
+
+    /**
+     * time range that is occupied after the change, null if nothing is occupied after
+     */
+    @Nullable
+    private final TimeRange occupied;
+
+    public static EventChangedEvent created(Event event) {
+        return new EventChangedEvent(event.getEventCategory().getId(), userId(event.getUser()), Type.CREATED, event, null, TimeRange.of(event));
+    }
+
+    public static EventChangedEvent updated(Event event, TimeRange released) {
+        return new EventChangedEvent(event.getEventCategory().getId(), userId(event.getUser()), Type.UPDATED, event, released, TimeRange.of(event));
+    }
+
+    public static EventChangedEvent deleted(Event event) {
+        return new EventChangedEvent(event.getEventCategory().getId(), userId(event.getUser()), Type.DELETED, event, TimeRange.of(event), null);
+    }
+
+    public static EventChangedEvent seriesChanged(EventSeries series) {
+        return new EventChangedEvent(series.getEventCategory().getId(), userId(series.getUser()), Type.SERIES_CHANGED, null, null, null);
+    }
+
+    public static EventChangedEvent occurrenceCancelled(EventSeries series, Instant occurrenceStartTime) {
+        TimeRange released = new TimeRange(occurrenceStartTime, occurrenceStartTime.plus(series.getEventDuration(), ChronoUnit.MINUTES));
+        return new EventChangedEvent(series.getEventCategory().getId(), userId(series.getUser()), Type.SERIES_CHANGED, null, released, null);
+    }
+
+    @Nullable
+    private static Integer userId(@Nullable User user) {
+        return user != null ? user.getId() : null;
+    }
+
+    /**
+     * whether the change is to a recurring series rather than to a stored event
+     */
+    public boolean isSeries() {
+        return Type.SERIES_CHANGED.equals(type);
+    }
+
+    public boolean isWholeCategory() {
+        return released == null && occupied == null;
+    }
+
+    public enum Type {
+        CREATED, UPDATED, DELETED, SERIES_CHANGED
+    }
+
+    @Value
+    public static class TimeRange {
+        Instant startInclusive;
+        Instant endExclusive;
+
+        public static TimeRange of(Event event) {
+            return new TimeRange(event.getEventStartTime(), event.getEventStartTime().plus(event.getEventDuration(), ChronoUnit.MINUTES));
+        }
+    }
+}
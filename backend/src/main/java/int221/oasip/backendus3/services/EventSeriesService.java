@@ -0,0 +1,242 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.dtos.CreateEventSeriesRequest;
+import int221.oasip.backendus3.dtos.EventResponse;
+import int221.oasip.backendus3.dtos.EventSeriesResponse;
+import int221.oasip.backendus3.entities.*;
+import int221.oasip.backendus3.exceptions.EntityNotFoundException;
+import int221.oasip.backendus3.exceptions.EventOverlapException;
+import int221.oasip.backendus3.exceptions.FieldNotValidException;
+import int221.oasip.backendus3.repository.EventCategoryRepository;
+import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.EventSeriesRepository;
+import int221.oasip.backendus3.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.modelmapper.ModelMapper;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static int221.oasip.backendus3.services.EventService.MAX_EVENT_DURATION_MINUTES;
+
+/**
+ * Recurring bookings. A series is stored once and its occurrences are only expanded inside the time range that a query asks for.
+ */
+@Service
+@RequiredArgsConstructor
+public class EventSeriesService {
+    /**
+     * A series may span at most about one year, so that a series can never be expanded into an unbounded number of occurrences
+     */
+    public static final int MAX_SERIES_WEEKS = 53;
+
+    private final EventSeriesRepository repository;
+    private final EventRepository eventRepository;
+    private final EventCategoryRepository categoryRepository;
+    private final UserRepository userRepository;
+    private final ModelMapper modelMapper;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * @param bookingEmail only series booked with this email are returned, or all series if it is null
+     */
+    @Transactional(readOnly = true)
+    public List<EventSeriesResponse> getAll(@Nullable String bookingEmail) {
+        return repository.findWithExceptionsByBookingEmail(bookingEmail).stream()
+                .map(this::toResponse)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Check the whole series against the existing events with one range query, and against the other series of the
+     * category without expanding any of them. The category is locked before anything is read, so the checks see every
+     * booking of the category that was committed before.
+     *
+     * @throws EventOverlapException if any occurrence overlaps an event or another series
+     */
+    @Transactional
+    public EventSeriesResponse create(CreateEventSeriesRequest request, boolean isAdmin) {
+        EventCategory category = categoryRepository.lockById(request.getEventCategoryId())
+                .orElseThrow(() -> new EntityNotFoundException("Event category with id " + request.getEventCategoryId() + " not found"));
+
+        EventSeries series = new EventSeries();
+        if (!isAdmin) {
+            User user = userRepository.findByEmail(request.getBookingEmail())
+                    .orElseThrow(() -> new EntityNotFoundException("User with email " + request.getBookingEmail() + " not found"));
+            series.setUser(user);
+        }
+
+        Instant firstStartTime = Instant.from(request.getFirstStartTime());
+        Instant untilTime = Instant.from(request.getUntilTime());
+        if (!untilTime.isAfter(firstStartTime)) {
+            throw new FieldNotValidException("untilTime", "Until time must be after the first start time");
+        }
+        if (untilTime.isAfter(firstStartTime.plus(MAX_SERIES_WEEKS * 7L, ChronoUnit.DAYS))) {
+            throw new FieldNotValidException("untilTime", "A series must not span more than " + MAX_SERIES_WEEKS + " weeks");
+        }
+
+        series.setEventCategory(category);
+        series.setBookingName(request.getBookingName().strip());
+        series.setBookingEmail(request.getBookingEmail().strip());
+        series.setFirstStartTime(firstStartTime);
+        series.setEventDuration(category.getEventDuration());
+        series.setIntervalWeeks(request.getIntervalWeeks());
+        series.setUntilTime(untilTime);
+        if (request.getEventNotes() != null) {
+            series.setEventNotes(request.getEventNotes().strip());
+        }
+
+        List<Integer> categoryIds = List.of(category.getId());
+        Instant lastEnd = untilTime.plus(series.getEventDuration(), ChronoUnit.MINUTES);
+        for (EventSeries other : repository.findByDateRange(firstStartTime.minus(MAX_EVENT_DURATION_MINUTES, ChronoUnit.MINUTES), lastEnd, categoryIds, null)) {
+            if (series.mayOverlap(other)) {
+                throw new EventOverlapException();
+            }
+        }
+        for (Event event : eventRepository.findByDateRange(firstStartTime.minus(MAX_EVENT_DURATION_MINUTES, ChronoUnit.MINUTES), lastEnd, categoryIds, null)) {
+            Instant eventEnd = event.getEventStartTime().plus(event.getEventDuration(), ChronoUnit.MINUTES);
+            if (series.findOverlappingOccurrence(event.getEventStartTime(), eventEnd).isPresent()) {
+                throw new EventOverlapException();
+            }
+        }
+
+        series = repository.saveAndFlush(series);
+        eventPublisher.publishEvent(EventChangedEvent.seriesChanged(series));
+        return toResponse(series);
+    }
+
+    @Transactional
+    public void delete(Integer id) {
+        EventSeries series = repository.findById(id).orElseThrow(() -> new EntityNotFoundException("Event series with id " + id + " not found"));
+        repository.delete(series);
+        eventPublisher.publishEvent(EventChangedEvent.seriesChanged(series));
+    }
+
+    /**
+     * Cancel one occurrence of the series. The category of the series is locked as in {@link #create}, so an event
+     * booked in its place in the same transaction is checked against the latest bookings.
+     *
+     * @return the series the occurrence belongs to
+     * @throws EntityNotFoundException if the series does not exist or has no such occurrence
+     */
+    @Transactional
+    public EventSeries cancelOccurrence(Integer id, Instant occurrenceStartTime) {
+        // the category is locked before the series, in the order of bookings, which lock the category and then read
+        // the series of the category with a locking read
+        Integer categoryId = repository.findCategoryIdById(id).orElseThrow(() -> new EntityNotFoundException("Event series with id " + id + " not found"));
+        categoryRepository.lockById(categoryId);
+        EventSeries series = repository.lockById(id).orElseThrow(() -> new EntityNotFoundException("Event series with id " + id + " not found"));
+        if (!series.isOccurrence(occurrenceStartTime) || series.isCancelled(occurrenceStartTime)) {
+            throw new EntityNotFoundException("Event series with id " + id + " has no occurrence at " + occurrenceStartTime);
+        }
+
+        series.getExceptions().add(new EventSeriesException(series, occurrenceStartTime));
+        series = repository.saveAndFlush(series);
+        eventPublisher.publishEvent(EventChangedEvent.occurrenceCancelled(series, occurrenceStartTime));
+        return series;
+    }
+
+    @Transactional(readOnly = true)
+    public EventSeriesResponse get(Integer id) {
+        return repository.findById(id).map(this::toResponse).orElse(null);
+    }
+
+    /**
+     * The caller must have locked the category. The series are read with a locking read, so the check also holds when
+     * the transaction read the event before it locked the category.
+     *
+     * @throws EventOverlapException if an occurrence of any series in the category overlaps {@code startAt} to {@code endAt}
+     */
+    public void assertNoOccurrenceOverlaps(Integer categoryId, Instant startAt, Instant endAt) {
+        List<EventSeries> candidates = repository.findByDateRangeForShare(startAt.minus(MAX_EVENT_DURATION_MINUTES, ChronoUnit.MINUTES), endAt, categoryId);
+        for (EventSeries series : candidates) {
+            if (series.findOverlappingOccurrence(startAt, endAt).isPresent()) {
+                throw new EventOverlapException();
+            }
+        }
+    }
+
+    /**
+     * Get the series of a category that may have occurrences overlapping {@code fromInclusive} to {@code toExclusive},
+     * to check many time ranges with {@link EventSeries#findOverlappingOccurrence(Instant, Instant)} after one query.
+     * The caller must have locked the category, see {@link #assertNoOccurrenceOverlaps(Integer, Instant, Instant)}.
+     */
+    public List<EventSeries> getOverlapCandidates(Integer categoryId, Instant fromInclusive, Instant toExclusive) {
+        return repository.findByDateRangeForShare(fromInclusive.minus(MAX_EVENT_DURATION_MINUTES, ChronoUnit.MINUTES), toExclusive, categoryId);
+    }
+
+    /**
+     * Occurrences that start between {@code fromInclusive} and {@code toExclusive}
+     */
+    @Transactional(readOnly = true)
+    public List<EventResponse> getOccurrencesByDateRange(Instant fromInclusive, Instant toExclusive, @Nullable List<Integer> categoryIds, @Nullable Integer userId) {
+        List<EventResponse> occurrences = new ArrayList<>();
+        for (EventSeries series : repository.findByDateRange(fromInclusive, toExclusive, categoryIds, userId)) {
+            for (Instant start : series.getOccurrenceStartTimes(fromInclusive, toExclusive)) {
+                occurrences.add(toOccurrenceResponse(series, start));
+            }
+        }
+        occurrences.sort(Comparator.comparing(EventResponse::getEventStartTime));
+        return occurrences;
+    }
+
+    /**
+     * Occurrences that end after {@code startAt}, as in {@link EventRepository#findUpcomingAndOngoingEvents(Instant, List, Integer)}
+     */
+    @Transactional(readOnly = true)
+    public List<EventResponse> getUpcomingAndOngoingOccurrences(Instant startAt, @Nullable List<Integer> categoryIds, @Nullable Integer userId) {
+        Instant from = startAt.minus(MAX_EVENT_DURATION_MINUTES, ChronoUnit.MINUTES);
+        List<EventResponse> occurrences = new ArrayList<>();
+        for (EventSeries series : repository.findStartingFrom(from, categoryIds, userId)) {
+            for (Instant start : series.getOccurrenceStartTimes(from, series.getUntilTime())) {
+                if (start.plus(series.getEventDuration(), ChronoUnit.MINUTES).isAfter(startAt)) {
+                    occurrences.add(toOccurrenceResponse(series, start));
+                }
+            }
+        }
+        occurrences.sort(Comparator.comparing(EventResponse::getEventStartTime));
+        return occurrences;
+    }
+
+    /**
+     * Occurrences that ended before or at {@code startAt}, as in {@link EventRepository#findPastEvents(Instant, List, Integer)}
+     */
+    @Transactional(readOnly = true)
+    public List<EventResponse> getPastOccurrences(Instant startAt, @Nullable List<Integer> categoryIds, @Nullable Integer userId) {
+        List<EventResponse> occurrences = new ArrayList<>();
+        for (EventSeries series : repository.findStartingBefore(startAt, categoryIds, userId)) {
+            for (Instant start : series.getOccurrenceStartTimes(series.getFirstStartTime(), startAt)) {
+                if (!start.plus(series.getEventDuration(), ChronoUnit.MINUTES).isAfter(startAt)) {
+                    occurrences.add(toOccurrenceResponse(series, start));
+                }
+            }
+        }
+        occurrences.sort(Comparator.comparing(EventResponse::getEventStartTime));
+        return occurrences;
+    }
+
+    private EventResponse toOccurrenceResponse(EventSeries series, Instant startTime) {
+        Event occurrence = new Event(series.getEventCategory(), series.getBookingName(), series.getBookingEmail(), startTime, series.getEventNotes());
+        occurrence.setEventDuration(series.getEventDuration());
+        EventResponse response = modelMapper.map(occurrence, EventResponse.class);
+        response.setSeriesId(series.getId());
+        return response;
+    }
+
+    private EventSeriesResponse toResponse(EventSeries series) {
+        EventSeriesResponse response = modelMapper.map(series, EventSeriesResponse.class);
+        response.setCancelledOccurrences(series.getExceptions().stream()
+                .map(EventSeriesException::getOccurrenceStartTime)
+                .sorted()
+                .collect(Collectors.toList()));
+        return response;
+    }
+}
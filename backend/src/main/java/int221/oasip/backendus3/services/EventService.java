@@ -1,31 +1,41 @@
 package int221.oasip.backendus3.services;
 
-import int221.oasip.backendus3.dtos.CreateEventMultipartRequest;
-import int221.oasip.backendus3.dtos.EditEventMultipartRequest;
-import int221.oasip.backendus3.dtos.EventResponse;
+import int221.oasip.backendus3.dtos.*;
 import int221.oasip.backendus3.entities.Event;
 import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.entities.EventSeries;
 import int221.oasip.backendus3.entities.Role;
 import int221.oasip.backendus3.entities.User;
 import int221.oasip.backendus3.exceptions.EntityNotFoundException;
 import int221.oasip.backendus3.exceptions.EventOverlapException;
+import int221.oasip.backendus3.exceptions.FieldNotValidException;
 import int221.oasip.backendus3.exceptions.ForbiddenException;
 import int221.oasip.backendus3.repository.EventCategoryRepository;
 import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.EventSlotRepository;
 import int221.oasip.backendus3.repository.UserRepository;
+import int221.oasip.backendus3.utils.CompressedFiles;
 import int221.oasip.backendus3.utils.ModelMapperUtils;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.annotation.Nullable;
-import javax.mail.*;
-import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
+import javax.annotation.PostConstruct;
+import javax.mail.MessagingException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -39,11 +49,25 @@ import java.util.stream.Collectors;
 @Service
 @RequiredArgsConstructor
 public class EventService {
+    /**
+     * Upper bound of {@code eventDuration}, as checked by the database
+     */
+    public static final int MAX_EVENT_DURATION_MINUTES = 480;
+    public static final int MAX_SEARCH_PAGE_SIZE = 100;
+    private static final int MAX_SEARCH_TERMS = 10;
+
     private final EventRepository repository;
     private final ModelMapper modelMapper;
     private final ModelMapperUtils modelMapperUtils;
     private final EventCategoryRepository categoryRepository;
     private final UserRepository userRepository;
+    private final FileCleanupService fileCleanupService;
+    private final RenditionService renditionService;
+    private final CachePurgeService cachePurgeService;
+    private final EventSlotRepository slotRepository;
+    private final EventSeriesService seriesService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MailService mailService;
 
     @Value("${upload.path}")
     private String uploadPath;
@@ -51,8 +75,21 @@ public class EventService {
     @Value("${mail.disable}")
     private boolean mailDisable;
 
+    @Value("${event.slot-minutes:1}")
+    private int slotMinutes;
+
+    @PostConstruct
+    void checkSlotMinutes() {
+        // slots are aligned to multiples of slotMinutes since the epoch, which only fall on the same minutes of every
+        // hour, whatever the time zone, if slotMinutes divides an hour
+        if (slotMinutes <= 0 || 60 % slotMinutes != 0) {
+            throw new IllegalStateException("event.slot-minutes must divide 60, but is " + slotMinutes);
+        }
+    }
+
+    @Transactional(readOnly = true)
     public EventResponse getEvent(Integer id) {
-        Event event = repository.findById(id).orElse(null);
+        Event event = repository.findById(id).or(() -> repository.findArchivedById(id)).orElse(null);
 
         if (event == null) {
             return null;
@@ -61,9 +98,23 @@ public class EventService {
         return modelMapper.map(event, EventResponse.class);
     }
 
-    public EventResponse create(CreateEventMultipartRequest newEvent, boolean isGuest, boolean isAdmin) throws MessagingException, IOException {
+    /**
+     * The event claims its time slots in the same transaction as the insert. The unique key of the slot table
+     * rejects a concurrent booking of the same slot, even when it comes from another backend instance.
+     * <p>
+     * The category row is locked before anything else is read, so bookings of the category are checked one at a time
+     * instead of racing into the unique key and rolling back. The file is stored before the lock is taken and the
+     * confirmation is mailed after commit, so neither holds up the other bookings of the category.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public EventResponse create(CreateEventMultipartRequest newEvent, boolean isGuest, boolean isAdmin) throws IOException {
         Event e = new Event();
-        EventCategory category = categoryRepository.findById(newEvent.getEventCategoryId())
+        // a booking that fails leaves the directory unused, FileCleanupService deletes it after the grace period
+        if (newEvent.getFile() != null && !newEvent.getFile().isEmpty()) {
+            e.setBucketUuid(uploadFile(newEvent.getFile()));
+        }
+
+        EventCategory category = categoryRepository.lockById(newEvent.getEventCategoryId())
                 .orElseThrow(() -> new EntityNotFoundException("Event category with id " + newEvent.getEventCategoryId() + " not found"));
 
         if (!isGuest && !isAdmin) {
@@ -81,27 +132,139 @@ public class EventService {
             e.setEventNotes(newEvent.getEventNotes().strip());
         }
 
-        Instant startTime = e.getEventStartTime();
-        Instant endTime = startTime.plus(e.getEventDuration(), ChronoUnit.MINUTES);
+        e.setId(null);
+        e = book(e);
+        sendmailAfterCommit(List.of(e));
 
-        List<Event> overlapEvents = repository.findOverlapEventsByCategoryId(startTime, endTime, e.getEventCategory().getId(), null);
+        return modelMapper.map(e, EventResponse.class);
+    }
+
+    /**
+     * Book several start times of one category in a single transaction.
+     * <p>
+     * The start times are validated against each other and against the existing events of the category that are
+     * returned by one range query, by sorting and sweeping them in memory. The accepted events are inserted and claim
+     * their slots in JDBC batches, and a single confirmation mail lists all of them.
+     * <p>
+     * In {@link BatchMode#ALL_OR_NOTHING} mode, any conflict fails the whole batch with {@link EventOverlapException}.
+     * In {@link BatchMode#BEST_EFFORT} mode, conflicting start times are skipped and returned as rejected.
+     * A booking made concurrently by someone else still fails the whole batch in both modes.
+     *
+     * @throws EventOverlapException if a start time overlaps in all-or-nothing mode, or a slot was taken concurrently
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public EventBatchResponse createBatch(CreateEventBatchRequest request, boolean isAdmin) {
+        EventCategory category = categoryRepository.lockById(request.getEventCategoryId())
+                .orElseThrow(() -> new EntityNotFoundException("Event category with id " + request.getEventCategoryId() + " not found"));
+        BatchMode mode = BatchMode.fromString(request.getMode());
+
+        // the batch endpoint requires authentication, so only admins book on behalf of someone else
+        User user = null;
+        if (!isAdmin) {
+            user = userRepository.findByEmail(request.getBookingEmail())
+                    .orElseThrow(() -> new EntityNotFoundException("User with email " + request.getBookingEmail() + " not found"));
+        }
 
-        if (overlapEvents.size() > 0) {
+        int duration = category.getEventDuration();
+        assertWholeSlots(duration);
+        List<Instant> startTimes = request.getEventStartTimes().stream()
+                .map(Instant::from)
+                .sorted()
+                .collect(Collectors.toList());
+        startTimes.forEach(startTime -> assertOnSlotBoundary("eventStartTimes", startTime));
+        Instant firstStart = startTimes.get(0);
+        Instant lastEnd = startTimes.get(startTimes.size() - 1).plus(duration, ChronoUnit.MINUTES);
+
+        // an existing event can only overlap if it started at most the maximum duration before the first start time
+        List<Event> existingEvents = new ArrayList<>(repository.findByDateRange(firstStart.minus(MAX_EVENT_DURATION_MINUTES, ChronoUnit.MINUTES), lastEnd, List.of(category.getId()), null));
+        existingEvents.sort(Comparator.comparing(Event::getEventStartTime));
+        List<EventSeries> series = seriesService.getOverlapCandidates(category.getId(), firstStart, lastEnd);
+
+        List<String> conflicts = findBatchConflicts(startTimes, duration, existingEvents, series);
+        if (BatchMode.ALL_OR_NOTHING.equals(mode) && conflicts.stream().anyMatch(Objects::nonNull)) {
             throw new EventOverlapException();
         }
 
-        e.setId(null);
+        List<Event> accepted = new ArrayList<>();
+        List<RejectedEventStartTime> rejected = new ArrayList<>();
+        for (int i = 0; i < startTimes.size(); i++) {
+            Instant startTime = startTimes.get(i);
+            if (conflicts.get(i) != null) {
+                rejected.add(new RejectedEventStartTime(startTime, conflicts.get(i)));
+                continue;
+            }
 
-        if (newEvent.getFile() != null && !newEvent.getFile().isEmpty()) {
-            String bucketUuid = uploadFile(newEvent.getFile());
-            e.setBucketUuid(bucketUuid);
+            Event e = new Event();
+            e.setUser(user);
+            e.setBookingName(request.getBookingName().strip());
+            e.setBookingEmail(request.getBookingEmail().strip());
+            e.setEventStartTime(startTime);
+            e.setEventCategory(category);
+            e.setEventDuration(duration);
+            if (request.getEventNotes() != null) {
+                e.setEventNotes(request.getEventNotes().strip());
+            }
+            accepted.add(e);
         }
 
-        if (!mailDisable) {
-            sendmail(e);
+        if (!accepted.isEmpty()) {
+            repository.insertAll(accepted);
+            try {
+                slotRepository.claimAll(accepted, slotMinutes);
+            } catch (DuplicateKeyException | PessimisticLockingFailureException ex) {
+                throw new EventOverlapException();
+            }
+            accepted.forEach(e -> eventPublisher.publishEvent(EventChangedEvent.created(e)));
+            sendmailAfterCommit(accepted);
         }
 
-        return modelMapper.map(repository.saveAndFlush(e), EventResponse.class);
+        EventBatchResponse response = new EventBatchResponse();
+        response.setCreated(modelMapperUtils.mapList(accepted, EventResponse.class));
+        response.setRejected(rejected);
+        return response;
+    }
+
+    /**
+     * Sweep the start times of a batch against the existing events, the series and the earlier start times of the batch.
+     * A start time that conflicts is skipped, so it does not block the start times after it.
+     *
+     * @param startTimes     sorted start times that all last {@code duration} minutes
+     * @param existingEvents existing events of the category sorted by start time, including every event that may
+     *                       overlap the first start time
+     * @return the reason each start time conflicts, or {@code null} if it does not, in the order of {@code startTimes}
+     */
+    static List<String> findBatchConflicts(List<Instant> startTimes, int duration, List<Event> existingEvents, List<EventSeries> series) {
+        List<String> conflicts = new ArrayList<>(startTimes.size());
+        int existingIndex = 0;
+        Instant existingMaxEnd = Instant.MIN;
+        Instant acceptedEnd = Instant.MIN;
+        for (Instant startTime : startTimes) {
+            Instant endTime = startTime.plus(duration, ChronoUnit.MINUTES);
+            // all start times have the same duration, so end times are sorted as well:
+            // take in every existing event that starts before this end time and keep the latest end among them
+            while (existingIndex < existingEvents.size() && existingEvents.get(existingIndex).getEventStartTime().isBefore(endTime)) {
+                Event existing = existingEvents.get(existingIndex++);
+                Instant existingEnd = existing.getEventStartTime().plus(existing.getEventDuration(), ChronoUnit.MINUTES);
+                if (existingEnd.isAfter(existingMaxEnd)) {
+                    existingMaxEnd = existingEnd;
+                }
+            }
+
+            String conflict = null;
+            if (existingMaxEnd.isAfter(startTime)) {
+                conflict = "Start time overlaps with other event(s)";
+            } else if (series.stream().anyMatch(it -> it.findOverlappingOccurrence(startTime, endTime).isPresent())) {
+                conflict = "Start time overlaps with a recurring event";
+            } else if (acceptedEnd.isAfter(startTime)) {
+                conflict = "Start time overlaps with another start time in the request";
+            }
+
+            conflicts.add(conflict);
+            if (conflict == null) {
+                acceptedEnd = endTime;
+            }
+        }
+        return conflicts;
     }
 
     // refactor the above uploadFile method as a service method
@@ -119,11 +282,15 @@ public class EventService {
         }
 
         System.out.println("Saving to " + destination.getAbsolutePath());
-        file.transferTo(new File(destination.getAbsolutePath()));
+        CompressedFiles.store(file, uploadDir.toPath().toAbsolutePath(), destination.getName());
+        renditionService.generateLater(uuidNewDir);
 
         return uuidNewDir;
     }
 
+    /**
+     * @return the stored file, which may be compressed, see {@link CompressedFiles}
+     */
     public Optional<File> getFileByBucketUuid(String uuid) {
         File uploadDir = new File(uploadPath, uuid);
         // get the only file in the directory
@@ -136,19 +303,31 @@ public class EventService {
     }
 
 
-    public void delete(Integer id) {
-        Event event = repository.findById(id).orElse(null);
-        if (event == null) {
-            return;
-        }
+    /**
+     * @param bookingEmail the event must be booked with this email, null to delete any event
+     * @throws EntityNotFoundException if the event does not exist or was archived
+     * @throws ForbiddenException      if the event is booked with another email
+     */
+    @Transactional
+    public void delete(Integer id, @Nullable String bookingEmail) {
+        Event event = findOwnEvent(id, bookingEmail);
 
-        deleteFileByBucketUuid(event.getBucketUuid());
+        fileCleanupService.deleteLater(event.getBucketUuid());
 
+        slotRepository.releaseByEventId(id);
         repository.deleteById(id);
+        eventPublisher.publishEvent(EventChangedEvent.deleted(event));
     }
 
-    public EventResponse update(Integer id, EditEventMultipartRequest editEvent) throws IOException {
-        Event event = repository.findById(id).orElseThrow(() -> new EntityNotFoundException("Event with id " + id + " not found"));
+    /**
+     * @param bookingEmail the event must be booked with this email, null to update any event
+     * @throws EntityNotFoundException if the event does not exist or was archived
+     * @throws ForbiddenException      if the event is booked with another email
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public EventResponse update(Integer id, EditEventMultipartRequest editEvent, @Nullable String bookingEmail) throws IOException {
+        Event event = findOwnEvent(id, bookingEmail);
+        EventChangedEvent.TimeRange released = EventChangedEvent.TimeRange.of(event);
 
         if (editEvent.getEventNotes() != null) {
             event.setEventNotes(editEvent.getEventNotes().strip());
@@ -156,29 +335,32 @@ public class EventService {
 
         if (editEvent.getEventStartTime() != null) {
             Instant startTime = Instant.from(editEvent.getEventStartTime());
-            Instant endTime = startTime.plus(event.getEventDuration(), ChronoUnit.MINUTES);
-            Integer categoryId = event.getEventCategory().getId();
-            Integer eventId = event.getId();
+            assertOnSlotBoundary("eventStartTime", startTime);
 
-            List<Event> overlapEvents = repository.findOverlapEventsByCategoryId(startTime, endTime, categoryId, eventId);
+            Integer categoryId = event.getEventCategory().getId();
 
-            if (overlapEvents.size() > 0) {
-                throw new EventOverlapException();
-            } else {
-                event.setEventStartTime(startTime);
-            }
+            // the event was read before the lock, so the check against the series uses a locking read,
+            // and the slots are claimed by inserts, which always see the latest committed rows
+            categoryRepository.lockById(categoryId);
+            seriesService.assertNoOccurrenceOverlaps(categoryId, startTime, startTime.plus(event.getEventDuration(), ChronoUnit.MINUTES));
+            // release the old slots first, so moving within the event's own time range does not collide with itself
+            slotRepository.releaseByEventId(event.getId());
+            event.setEventStartTime(startTime);
+            event = repository.saveAndFlush(event);
+            claimSlots(event);
         }
 
         String bucketUuid = event.getBucketUuid();
         if (editEvent.getFile() != null) {
             // remove the old file
             if (editEvent.getFile().isEmpty()) {
-                deleteFileByBucketUuid(bucketUuid);
+                fileCleanupService.deleteLater(bucketUuid);
                 event.setBucketUuid(null);
             } else {
                 // replace the old file with the new file
                 if (bucketUuid != null) {
                     replaceFile(bucketUuid, editEvent.getFile());
+                    cachePurgeService.purgeLater(CachePurgeService.fileTag(bucketUuid));
                 } else {
                     String newBucketUuid = uploadFile(editEvent.getFile());
                     event.setBucketUuid(newBucketUuid);
@@ -186,23 +368,96 @@ public class EventService {
             }
         }
 
-        return modelMapper.map(repository.saveAndFlush(event), EventResponse.class);
+        event = repository.saveAndFlush(event);
+        eventPublisher.publishEvent(EventChangedEvent.updated(event, released));
+        return modelMapper.map(event, EventResponse.class);
     }
 
-    private void deleteFileByBucketUuid(@Nullable String bucketUuid) {
-        if (bucketUuid == null) {
-            return;
+    /**
+     * The event is loaded once for both the check and the change, instead of being read again by the caller
+     */
+    private Event findOwnEvent(Integer id, @Nullable String bookingEmail) {
+        Event event = repository.findById(id).orElseThrow(() -> new EntityNotFoundException("Event with id " + id + " not found"));
+        if (bookingEmail != null && !event.getBookingEmail().equals(bookingEmail)) {
+            throw new ForbiddenException("You are not allowed to access this event");
         }
+        return event;
+    }
 
-        File uploadDir = new File(uploadPath, bucketUuid);
-        File[] files = uploadDir.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                file.delete();
-            }
+    /**
+     * Move one occurrence of a series to a standalone event: the occurrence is cancelled and an event is booked
+     * with the new start time and notes, in one transaction.
+     *
+     * @throws EventOverlapException if the new start time overlaps other events or occurrences
+     */
+    @Transactional
+    public EventResponse rescheduleOccurrence(Integer seriesId, Instant occurrenceStartTime, EditEventRequest editEvent) {
+        // cancelling the occurrence locks the category for the booking as well
+        EventSeries series = seriesService.cancelOccurrence(seriesId, occurrenceStartTime);
+
+        Event e = new Event(series.getEventCategory(), series.getBookingName(), series.getBookingEmail(),
+                editEvent.getEventStartTime() != null ? Instant.from(editEvent.getEventStartTime()) : occurrenceStartTime,
+                editEvent.getEventNotes() != null ? editEvent.getEventNotes().strip() : series.getEventNotes());
+        e.setUser(series.getUser());
+        e.setEventDuration(series.getEventDuration());
+
+        return modelMapper.map(book(e), EventResponse.class);
+    }
+
+    /**
+     * Insert the event and claim its slots, after checking it against the occurrences of recurring series.
+     * The caller must have locked the category, see {@link EventCategoryRepository#lockById(Integer)}.
+     *
+     * @return the saved event
+     * @throws EventOverlapException if the event overlaps other events or occurrences
+     */
+    private Event book(Event e) {
+        Integer categoryId = e.getEventCategory().getId();
+        Instant startTime = e.getEventStartTime();
+        assertWholeSlots(e.getEventDuration());
+        assertOnSlotBoundary("eventStartTime", startTime);
+
+        seriesService.assertNoOccurrenceOverlaps(categoryId, startTime, startTime.plus(e.getEventDuration(), ChronoUnit.MINUTES));
+        e = repository.saveAndFlush(e);
+        claimSlots(e);
+        eventPublisher.publishEvent(EventChangedEvent.created(e));
+        return e;
+    }
+
+    /**
+     * A booking claims the slots it intersects, so one that starts or ends inside a slot would also take that slot
+     * from the booking next to it. Bookings must therefore start on slot boundaries and last whole slots.
+     *
+     * @throws FieldNotValidException if the duration of the category is not a multiple of {@code event.slot-minutes}
+     */
+    public void assertWholeSlots(int durationMinutes) {
+        if (durationMinutes % slotMinutes != 0) {
+            throw new FieldNotValidException("eventDuration", "Duration must be a multiple of " + slotMinutes + " minutes");
+        }
+    }
+
+    /**
+     * @throws FieldNotValidException if the start time is not on a boundary of the {@code event.slot-minutes} slots
+     */
+    private void assertOnSlotBoundary(String field, Instant startTime) {
+        if (startTime.getNano() != 0 || startTime.getEpochSecond() % (slotMinutes * 60L) != 0) {
+            throw new FieldNotValidException(field, "Start time must be on a multiple of " + slotMinutes + " minutes, without seconds");
+        }
+    }
+
+    /**
+     * @throws EventOverlapException if any slot of the event is already claimed by another event in the category
+     */
+    private void claimSlots(Event event) {
+        Instant startTime = event.getEventStartTime();
+        Instant endTime = startTime.plus(event.getEventDuration(), ChronoUnit.MINUTES);
+
+        try {
+            slotRepository.claim(event.getId(), event.getEventCategory().getId(), startTime, endTime, slotMinutes);
+        } catch (DuplicateKeyException | PessimisticLockingFailureException ex) {
+            // duplicate slot, or a deadlock with another transaction inserting the same slots
+            throw new EventOverlapException();
         }
-        System.out.println("Deleting " + uploadDir.getAbsolutePath());
-        uploadDir.delete();
     }
 
     private void replaceFile(String bucketUuid, MultipartFile newFile) throws IOException {
@@ -221,7 +476,8 @@ public class EventService {
         // upload new file to the same directory
         File destination = new File(uploadDir, newFile.getOriginalFilename());
         System.out.println("Replacing with " + destination.getAbsolutePath());
-        newFile.transferTo(new File(destination.getAbsolutePath()));
+        CompressedFiles.store(newFile, uploadDir.toPath().toAbsolutePath(), destination.getName());
+        renditionService.generateLater(bucketUuid);
     }
 
 
@@ -241,57 +497,40 @@ public class EventService {
      * if {@code isAdmin} is {@code true}, {@code userEmail} is ignored
      * <br />
      * if the user is a lecturer, events that the user owned will be returned, with the options of {@code categoryId} and {@code type} applied
+     * <br />
+     * if {@code type} is specified, occurrences of recurring series in the same time range are included, with {@code seriesId} set
      *
      * @param options options
      * @return List of events based on the options provided
      * @throws IllegalArgumentException if the {@code type} is {@link EventTimeType#DAY} and {@code startAt} is null
      */
+    @Transactional(readOnly = true)
     public List<EventResponse> getEvents(GetEventsOptions options) {
         EventTimeType type = EventTimeType.fromString(options.getType());
         Instant startAt = options.getStartAt();
         Integer categoryId = options.getCategoryId();
         Instant now = Instant.now();
 
-        List<Integer> categoryIds = null;
-        Integer userId = null;
-        boolean isLecturer = false;
-
-        if (!options.isAdmin()) {
-            User user = userRepository.findByEmail(options.getUserEmail())
-                    .orElseThrow(() -> new EntityNotFoundException("User with email " + options.getUserEmail() + " not found"));
-
-            if (user.getRole().equals(Role.LECTURER)) {
-                List<Integer> ownCategoryIds = user.getOwnCategories().stream().map(own -> own.getEventCategory().getId()).collect(Collectors.toList());
-                if (categoryId != null && !ownCategoryIds.contains(categoryId)) {
-                    throw new ForbiddenException("Lecturer with email " + options.getUserEmail() + " does not own category with id " + categoryId);
-                }
-                if (categoryId != null) {
-                    categoryIds = List.of(categoryId);
-                } else if (ownCategoryIds.size() > 0) {
-                    categoryIds = ownCategoryIds;
-                }
-                isLecturer = true;
-
-                System.out.println(user.getName() + " is a lecturer");
-                System.out.println("Category IDs: " + categoryIds);
-            } else {
-                if (categoryId != null) {
-                    categoryIds = List.of(categoryId);
-                }
-                userId = user.getId();
-            }
-        }
+        EventScope scope = resolveScope(options.isAdmin(), options.getUserEmail(), categoryId);
+        List<Integer> categoryIds = scope.getCategoryIds();
+        Integer userId = scope.getUserId();
+        boolean isLecturer = scope.isLecturer();
 
         List<Event> events;
+        // occurrences of recurring series are only expanded for the time based types
+        List<EventResponse> occurrences = List.of();
         if (EventTimeType.DAY.equals(type)) {
             if (startAt == null) {
                 throw new IllegalArgumentException("startAt cannot be null for type " + EventTimeType.DAY);
             }
             events = repository.findByDateRangeOfOneDay(startAt, categoryIds, userId);
+            occurrences = seriesService.getOccurrencesByDateRange(startAt, startAt.plus(1, ChronoUnit.DAYS), categoryIds, userId);
         } else if (EventTimeType.UPCOMING.equals(type)) {
             events = repository.findUpcomingAndOngoingEvents(now, categoryIds, userId);
+            occurrences = seriesService.getUpcomingAndOngoingOccurrences(now, categoryIds, userId);
         } else if (EventTimeType.PAST.equals(type)) {
             events = repository.findPastEvents(now, categoryIds, userId);
+            occurrences = seriesService.getPastOccurrences(now, categoryIds, userId);
         } else if (type != null) {
             throw new IllegalArgumentException("type " + type + " is not supported");
         } else if (categoryIds != null) {
@@ -308,7 +547,89 @@ public class EventService {
             return List.of();
         }
 
-        return modelMapperUtils.mapList(events, EventResponse.class);
+        List<EventResponse> responses = modelMapperUtils.mapList(events, EventResponse.class);
+        if (!occurrences.isEmpty()) {
+            responses = new ArrayList<>(responses);
+            responses.addAll(occurrences);
+            responses.sort(Comparator.comparing(EventResponse::getEventStartTime));
+        }
+        return responses;
+    }
+
+    /**
+     * Search the bookings by words of their booking name, booking email and notes. Every word must match,
+     * as a prefix of a word in the booking, and the results are ranked by relevance.
+     *
+     * @param query words to search for, operators of the full-text syntax are ignored
+     * @param scope events that the user can see
+     * @throws FieldNotValidException if the query has no words, or the page or size is out of range
+     */
+    @Transactional(readOnly = true)
+    public EventSearchResponse search(String query, int page, int size, EventScope scope) {
+        if (page < 0) {
+            throw new FieldNotValidException("page", "page must not be negative");
+        }
+        if (size < 1 || size > MAX_SEARCH_PAGE_SIZE) {
+            throw new FieldNotValidException("size", "size must be between 1 and " + MAX_SEARCH_PAGE_SIZE);
+        }
+
+        // full-text indexes split words on anything that is not a letter, digit or underscore
+        String booleanQuery = Arrays.stream(query.split("[^\\p{L}\\p{N}_]+"))
+                .filter(term -> !term.isEmpty())
+                .limit(MAX_SEARCH_TERMS)
+                .map(term -> "+" + term + "*")
+                .collect(Collectors.joining(" "));
+        if (booleanQuery.isEmpty()) {
+            throw new FieldNotValidException("q", "q must contain at least one word");
+        }
+
+        EventSearchResponse response = new EventSearchResponse();
+        response.setPage(page);
+        response.setSize(size);
+        if (scope.isLecturer() && scope.getCategoryIds() == null) {
+            // a lecturer without categories has nothing to see
+            response.setEvents(List.of());
+            return response;
+        }
+
+        Slice<Event> events = repository.search(booleanQuery, scope.getCategoryIds(), scope.getUserId(), PageRequest.of(page, size));
+        response.setEvents(modelMapperUtils.mapList(events.getContent(), EventResponse.class));
+        response.setHasNext(events.hasNext());
+        return response;
+    }
+
+    /**
+     * Resolve the events that a user can see, as described in {@link #getEvents(GetEventsOptions)}
+     *
+     * @param categoryId only events in this category, if it is not null
+     * @throws EntityNotFoundException if the user is not an admin and does not exist
+     * @throws ForbiddenException      if the user is a lecturer and does not own the category
+     */
+    @Transactional(readOnly = true)
+    public EventScope resolveScope(boolean isAdmin, String userEmail, @Nullable Integer categoryId) {
+        List<Integer> categoryIds = categoryId != null ? List.of(categoryId) : null;
+        if (isAdmin) {
+            return new EventScope(categoryIds, null, false);
+        }
+
+        User user = userRepository.findByEmail(userEmail)
+                .orElseThrow(() -> new EntityNotFoundException("User with email " + userEmail + " not found"));
+
+        if (!user.getRole().equals(Role.LECTURER)) {
+            return new EventScope(categoryIds, user.getId(), false);
+        }
+
+        List<Integer> ownCategoryIds = user.getOwnCategories().stream().map(own -> own.getEventCategory().getId()).collect(Collectors.toList());
+        if (categoryId != null && !ownCategoryIds.contains(categoryId)) {
+            throw new ForbiddenException("Lecturer with email " + userEmail + " does not own category with id " + categoryId);
+        }
+        if (categoryId == null && ownCategoryIds.size() > 0) {
+            categoryIds = ownCategoryIds;
+        }
+
+        System.out.println(user.getName() + " is a lecturer");
+        System.out.println("Category IDs: " + categoryIds);
+        return new EventScope(categoryIds, null, true);
     }
 
     public enum EventTimeType {
@@ -327,6 +648,27 @@ public class EventService {
         }
     }
 
+    public enum BatchMode {
+        ALL_OR_NOTHING, BEST_EFFORT;
+
+        public static BatchMode fromString(String mode) {
+            return BatchMode.valueOf(mode.toUpperCase());
+        }
+    }
+
+    /**
+     * {@code categoryIds} and {@code userId} are null when they should not be filtered on
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class EventScope {
+        @Nullable
+        private final List<Integer> categoryIds;
+        @Nullable
+        private final Integer userId;
+        private final boolean isLecturer;
+    }
+
     @Builder(builderClassName = "Builder")
     @Getter
     public static class GetEventsOptions {
@@ -337,39 +679,60 @@ public class EventService {
         private boolean isAdmin;
     }
 
-    private void sendmail(Event event) throws MessagingException {
-        Properties props = new Properties();
-        props.put("mail.smtp.auth", "true");
-        props.put("mail.smtp.starttls.enable", "true");
-        props.put("mail.smtp.host", "smtp.gmail.com");
-        props.put("mail.smtp.port", "587");
+    /**
+     * Mail the confirmation once the transaction commits. The category is not kept locked while the mail server
+     * answers, and a mail that cannot be sent is only logged instead of rolling back the booking.
+     */
+    private void sendmailAfterCommit(List<Event> events) {
+        if (mailDisable) {
+            return;
+        }
 
-        Session session = Session.getInstance(props, new javax.mail.Authenticator() {
-            protected javax.mail.PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication("oasip.us3.noreply@gmail.com", "hyyvvoygfnytkmgt");
+        Runnable send = () -> {
+            try {
+                sendmail(events);
+            } catch (MessagingException | RuntimeException ex) {
+                System.err.println("Cannot send the confirmation to " + events.get(0).getBookingEmail() + ": " + ex.getMessage());
+            }
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            send.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                send.run();
             }
         });
+    }
+
+    /**
+     * Send one confirmation mail for events of the same booking (same category and booking email)
+     */
+    private void sendmail(List<Event> events) throws MessagingException {
         DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("E MMM dd, yyyy HH:mm").withZone(ZoneId.of("Asia/Bangkok"));
         DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm ").withZone(ZoneId.of("Asia/Bangkok"));
-        Instant endTime = event.getEventStartTime().plusSeconds(event.getEventDuration() * 60);
+        Event event = events.get(0);
 
-        javax.mail.Message msg = new MimeMessage(session);
-        msg.setFrom(new InternetAddress("oasip.us3.noreply@gmail.com", false));
+        StringBuilder when = new StringBuilder();
+        for (Event e : events) {
+            Instant endTime = e.getEventStartTime().plusSeconds(e.getEventDuration() * 60);
+            when.append("<br>When: ").append(dateTimeFormatter.format(e.getEventStartTime())).append(" - ").append(timeFormatter.format(endTime)).append(" (ICT)");
+        }
 
-        msg.setRecipients(Message.RecipientType.TO, InternetAddress.parse(event.getBookingEmail()));
-        msg.setSubject("Your booking is complete.");
         String eventCategory = event.getEventCategory().getEventCategoryName();
         String eventNotes = event.getEventNotes();
-        msg.setContent("Subject: [OASIP] " + eventCategory + " @ " + dateTimeFormatter.format(event.getEventStartTime()) + " - " + timeFormatter.format(endTime) + " (ICT)" +
+        Instant firstEndTime = event.getEventStartTime().plusSeconds(event.getEventDuration() * 60);
+        String subjectWhen = events.size() == 1
+                ? dateTimeFormatter.format(event.getEventStartTime()) + " - " + timeFormatter.format(firstEndTime) + " (ICT)"
+                : events.size() + " bookings";
+        mailService.send(mailService.newMessage(event.getBookingEmail(), "Your booking is complete.",
+                "Subject: [OASIP] " + eventCategory + " @ " + subjectWhen +
                         "<br>Reply-to: noreply@intproj21.sit.kmutt.ac.th" +
                         "<br>Booking Name: " + event.getBookingName() +
                         "<br>Event Category: " + eventCategory +
-                        "<br>When: " + dateTimeFormatter.format(event.getEventStartTime()) + " - " + timeFormatter.format(endTime) + " (ICT)" +
-                        "<br>Event Notes: " + (eventNotes == null ? "" : eventNotes)
-
-                , "text/html; charset=utf-8");
-        msg.setSentDate(new Date());
-
-        Transport.send(msg);
+                        when +
+                        "<br>Event Notes: " + (eventNotes == null ? "" : eventNotes)));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,303 @@
+package int221.oasip.backendus3.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import int221.oasip.backendus3.dtos.EventDeltaResponse;
+import int221.oasip.backendus3.dtos.EventResponse;
+import int221.oasip.backendus3.utils.VirtualThreads;
+import lombok.RequiredArgsConstructor;
+import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes the changes to the events of a category to its subscribers with Server-Sent Events, once they are committed.
+ * <p>
+ * Each category keeps its last {@value #REPLAY_SIZE} deltas, so a client that reconnects with {@code Last-Event-ID}
+ * receives what it missed. If the id is older than that, or was assigned by another instance, the client receives a
+ * {@value #RESET} event instead and should fetch the events again.
+ * <p>
+ * Every subscriber has a buffer of {@value #BUFFER_SIZE} messages, drained by a small pool of sender threads. A
+ * subscriber whose buffer is full is disconnected, so a slow client neither holds up the others nor exhausts memory;
+ * it catches up from the replay when it reconnects. Only changes made through this instance are pushed.
+ */
+@Service
+@RequiredArgsConstructor
+public class EventStreamService {
+    public static final String RESET = "reset";
+    static final int REPLAY_SIZE = 256;
+    static final int BUFFER_SIZE = 128;
+    private static final int SENDER_THREADS = 4;
+    private static final long HEARTBEAT_SECONDS = 15;
+    private static final long TIMEOUT_MILLIS = 30 * 60 * 1000L;
+
+    private final ModelMapper modelMapper;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * part of every event id, since sequence numbers only mean something on the instance that assigned them
+     */
+    private final String instanceId = UUID.randomUUID().toString().substring(0, 8);
+    private final Map<Integer, CategoryStream> categories = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(daemonThreads("event-stream-heartbeat"));
+    private ExecutorService senders;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @PostConstruct
+    void start() {
+        // a blocked send only parks its virtual thread, so every subscriber can have its own
+        senders = virtualThreads
+                ? VirtualThreads.newThreadPerTaskExecutor("event-stream-sender")
+                : Executors.newFixedThreadPool(SENDER_THREADS, daemonThreads("event-stream-sender"));
+        heartbeats.scheduleAtFixedRate(this::sendHeartbeats, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        heartbeats.shutdownNow();
+        senders.shutdownNow();
+        for (CategoryStream stream : categories.values()) {
+            stream.subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        }
+    }
+
+    /**
+     * Subscribe to the changes of the category
+     *
+     * @param lastEventId id of the last event the client received before it reconnected, or null
+     */
+    public SseEmitter subscribe(Integer categoryId, @Nullable String lastEventId) {
+        CategoryStream stream = categories.computeIfAbsent(categoryId, id -> new CategoryStream());
+        Subscriber subscriber = new Subscriber(new SseEmitter(TIMEOUT_MILLIS));
+        subscriber.emitter.onCompletion(() -> stream.subscribers.remove(subscriber));
+        subscriber.emitter.onTimeout(() -> stream.subscribers.remove(subscriber));
+        subscriber.emitter.onError(e -> stream.subscribers.remove(subscriber));
+
+        // replay and subscribe under the stream lock, so no delta is missed or sent twice in between
+        synchronized (stream) {
+            if (lastEventId != null) {
+                List<Message> missed = stream.since(lastEventId, instanceId);
+                if (missed == null) {
+                    enqueue(stream, subscriber, Message.event(stream.headId(instanceId), RESET, "{}"));
+                } else {
+                    missed.forEach(message -> enqueue(stream, subscriber, message));
+                }
+            }
+            stream.subscribers.add(subscriber);
+        }
+        return subscriber.emitter;
+    }
+
+    /**
+     * Build the delta in the transaction of the change, where the event can still load what it needs,
+     * and push it once the transaction commits
+     */
+    @EventListener
+    public void onEventChanged(EventChangedEvent change) {
+        CategoryStream stream = categories.get(change.getCategoryId());
+        if (stream == null) {
+            // nobody ever subscribed to the category on this instance
+            return;
+        }
+
+        String name;
+        String data;
+        if (change.isSeries() || change.getEvent() == null) {
+            // the occurrences of a series are not events, subscribers fetch them again
+            name = RESET;
+            data = "{}";
+        } else {
+            name = change.getType().name().toLowerCase();
+            EventResponse event = EventChangedEvent.Type.DELETED.equals(change.getType()) ? null : modelMapper.map(change.getEvent(), EventResponse.class);
+            try {
+                data = objectMapper.writeValueAsString(new EventDeltaResponse(name, change.getEvent().getId(), event));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Failed to serialize the change of event " + change.getEvent().getId(), e);
+            }
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(stream, name, data);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publish(stream, name, data);
+            }
+        });
+    }
+
+    private void publish(CategoryStream stream, String name, String data) {
+        synchronized (stream) {
+            Message message = stream.append(instanceId, name, data);
+            stream.subscribers.forEach(subscriber -> enqueue(stream, subscriber, message));
+        }
+    }
+
+    private void sendHeartbeats() {
+        for (CategoryStream stream : categories.values()) {
+            stream.subscribers.forEach(subscriber -> enqueue(stream, subscriber, Message.HEARTBEAT));
+        }
+    }
+
+    void enqueue(CategoryStream stream, Subscriber subscriber, Message message) {
+        if (!subscriber.buffer.offer(message)) {
+            // too slow to keep up, it catches up from the replay when it reconnects
+            stream.subscribers.remove(subscriber);
+            subscriber.emitter.complete();
+            return;
+        }
+        if (subscriber.draining.compareAndSet(false, true)) {
+            senders.execute(() -> drain(stream, subscriber));
+        }
+    }
+
+    /**
+     * Send the buffered messages of one subscriber. At most one thread drains a subscriber at a time,
+     * so its messages are sent in order.
+     */
+    private void drain(CategoryStream stream, Subscriber subscriber) {
+        do {
+            Message message;
+            while ((message = subscriber.buffer.poll()) != null) {
+                try {
+                    subscriber.emitter.send(message.toEvent());
+                } catch (IOException | IllegalStateException e) {
+                    // disconnected; draining stays set, so nothing is sent to it again
+                    stream.subscribers.remove(subscriber);
+                    subscriber.buffer.clear();
+                    subscriber.emitter.completeWithError(e);
+                    return;
+                }
+            }
+            subscriber.draining.set(false);
+            // a message may have been buffered after the buffer was found empty but before the flag was cleared
+        } while (!subscriber.buffer.isEmpty() && subscriber.draining.compareAndSet(false, true));
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    static class CategoryStream {
+        final Set<Subscriber> subscribers = new CopyOnWriteArraySet<>();
+        /**
+         * guarded by the instance lock, like {@code sequence}
+         */
+        private final Deque<Message> replay = new ArrayDeque<>();
+        private long sequence;
+
+        String headId(String instanceId) {
+            return instanceId + "-" + sequence;
+        }
+
+        /**
+         * Assign the next sequence number to a delta and keep it for replay. Must hold the instance lock.
+         */
+        Message append(String instanceId, String name, String data) {
+            sequence++;
+            Message message = Message.event(headId(instanceId), name, data);
+            replay.addLast(message);
+            if (replay.size() > REPLAY_SIZE) {
+                replay.removeFirst();
+            }
+            return message;
+        }
+
+        /**
+         * @return messages after {@code lastEventId}, or null if some of them are no longer in the replay
+         */
+        @Nullable
+        List<Message> since(String lastEventId, String instanceId) {
+            int separator = lastEventId.lastIndexOf('-');
+            if (separator < 0 || !lastEventId.substring(0, separator).equals(instanceId)) {
+                return null;
+            }
+
+            long lastSequence;
+            try {
+                lastSequence = Long.parseLong(lastEventId.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (lastSequence > sequence || lastSequence < sequence - replay.size()) {
+                return null;
+            }
+
+            List<Message> missed = new ArrayList<>();
+            Iterator<Message> newestFirst = replay.descendingIterator();
+            for (long s = sequence; s > lastSequence; s--) {
+                missed.add(newestFirst.next());
+            }
+            Collections.reverse(missed);
+            return missed;
+        }
+    }
+
+    static class Subscriber {
+        private final SseEmitter emitter;
+        private final BlockingQueue<Message> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+    }
+
+    /**
+     * Immutable, so one message can be buffered for many subscribers. The builder is created per send,
+     * since a builder can only be sent once.
+     */
+    static class Message {
+        private static final Message HEARTBEAT = new Message(null, null, null);
+
+        @Nullable
+        private final String id;
+        @Nullable
+        private final String name;
+        @Nullable
+        private final String data;
+
+        private Message(@Nullable String id, @Nullable String name, @Nullable String data) {
+            this.id = id;
+            this.name = name;
+            this.data = data;
+        }
+
+        static Message event(String id, String name, String data) {
+            return new Message(id, name, data);
+        }
+
+        @Nullable
+        String getId() {
+            return id;
+        }
+
+        private SseEmitter.SseEventBuilder toEvent() {
+            if (data == null) {
+                return SseEmitter.event().comment("heartbeat");
+            }
+            return SseEmitter.event().id(id).name(name).data(data, MediaType.APPLICATION_JSON);
+        }
+    }
+}
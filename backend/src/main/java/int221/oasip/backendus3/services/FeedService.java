@@ -0,0 +1,240 @@
+package int221.oasip.backendus3.services;
+
+import com.nimbusds.jose.jwk.source.ImmutableSecret;
+import int221.oasip.backendus3.dtos.FeedLinkResponse;
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.entities.EventCategoryOwner;
+import int221.oasip.backendus3.entities.EventSeries;
+import int221.oasip.backendus3.entities.EventSeriesException;
+import int221.oasip.backendus3.entities.Role;
+import int221.oasip.backendus3.entities.User;
+import int221.oasip.backendus3.exceptions.EntityNotFoundException;
+import int221.oasip.backendus3.exceptions.ForbiddenException;
+import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.EventSeriesRepository;
+import int221.oasip.backendus3.repository.UserRepository;
+import int221.oasip.backendus3.utils.ICalendarWriter;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.security.oauth2.core.DelegatingOAuth2TokenValidator;
+import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
+import org.springframework.security.oauth2.jwt.*;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * iCalendar subscription feeds of the bookings of a user, or of a category owned by a lecturer.
+ * <p>
+ * Calendar apps cannot log in, so a feed is addressed by a signed token that names its scope. Feed tokens are signed
+ * with their own key, so a feed token is never accepted as an access token or the other way round, and they expire
+ * after {@code feed.token-ttl-days}. The ETag of a feed is derived from the version counters of its scope, so an
+ * unchanged poll is answered without reading any event.
+ */
+@Service
+@RequiredArgsConstructor
+public class FeedService {
+    public static final String FEED_PATH = "/api/feeds/calendar.ics";
+    private static final String FEED_CLAIM = "feed";
+    private static final String CATEGORY_ID_CLAIM = "categoryId";
+    private static final String USER_FEED = "user";
+    private static final String CATEGORY_FEED = "category";
+    private static final String DERIVED_KEY_LABEL = "oasip-feed-token";
+
+    private final UserRepository userRepository;
+    private final EventRepository eventRepository;
+    private final EventSeriesRepository seriesRepository;
+    private final ScopeVersionService versionService;
+    private final EntityManager entityManager;
+
+    @Value("${jwt.secret}")
+    private String jwtSecret;
+
+    @Value("${feed.token-secret:}")
+    private String tokenSecret;
+
+    @Value("${feed.token-ttl-days:180}")
+    private long tokenTtlDays;
+
+    private JwtEncoder encoder;
+    private JwtDecoder decoder;
+
+    @PostConstruct
+    void createKey() throws GeneralSecurityException {
+        SecretKey key;
+        if (!tokenSecret.isEmpty()) {
+            key = new SecretKeySpec(tokenSecret.getBytes(StandardCharsets.UTF_8), TokenService.HMAC_SHA_256);
+        } else {
+            // derived from the access token secret, so a feed token does not verify as an access token
+            Mac mac = Mac.getInstance(TokenService.HMAC_SHA_256);
+            mac.init(new SecretKeySpec(jwtSecret.getBytes(), TokenService.HMAC_SHA_256));
+            key = new SecretKeySpec(mac.doFinal(DERIVED_KEY_LABEL.getBytes(StandardCharsets.UTF_8)), TokenService.HMAC_SHA_256);
+        }
+
+        encoder = new NimbusJwtEncoder(new ImmutableSecret<>(key));
+        NimbusJwtDecoder nimbusDecoder = NimbusJwtDecoder.withSecretKey(key).build();
+        // tokens without an expiry were issued before feed tokens expired, and are not accepted any more
+        nimbusDecoder.setJwtValidator(new DelegatingOAuth2TokenValidator<>(
+                new JwtTimestampValidator(),
+                new JwtClaimValidator<Instant>(JwtClaimNames.EXP, Objects::nonNull)));
+        decoder = nimbusDecoder;
+    }
+
+    /**
+     * Links to the feeds the user can subscribe to: their own bookings, and each category they own if they are a lecturer.
+     * The links stop working after {@code feed.token-ttl-days}, and new links are handed out on every call.
+     *
+     * @throws EntityNotFoundException if the user does not exist
+     */
+    @Transactional(readOnly = true)
+    public List<FeedLinkResponse> getLinks(String email) {
+        User user = userRepository.findByEmail(email)
+                .orElseThrow(() -> new EntityNotFoundException("User with email " + email + " not found"));
+
+        List<FeedLinkResponse> links = new ArrayList<>();
+        links.add(new FeedLinkResponse("My bookings", FEED_PATH + "?token=" + createToken(email, null)));
+        if (Role.LECTURER.equals(user.getRole())) {
+            for (EventCategoryOwner own : user.getOwnCategories()) {
+                EventCategory category = own.getEventCategory();
+                links.add(new FeedLinkResponse(category.getEventCategoryName(), FEED_PATH + "?token=" + createToken(email, category.getId())));
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Find the feed of a token, with the ETag of its current content
+     *
+     * @throws ForbiddenException if the token is not a valid feed token, its user no longer exists, or the user no
+     *                            longer owns the category of the feed
+     */
+    @Transactional(readOnly = true)
+    public Feed resolve(String token) {
+        Jwt jwt;
+        try {
+            jwt = decoder.decode(token);
+        } catch (JwtException e) {
+            throw new ForbiddenException("Invalid feed token");
+        }
+
+        String scope = jwt.getClaimAsString(FEED_CLAIM);
+        String email = jwt.getSubject();
+        User user = userRepository.findByEmail(email)
+                .orElseThrow(() -> new ForbiddenException("User with email " + email + " not found"));
+
+        if (USER_FEED.equals(scope)) {
+            // the events are selected by user id, which is also the key of the version; category names are part of the feed.
+            // The feed is weakly validated, since its DTSTAMPs are the time it was generated.
+            String etag = "W/\"user-" + versionService.getVersion(ScopeVersionService.ScopeType.USER, user.getId()) + "-" + versionService.getCategoriesVersion() + "\"";
+            return new Feed("OASIP bookings", user.getId(), null, etag);
+        }
+        if (CATEGORY_FEED.equals(scope)) {
+            Integer categoryId = Integer.valueOf(jwt.getClaimAsString(CATEGORY_ID_CLAIM));
+            EventCategory category = user.getOwnCategories().stream()
+                    .map(EventCategoryOwner::getEventCategory)
+                    .filter(it -> it.getId().equals(categoryId))
+                    .findFirst()
+                    .orElseThrow(() -> new ForbiddenException("User with email " + email + " does not own category with id " + categoryId));
+            String etag = "W/\"category-" + versionService.getVersion(ScopeVersionService.ScopeType.CATEGORY, categoryId) + "\"";
+            return new Feed("OASIP " + category.getEventCategoryName(), null, categoryId, etag);
+        }
+        throw new ForbiddenException("Invalid feed token");
+    }
+
+    /**
+     * Write the feed as iCalendar. Events are streamed from a database cursor straight to {@code writer} and detached
+     * as soon as they are written, so memory does not grow with the number of events. Recurring series are written
+     * as one VEVENT with a recurrence rule each.
+     */
+    @Transactional(readOnly = true)
+    public void write(Feed feed, Writer writer) throws IOException {
+        ICalendarWriter calendar = new ICalendarWriter(writer);
+        calendar.begin(feed.getName());
+        Instant generatedAt = Instant.now();
+
+        try (Stream<Event> events = feed.getCategoryId() != null
+                ? eventRepository.streamByCategoryId(feed.getCategoryId())
+                : eventRepository.streamByUserId(feed.getUserId())) {
+            Iterator<Event> iterator = events.iterator();
+            while (iterator.hasNext()) {
+                Event event = iterator.next();
+                Instant start = event.getEventStartTime();
+                calendar.event("event-" + event.getId() + "@oasip", generatedAt, start,
+                        start.plus(event.getEventDuration(), ChronoUnit.MINUTES),
+                        summary(event.getEventCategory(), event.getBookingName()), event.getEventNotes(), null, List.of());
+                entityManager.detach(event);
+            }
+        }
+
+        // the cursor must be closed before the next query on the same connection
+        List<Integer> categoryIds = feed.getCategoryId() != null ? List.of(feed.getCategoryId()) : null;
+        for (EventSeries series : seriesRepository.findStartingFrom(Instant.EPOCH, categoryIds, feed.getUserId())) {
+            Instant start = series.getFirstStartTime();
+            // UNTIL is inclusive, the until time of a series is not
+            String rrule = "FREQ=WEEKLY;INTERVAL=" + series.getIntervalWeeks() + ";UNTIL=" + ICalendarWriter.formatUtc(series.getUntilTime().minusSeconds(1));
+            List<Instant> exdates = series.getExceptions().stream()
+                    .map(EventSeriesException::getOccurrenceStartTime)
+                    .sorted()
+                    .collect(Collectors.toList());
+            calendar.event("series-" + series.getId() + "@oasip", generatedAt, start,
+                    start.plus(series.getEventDuration(), ChronoUnit.MINUTES),
+                    summary(series.getEventCategory(), series.getBookingName()), series.getEventNotes(), rrule, exdates);
+        }
+
+        calendar.end();
+    }
+
+    private static String summary(EventCategory category, String bookingName) {
+        return category.getEventCategoryName() + " (" + bookingName + ")";
+    }
+
+    private String createToken(String email, @Nullable Integer categoryId) {
+        Instant now = Instant.now();
+        JwtClaimsSet.Builder claims = JwtClaimsSet.builder()
+                .subject(email)
+                .issuedAt(now)
+                .expiresAt(now.plus(tokenTtlDays, ChronoUnit.DAYS))
+                .claim(FEED_CLAIM, categoryId != null ? CATEGORY_FEED : USER_FEED);
+        if (categoryId != null) {
+            claims.claim(CATEGORY_ID_CLAIM, categoryId);
+        }
+
+        JwsHeader headers = JwsHeader.with(MacAlgorithm.HS256).build();
+        return encoder.encode(JwtEncoderParameters.from(headers, claims.build())).getTokenValue();
+    }
+
+    /**
+     * Either {@code userId} or {@code categoryId} is set
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Feed {
+        private final String name;
+        @Nullable
+        private final Integer userId;
+        @Nullable
+        private final Integer categoryId;
+        private final String etag;
+    }
+}
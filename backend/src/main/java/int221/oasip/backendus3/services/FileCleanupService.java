@@ -0,0 +1,183 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.FileCleanupRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Deletes upload directories in the background, so requests never wait for the file system to delete files.
+ * <p>
+ * The cleaner deletes the directories queued in the {@code fileCleanup} table, unless an event uses them again, and
+ * retries failed deletes later. The reconciler checks a batch of the directories in {@code upload.path} per run and
+ * queues those that no event uses, e.g. files of a booking that was rolled back after the upload. Directories modified
+ * within {@code file-cleanup.orphan-grace-minutes} are left alone, since their booking may not have committed yet.
+ */
+@Service
+@RequiredArgsConstructor
+public class FileCleanupService {
+    private static final int CLEANUP_BATCH_SIZE = 50;
+    private static final int RECONCILE_BATCH_SIZE = 500;
+    private static final long RETRY_MINUTES = 10;
+    /**
+     * directories are named by {@link UUID#randomUUID()}, anything else in the upload path is not ours to delete
+     */
+    private static final Pattern BUCKET_NAME = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    private final FileCleanupRepository cleanupRepository;
+    private final EventRepository eventRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final RenditionService renditionService;
+    private final CachePurgeService cachePurgeService;
+
+    @Value("${upload.path}")
+    private String uploadPath;
+
+    @Value("${file-cleanup.orphan-grace-minutes:60}")
+    private long orphanGraceMinutes;
+
+    /**
+     * the reconciler continues after this name, and starts over from the first name after the last batch
+     */
+    private String reconcileCursor = "";
+
+    public static boolean isBucketName(String name) {
+        return BUCKET_NAME.matcher(name).matches();
+    }
+
+    /**
+     * Queue the upload directory for deletion in the current transaction, so it is only deleted if the
+     * transaction commits
+     */
+    public void deleteLater(@Nullable String bucketUuid) {
+        if (bucketUuid != null) {
+            cleanupRepository.enqueue(bucketUuid, Instant.now());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${file-cleanup.interval-millis:60000}", initialDelayString = "${file-cleanup.interval-millis:60000}")
+    public void cleanUp() {
+        Integer locked;
+        // one transaction per batch, so the queue rows are locked briefly
+        do {
+            locked = transactionTemplate.execute(status -> cleanUpBatch());
+        } while (locked != null && locked == CLEANUP_BATCH_SIZE);
+    }
+
+    private int cleanUpBatch() {
+        Instant now = Instant.now();
+        List<String> due = cleanupRepository.lockDue(now, CLEANUP_BATCH_SIZE);
+        if (due.isEmpty()) {
+            return 0;
+        }
+
+        Set<String> used = new HashSet<>(eventRepository.findUsedBucketUuids(due));
+        List<String> done = new ArrayList<>();
+        for (String bucketUuid : due) {
+            if (used.contains(bucketUuid)) {
+                done.add(bucketUuid);
+            } else if (deleteDirectory(bucketUuid)) {
+                done.add(bucketUuid);
+                // the proxy may still have the file cached
+                cachePurgeService.purgeLater(CachePurgeService.fileTag(bucketUuid));
+            } else {
+                cleanupRepository.reschedule(bucketUuid, now.plus(RETRY_MINUTES, ChronoUnit.MINUTES));
+            }
+        }
+        cleanupRepository.deleteAllByIdInBatch(done);
+        return due.size();
+    }
+
+    @Scheduled(fixedDelayString = "${file-cleanup.reconcile-interval-millis:600000}", initialDelayString = "${file-cleanup.reconcile-interval-millis:600000}")
+    public void reconcile() {
+        Path root = Paths.get(uploadPath);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+
+        // keep only the smallest names after the cursor, memory stays bounded however many directories there are
+        PriorityQueue<String> largestFirst = new PriorityQueue<>(Comparator.reverseOrder());
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(root)) {
+            for (Path directory : directories) {
+                String name = directory.getFileName().toString();
+                if (name.compareTo(reconcileCursor) > 0 && isBucketName(name)) {
+                    largestFirst.add(name);
+                    if (largestFirst.size() > RECONCILE_BATCH_SIZE) {
+                        largestFirst.poll();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot list " + root.toAbsolutePath() + ": " + e.getMessage());
+            return;
+        }
+
+        List<String> names = largestFirst.stream().sorted().collect(Collectors.toList());
+        reconcileCursor = names.size() < RECONCILE_BATCH_SIZE ? "" : names.get(names.size() - 1);
+        if (names.isEmpty()) {
+            return;
+        }
+
+        Set<String> used = new HashSet<>(eventRepository.findUsedBucketUuids(names));
+        Instant graceStart = Instant.now().minus(orphanGraceMinutes, ChronoUnit.MINUTES);
+        List<String> orphans = names.stream()
+                .filter(name -> !used.contains(name) && isModifiedBefore(root.resolve(name), graceStart))
+                .collect(Collectors.toList());
+        if (!orphans.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> orphans.forEach(this::deleteLater));
+        }
+    }
+
+    /**
+     * Delete the upload directory and its renditions
+     *
+     * @return whether both are gone
+     */
+    private boolean deleteDirectory(String bucketUuid) {
+        if (!isBucketName(bucketUuid)) {
+            System.err.println("Not deleting " + bucketUuid + ", it is not an upload directory");
+            return true;
+        }
+        return deleteRecursively(renditionService.getDirectory(bucketUuid)) && deleteRecursively(Paths.get(uploadPath, bucketUuid));
+    }
+
+    private static boolean deleteRecursively(Path directory) {
+        // deepest paths first, so every directory is empty when it is deleted
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+            return true;
+        } catch (NoSuchFileException e) {
+            return true;
+        } catch (IOException e) {
+            System.err.println("Cannot delete " + directory.toAbsolutePath() + ", retrying later: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean isModifiedBefore(Path path, Instant instant) {
+        try {
+            return Files.getLastModifiedTime(path).toInstant().isBefore(instant);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
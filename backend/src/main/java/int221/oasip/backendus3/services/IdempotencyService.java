@@ -0,0 +1,147 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.exceptions.IdempotencyKeyInProgressException;
+import int221.oasip.backendus3.exceptions.IdempotencyKeyReusedException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs a request once per {@code Idempotency-Key}, so a client that is unsure whether its request went through can
+ * send it again. A duplicate of a request that is still running waits for it and gets its result, a duplicate of one
+ * that completed gets the stored result without running anything. Requests that fail are forgotten, so their retry
+ * runs again.
+ * <p>
+ * Results are kept in memory for {@code idempotency.ttl-seconds} after they complete, and only the latest
+ * {@code idempotency.max-keys} keys are kept. Keys are only known to the instance that ran the request.
+ */
+@Service
+public class IdempotencyService {
+    /**
+     * by key, oldest first, guarded by itself
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    @Value("${idempotency.ttl-seconds:86400}")
+    private long ttlSeconds;
+
+    @Value("${idempotency.max-keys:10000}")
+    private int maxKeys;
+
+    @Value("${idempotency.wait-seconds:30}")
+    private long waitSeconds;
+
+    /**
+     * @param key         the key, prefixed with whatever keeps the keys of different clients apart
+     * @param fingerprint what makes the request what it is, a key reused with a different request is rejected
+     * @param action      runs the request, any exception it throws is passed to the duplicates waiting for it
+     * @throws IdempotencyKeyReusedException     if the key was used with a different fingerprint
+     * @throws IdempotencyKeyInProgressException if the request with the key is still running after the wait
+     */
+    public <T> Outcome<T> execute(String key, String fingerprint, Supplier<T> action) {
+        String digest = DigestUtils.md5DigestAsHex(fingerprint.getBytes(StandardCharsets.UTF_8));
+        Entry entry;
+        boolean duplicate;
+        synchronized (entries) {
+            evictExpired(System.nanoTime());
+            entry = entries.get(key);
+            duplicate = entry != null;
+            if (!duplicate) {
+                entry = new Entry(digest);
+                entries.put(key, entry);
+                Iterator<Entry> eldest = entries.values().iterator();
+                while (entries.size() > maxKeys) {
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+
+        if (duplicate) {
+            if (!entry.digest.equals(digest)) {
+                throw new IdempotencyKeyReusedException();
+            }
+            return new Outcome<>(await(entry), true);
+        }
+
+        T value;
+        try {
+            value = action.get();
+        } catch (RuntimeException | Error e) {
+            synchronized (entries) {
+                entries.remove(key, entry);
+            }
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+        entry.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttlSeconds);
+        entry.result.complete(value);
+        return new Outcome<>(value, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T await(Entry entry) {
+        try {
+            return (T) entry.result.get(waitSeconds, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw (Error) e.getCause();
+        } catch (TimeoutException e) {
+            throw new IdempotencyKeyInProgressException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyKeyInProgressException();
+        }
+    }
+
+    /**
+     * Drop the results that expired, from the oldest key to the first one that has not
+     */
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (!entry.result.isDone() || now - entry.expiresAt < 0) {
+                return;
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @param <T> result of the request
+     */
+    @lombok.Value
+    public static class Outcome<T> {
+        T value;
+        /**
+         * whether the value is the result of an earlier request with the same key
+         */
+        boolean replayed;
+    }
+
+    private static class Entry {
+        private final String digest;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+        /**
+         * {@link System#nanoTime()}, set before the result completes
+         */
+        private volatile long expiresAt;
+
+        Entry(String digest) {
+            this.digest = digest;
+        }
+    }
+}
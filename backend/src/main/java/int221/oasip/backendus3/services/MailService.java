@@ -0,0 +1,78 @@
+package int221.oasip.backendus3.services;
+
+import org.springframework.stereotype.Service;
+
+import javax.mail.*;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Builds and sends the mails of OASIP through the SMTP server of its no-reply account
+ */
+@Service
+public class MailService {
+    private static final String FROM = "oasip.us3.noreply@gmail.com";
+
+    private final Session session;
+
+    public MailService() {
+        Properties props = new Properties();
+        props.put("mail.smtp.auth", "true");
+        props.put("mail.smtp.starttls.enable", "true");
+        props.put("mail.smtp.host", "smtp.gmail.com");
+        props.put("mail.smtp.port", "587");
+
+        session = Session.getInstance(props, new javax.mail.Authenticator() {
+            protected javax.mail.PasswordAuthentication getPasswordAuthentication() {
+                return new PasswordAuthentication(FROM, "hyyvvoygfnytkmgt");
+            }
+        });
+    }
+
+    /**
+     * @param html content of the mail
+     */
+    public MimeMessage newMessage(String to, String subject, String html) throws MessagingException {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setFrom(new InternetAddress(FROM, false));
+        msg.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
+        msg.setSubject(subject);
+        msg.setContent(html, "text/html; charset=utf-8");
+        msg.setSentDate(new Date());
+        return msg;
+    }
+
+    public void send(MimeMessage msg) throws MessagingException {
+        Transport.send(msg);
+    }
+
+    /**
+     * Send the messages through one connection to the SMTP server. A message that is rejected is logged and skipped.
+     *
+     * @return number of messages sent
+     * @throws MessagingException if the server cannot be reached
+     */
+    public int sendAll(List<MimeMessage> messages) throws MessagingException {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+
+        int sent = 0;
+        try (Transport transport = session.getTransport("smtp")) {
+            transport.connect();
+            for (MimeMessage msg : messages) {
+                try {
+                    msg.saveChanges();
+                    transport.sendMessage(msg, msg.getAllRecipients());
+                    sent++;
+                } catch (SendFailedException e) {
+                    System.err.println("Cannot send mail to " + InternetAddress.toString(msg.getAllRecipients()) + ": " + e.getMessage());
+                }
+            }
+        }
+        return sent;
+    }
+}
@@ -0,0 +1,392 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventCategoryOwner;
+import int221.oasip.backendus3.repository.EventCategoryOwnerRepository;
+import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.MailClaimRepository;
+import int221.oasip.backendus3.utils.TimingWheel;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.util.HtmlUtils;
+
+import javax.annotation.PostConstruct;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Mails bookers a reminder {@code reminder.lead-minutes} before their event starts, and lecturers a digest of the
+ * next day's bookings of their categories at {@code reminder.digest-time}.
+ * <p>
+ * Nothing polls the event table for them. The reminders are timers in a {@link TimingWheel}, loaded with the events of
+ * the next {@code reminder.horizon-hours} once an hour and kept up to date with the creates, updates and deletes of
+ * {@link EventService} as they commit. Every minute the wheel advances, and the reminders that expired are sent as one
+ * batch, a mail per booker, through one connection to the SMTP server. The digest is a timer in the same wheel, built
+ * from the reminders that are still pending when it expires, which are those of the next day and later.
+ * <p>
+ * Every instance has a wheel of its own, so a reminder or digest is claimed in the {@code mailClaim} table before it
+ * is sent. A reminder is only claimed if its event still starts when the wheel thinks it does, since a change made
+ * through another instance only reaches this one with the next load. A mail that fails to send is not retried.
+ * Recurring series have no reminders, their occurrences are not events.
+ */
+@Service
+@RequiredArgsConstructor
+public class ReminderService {
+    private static final ZoneId ZONE = ZoneId.of("Asia/Bangkok");
+    private static final long TICK_MILLIS = 60 * 1000L;
+    /**
+     * 64 minutes at level 0, 68 hours at level 1 and 182 days at level 2
+     */
+    private static final int WHEEL_SLOTS = 64;
+    private static final int WHEEL_LEVELS = 3;
+    private static final long RELOAD_MINUTES = 60;
+    private static final long CLAIM_RETENTION_DAYS = 7;
+
+    private final EventRepository eventRepository;
+    private final EventCategoryOwnerRepository ownerRepository;
+    private final MailClaimRepository claimRepository;
+    private final MailService mailService;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Map<Integer, TimingWheel.Timer<Due>> reminders = new HashMap<>();
+    private TimingWheel<Due> wheel;
+    /**
+     * events that start before this are in the wheel, unless their reminder is due or was sent
+     */
+    private Instant loadedUntil = Instant.MIN;
+    /**
+     * ids of the events changed while a load runs, whose changes win over what the load read
+     */
+    @Nullable
+    private Set<Integer> changedDuringLoad;
+    private Instant nextLoad = Instant.MIN;
+    private LocalTime digestTime;
+    /**
+     * time of the wheel, fixed by tests
+     */
+    private Clock clock = Clock.systemUTC();
+
+    @Value("${reminder.enabled:true}")
+    private boolean enabled;
+
+    @Value("${reminder.lead-minutes:60}")
+    private long leadMinutes;
+
+    @Value("${reminder.horizon-hours:32}")
+    private long horizonHours;
+
+    @Value("${reminder.digest-time:18:00}")
+    private String digestTimeText;
+
+    @Value("${mail.disable}")
+    private boolean mailDisable;
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+
+        digestTime = LocalTime.parse(digestTimeText);
+        long minutesToMidnight = Duration.between(digestTime, LocalTime.MAX).toMinutes() + 1;
+        if (leadMinutes <= 0 || leadMinutes > minutesToMidnight) {
+            throw new IllegalStateException("reminder.lead-minutes must be positive and at most the time from reminder.digest-time to midnight, " +
+                    "the digest is built from the reminders of the next day that are pending");
+        }
+        if (horizonHours * 60 < minutesToMidnight + 24 * 60 + RELOAD_MINUTES) {
+            throw new IllegalStateException("reminder.horizon-hours must reach the end of the day after reminder.digest-time, " +
+                    "plus the time between two loads");
+        }
+
+        Instant now = clock.instant();
+        wheel = new TimingWheel<>(TICK_MILLIS, WHEEL_SLOTS, WHEEL_LEVELS, now);
+        if (now.plus(horizonHours, ChronoUnit.HOURS).isAfter(wheel.getHorizon())) {
+            throw new IllegalStateException("reminder.horizon-hours must be before " + wheel.getHorizon());
+        }
+        scheduleDigest(now);
+    }
+
+    /**
+     * Follow the change once it commits. The reminder is taken from the event here, where it can still load its category.
+     */
+    @EventListener
+    public void onEventChanged(EventChangedEvent change) {
+        if (!enabled || change.isSeries() || change.getEvent() == null) {
+            return;
+        }
+
+        Integer eventId = change.getEvent().getId();
+        Reminder reminder = EventChangedEvent.Type.DELETED.equals(change.getType()) ? null : Reminder.of(change.getEvent());
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(eventId, reminder);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                apply(eventId, reminder);
+            }
+        });
+    }
+
+    @Scheduled(fixedRate = TICK_MILLIS)
+    public void tick() {
+        if (!enabled) {
+            return;
+        }
+
+        Instant now = clock.instant();
+        if (!now.isBefore(nextLoad)) {
+            try {
+                load(now);
+                transactionTemplate.execute(status -> claimRepository.deleteClaimedBefore(now.minus(CLAIM_RETENTION_DAYS, ChronoUnit.DAYS)));
+                nextLoad = now.plus(RELOAD_MINUTES, ChronoUnit.MINUTES);
+            } catch (RuntimeException e) {
+                // the wheel keeps what it has, the load is tried again on the next tick
+                System.err.println("Cannot load the events to remind of: " + e.getMessage());
+            }
+        }
+
+        List<Reminder> due = new ArrayList<>();
+        Map<LocalDate, List<Reminder>> digests = new TreeMap<>();
+        synchronized (this) {
+            for (Due expired : wheel.advanceTo(now)) {
+                if (expired instanceof Reminder) {
+                    Reminder reminder = (Reminder) expired;
+                    reminders.remove(reminder.getEventId());
+                    due.add(reminder);
+                } else {
+                    digests.put(((Digest) expired).getDay(), remindersOf(((Digest) expired).getDay()));
+                    scheduleDigest(now);
+                }
+            }
+        }
+
+        try {
+            sendReminders(due, now);
+            for (Map.Entry<LocalDate, List<Reminder>> digest : digests.entrySet()) {
+                sendDigest(digest.getKey(), digest.getValue(), now);
+            }
+        } catch (MessagingException | RuntimeException e) {
+            System.err.println("Cannot send reminders: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load the events from {@code now} plus the lead to the horizon, and drop the reminders of events that are no
+     * longer there. Events that start within the lead have had their reminder, or were booked too late for one.
+     */
+    private void load(Instant now) {
+        Instant from = now.plus(leadMinutes, ChronoUnit.MINUTES);
+        Instant to = now.plus(horizonHours, ChronoUnit.HOURS);
+        synchronized (this) {
+            // changes that commit from now on are applied up to the new end, even before the load has read them
+            changedDuringLoad = new HashSet<>();
+            loadedUntil = to;
+        }
+
+        List<Reminder> loaded;
+        try {
+            loaded = transactionTemplate.execute(status -> eventRepository.findByDateRange(from, to, null, null)
+                    .stream().map(Reminder::of).collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                changedDuringLoad = null;
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            Set<Integer> changed = changedDuringLoad;
+            changedDuringLoad = null;
+            Set<Integer> loadedIds = new HashSet<>();
+            for (Reminder reminder : Objects.requireNonNull(loaded)) {
+                loadedIds.add(reminder.getEventId());
+                if (!changed.contains(reminder.getEventId())) {
+                    schedule(reminder, now);
+                }
+            }
+            // deleted or moved away through another instance
+            reminders.entrySet().removeIf(entry -> {
+                Reminder reminder = (Reminder) entry.getValue().getValue();
+                if (loadedIds.contains(entry.getKey()) || changed.contains(entry.getKey()) || reminder.getStartTime().isBefore(from)) {
+                    return false;
+                }
+                entry.getValue().cancel();
+                return true;
+            });
+        }
+    }
+
+    private synchronized void apply(Integer eventId, @Nullable Reminder reminder) {
+        if (changedDuringLoad != null) {
+            changedDuringLoad.add(eventId);
+        }
+        if (reminder == null) {
+            cancel(eventId);
+        } else {
+            schedule(reminder, clock.instant());
+        }
+    }
+
+    private void schedule(Reminder reminder, Instant now) {
+        TimingWheel.Timer<Due> scheduled = reminders.get(reminder.getEventId());
+        if (scheduled != null && scheduled.getValue().equals(reminder)) {
+            return;
+        }
+        cancel(reminder.getEventId());
+
+        Instant deadline = reminder.getStartTime().minus(leadMinutes, ChronoUnit.MINUTES);
+        // beyond the horizon it is loaded later, within the lead it was booked right after its confirmation mail
+        if (!reminder.getStartTime().isBefore(loadedUntil) || !deadline.isAfter(now)) {
+            return;
+        }
+        reminders.put(reminder.getEventId(), wheel.schedule(deadline, reminder));
+    }
+
+    private void cancel(Integer eventId) {
+        TimingWheel.Timer<Due> scheduled = reminders.remove(eventId);
+        if (scheduled != null) {
+            scheduled.cancel();
+        }
+    }
+
+    /**
+     * The digest of a day expires at {@code reminder.digest-time} the day before
+     */
+    private void scheduleDigest(Instant now) {
+        ZonedDateTime at = now.atZone(ZONE).with(digestTime);
+        if (!at.toInstant().isAfter(now)) {
+            at = at.plusDays(1);
+        }
+        wheel.schedule(at.toInstant(), new Digest(at.toLocalDate().plusDays(1)));
+    }
+
+    /**
+     * @return pending reminders of the events that start on the day, by start time
+     */
+    private List<Reminder> remindersOf(LocalDate day) {
+        Instant start = day.atStartOfDay(ZONE).toInstant();
+        Instant end = day.plusDays(1).atStartOfDay(ZONE).toInstant();
+        return wheel.pending().stream()
+                .filter(Reminder.class::isInstance)
+                .map(Reminder.class::cast)
+                .filter(reminder -> !reminder.getStartTime().isBefore(start) && reminder.getStartTime().isBefore(end))
+                .sorted(Comparator.comparing(Reminder::getStartTime))
+                .collect(Collectors.toList());
+    }
+
+    private void sendReminders(List<Reminder> due, Instant now) throws MessagingException {
+        if (due.isEmpty() || mailDisable) {
+            return;
+        }
+
+        Map<Integer, Instant> startTimes = due.stream().collect(Collectors.toMap(Reminder::getEventId, Reminder::getStartTime, (a, b) -> a));
+        Set<Integer> claimed = transactionTemplate.execute(status -> claimRepository.claimReminders(startTimes, now));
+        Map<String, List<Reminder>> byBooker = due.stream()
+                .filter(reminder -> claimed != null && claimed.contains(reminder.getEventId()))
+                .sorted(Comparator.comparing(Reminder::getStartTime))
+                .collect(Collectors.groupingBy(Reminder::getBookingEmail, LinkedHashMap::new, Collectors.toList()));
+
+        List<MimeMessage> messages = new ArrayList<>();
+        for (Map.Entry<String, List<Reminder>> booker : byBooker.entrySet()) {
+            Reminder first = booker.getValue().get(0);
+            StringBuilder content = new StringBuilder("Booking Name: ").append(HtmlUtils.htmlEscape(first.getBookingName()));
+            for (Reminder reminder : booker.getValue()) {
+                content.append("<br><br>Event Category: ").append(HtmlUtils.htmlEscape(reminder.getCategoryName()))
+                        .append("<br>When: ").append(when(reminder))
+                        .append("<br>Event Notes: ").append(reminder.getNotes() == null ? "" : HtmlUtils.htmlEscape(reminder.getNotes()));
+            }
+            String subject = booker.getValue().size() == 1
+                    ? "Reminder: " + first.getCategoryName() + " @ " + when(first)
+                    : "Reminder: " + booker.getValue().size() + " bookings starting soon";
+            messages.add(mailService.newMessage(booker.getKey(), subject, content.toString()));
+        }
+        mailService.sendAll(messages);
+    }
+
+    /**
+     * One mail per lecturer, with the bookings of all the categories they own
+     */
+    private void sendDigest(LocalDate day, List<Reminder> dayReminders, Instant now) throws MessagingException {
+        if (mailDisable || !Boolean.TRUE.equals(transactionTemplate.execute(status -> claimRepository.claim("digest:" + day, now)))) {
+            return;
+        }
+
+        Map<Integer, List<Reminder>> byCategory = dayReminders.stream().collect(Collectors.groupingBy(Reminder::getCategoryId));
+        List<EventCategoryOwner> owners = transactionTemplate.execute(status -> ownerRepository.findAllWithUser());
+        Map<String, List<Reminder>> byLecturer = new TreeMap<>();
+        for (EventCategoryOwner owner : Objects.requireNonNull(owners)) {
+            List<Reminder> bookings = byCategory.get(owner.getEventCategory().getId());
+            if (bookings != null) {
+                byLecturer.computeIfAbsent(owner.getUser().getEmail(), email -> new ArrayList<>()).addAll(bookings);
+            }
+        }
+
+        String date = DateTimeFormatter.ofPattern("E MMM dd, yyyy").format(day);
+        List<MimeMessage> messages = new ArrayList<>();
+        for (Map.Entry<String, List<Reminder>> lecturer : byLecturer.entrySet()) {
+            StringBuilder content = new StringBuilder("Bookings on ").append(date).append(" (ICT)");
+            lecturer.getValue().stream().sorted(Comparator.comparing(Reminder::getStartTime)).forEach(reminder ->
+                    content.append("<br><br>When: ").append(when(reminder))
+                            .append("<br>Event Category: ").append(HtmlUtils.htmlEscape(reminder.getCategoryName()))
+                            .append("<br>Booking Name: ").append(HtmlUtils.htmlEscape(reminder.getBookingName())));
+            messages.add(mailService.newMessage(lecturer.getKey(), "Your bookings on " + date, content.toString()));
+        }
+        mailService.sendAll(messages);
+    }
+
+    private static String when(Reminder reminder) {
+        DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("E MMM dd, yyyy HH:mm").withZone(ZONE);
+        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm ").withZone(ZONE);
+        Instant endTime = reminder.getStartTime().plus(reminder.getDuration(), ChronoUnit.MINUTES);
+        return dateTimeFormatter.format(reminder.getStartTime()) + " - " + timeFormatter.format(endTime) + "(ICT)";
+    }
+
+    private interface Due {
+    }
+
+    /**
+     * What a reminder needs of its event, so it can be sent without loading it again
+     */
+    @lombok.Value
+    private static class Reminder implements Due {
+        Integer eventId;
+        Instant startTime;
+        int duration;
+        Integer categoryId;
+        String categoryName;
+        String bookingName;
+        String bookingEmail;
+        String notes;
+
+        static Reminder of(Event event) {
+            return new Reminder(event.getId(), event.getEventStartTime(), event.getEventDuration(),
+                    event.getEventCategory().getId(), event.getEventCategory().getEventCategoryName(),
+                    event.getBookingName(), event.getBookingEmail(), event.getEventNotes());
+        }
+    }
+
+    @lombok.Value
+    private static class Digest implements Due {
+        LocalDate day;
+    }
+}
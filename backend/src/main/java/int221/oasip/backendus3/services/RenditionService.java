@@ -0,0 +1,314 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.utils.CompressedFiles;
+import lombok.RequiredArgsConstructor;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Small JPEG renditions of image attachments and of the first page of PDF attachments, so list views do not have to
+ * download the original. They are generated in the background on a bounded pool after a file is uploaded, and stored
+ * in {@code <upload.path>/renditions/<bucketUuid>/}.
+ * <p>
+ * When the queue is full the upload is not held up; the rendition is queued again the first time it is requested.
+ * Other files have no renditions.
+ */
+@Service
+@RequiredArgsConstructor
+public class RenditionService {
+    private static final String RENDITIONS_DIRECTORY = "renditions";
+    private static final int WORKER_THREADS = 2;
+    private static final int QUEUE_SIZE = 100;
+    /**
+     * larger images are not decoded at all, whatever their file size
+     */
+    private static final long MAX_SOURCE_PIXELS = 100_000_000L;
+    private static final float JPEG_QUALITY = 0.8f;
+
+    private final ExecutorService workers = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+        Thread thread = new Thread(runnable, "rendition-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * buckets that are queued or being generated, so repeated requests do not queue them again, mapped to whether
+     * they were requested again after their generation started and must be generated once more
+     */
+    private final Map<String, Boolean> pending = new ConcurrentHashMap<>();
+
+    private final CachePurgeService cachePurgeService;
+
+    @Value("${upload.path}")
+    private String uploadPath;
+
+    @PreDestroy
+    void stop() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Generate the renditions of the file in the bucket once the current transaction commits, or now if there is none.
+     * Existing renditions are replaced.
+     */
+    public void generateLater(String bucketUuid) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submit(bucketUuid);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                submit(bucketUuid);
+            }
+        });
+    }
+
+    /**
+     * @return the rendition, or empty if the file has none or it is not generated yet
+     */
+    public Optional<Path> get(String bucketUuid, Rendition rendition) {
+        if (!FileCleanupService.isBucketName(bucketUuid)) {
+            return Optional.empty();
+        }
+
+        Path path = getDirectory(bucketUuid).resolve(rendition.getFileName());
+        if (Files.isRegularFile(path)) {
+            return Optional.of(path);
+        }
+        if (findSource(bucketUuid) != null) {
+            submit(bucketUuid);
+        }
+        return Optional.empty();
+    }
+
+    public Path getDirectory(String bucketUuid) {
+        return Paths.get(uploadPath, RENDITIONS_DIRECTORY, bucketUuid);
+    }
+
+    private void submit(String bucketUuid) {
+        while (true) {
+            Boolean again = pending.putIfAbsent(bucketUuid, false);
+            if (again == null) {
+                break;
+            }
+            if (again || pending.replace(bucketUuid, false, true)) {
+                // the worker generates it once more when it is done, the file may have been replaced since it started
+                return;
+            }
+            // the worker was done before it could be told, queue it again
+        }
+
+        try {
+            workers.execute(() -> run(bucketUuid));
+        } catch (RejectedExecutionException e) {
+            pending.remove(bucketUuid);
+        }
+    }
+
+    private void run(String bucketUuid) {
+        try {
+            do {
+                // requests made before the generation starts are covered by it
+                pending.replace(bucketUuid, true, false);
+                generate(bucketUuid);
+            } while (!pending.remove(bucketUuid, false));
+        } catch (RuntimeException | Error e) {
+            pending.remove(bucketUuid);
+            throw e;
+        }
+    }
+
+    private void generate(String bucketUuid) {
+        Path source = findSource(bucketUuid);
+        if (source == null) {
+            return;
+        }
+
+        Path directory = getDirectory(bucketUuid);
+        try {
+            BufferedImage image = CompressedFiles.originalName(source).toLowerCase().endsWith(".pdf")
+                    ? renderFirstPage(source, Rendition.PREVIEW.maxSize)
+                    : readImage(source, Rendition.PREVIEW.maxSize);
+            if (image == null) {
+                // not an image, or the file was replaced by one that is not
+                deleteRenditions(directory);
+                return;
+            }
+
+            Files.createDirectories(directory);
+            for (Rendition rendition : Rendition.values()) {
+                // written beside and moved, so a rendition is never read half written
+                Path temporary = Files.createTempFile(directory, rendition.getFileName(), ".tmp");
+                try {
+                    writeJpeg(scale(image, rendition.maxSize), temporary);
+                    Files.move(temporary, directory.resolve(rendition.getFileName()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temporary);
+                }
+            }
+
+            if (findSource(bucketUuid) == null) {
+                // the bucket was deleted while generating
+                deleteRenditions(directory);
+            }
+            // the proxy may have cached the renditions of the replaced file
+            cachePurgeService.purgeLater(CachePurgeService.fileTag(bucketUuid));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Cannot generate renditions of " + source + ": " + e.getMessage());
+        }
+    }
+
+    @Nullable
+    private Path findSource(String bucketUuid) {
+        try (Stream<Path> files = Files.list(Paths.get(uploadPath, bucketUuid))) {
+            return files.filter(Files::isRegularFile).findFirst().orElse(null);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decode the image subsampled to no less than twice {@code maxSize}, so a large photo never has to fit in memory
+     * at full resolution
+     *
+     * @return the image, or null if it is not an image that can be read
+     */
+    @Nullable
+    private static BufferedImage readImage(Path source, int maxSize) throws IOException {
+        // a compressed attachment (bmp, tiff) is decompressed while it is decoded
+        try (InputStream file = CompressedFiles.open(source);
+             ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_SOURCE_PIXELS) {
+                    return null;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (2 * maxSize));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @Nullable
+    private static BufferedImage renderFirstPage(Path source, int maxSize) throws IOException {
+        // PDFs are never stored compressed, so the document is read from the file directly
+        try (PDDocument document = PDDocument.load(source.toFile(), MemoryUsageSetting.setupTempFileOnly())) {
+            if (document.getNumberOfPages() == 0) {
+                return null;
+            }
+            PDRectangle box = document.getPage(0).getCropBox();
+            // PDF units are 1/72 inch, render the longer side at about maxSize pixels
+            float dpi = 72f * maxSize / Math.max(box.getWidth(), box.getHeight());
+            return new PDFRenderer(document).renderImageWithDPI(0, dpi, ImageType.RGB);
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int maxSize) {
+        double factor = Math.min(1.0, (double) maxSize / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            // JPEG has no transparency, transparent parts become white
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private static void writeJpeg(BufferedImage image, Path destination) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(destination.toFile())) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static void deleteRenditions(Path directory) throws IOException {
+        for (Rendition rendition : Rendition.values()) {
+            Files.deleteIfExists(directory.resolve(rendition.getFileName()));
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    public enum Rendition {
+        THUMBNAIL(240), PREVIEW(1024);
+
+        /**
+         * longest side in pixels
+         */
+        private final int maxSize;
+
+        Rendition(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public String getFileName() {
+            return name().toLowerCase() + ".jpg";
+        }
+
+        public static Rendition fromString(String rendition) {
+            for (Rendition value : values()) {
+                if (value.name().equalsIgnoreCase(rendition)) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Rendition must be either thumbnail or preview");
+        }
+    }
+}
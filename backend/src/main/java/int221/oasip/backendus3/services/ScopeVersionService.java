@@ -0,0 +1,247 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.configs.ReplicaRoutingDataSource;
+import int221.oasip.backendus3.entities.ScopeVersion;
+import int221.oasip.backendus3.repository.ScopeVersionRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Change counters per category and per user, so that clients can revalidate data they already have without it
+ * being read again. Counters are incremented in the transaction that changes the data and live in the database,
+ * so every instance sees the same version.
+ * <p>
+ * Versions that were read are kept in memory for {@code scope-version.cache-millis}, so a burst of revalidations
+ * needs no query at all. Changes on this instance drop the cache when they commit; changes on other instances are
+ * seen once the cached version expires.
+ */
+@Service
+@RequiredArgsConstructor
+public class ScopeVersionService {
+    /**
+     * key of the {@link ScopeType#CATEGORIES} and {@link ScopeType#BOOKINGS} scopes, which have a single counter
+     */
+    private static final String ALL = "all";
+    private static final String BOOKINGS_REGISTERED = ScopeVersionService.class.getName() + ".BOOKINGS_REGISTERED";
+    /**
+     * when more versions than this are cached, the cache is dropped, to bound its memory
+     */
+    private static final int MAX_CACHED_VERSIONS = 10_000;
+
+    private final ScopeVersionRepository repository;
+    private final PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate newTransaction;
+    private TransactionTemplate primaryRead;
+
+    private final Map<String, CachedVersion> cache = new ConcurrentHashMap<>();
+    /**
+     * incremented whenever the cache is dropped, guarded by the cache lock
+     */
+    private long invalidations;
+
+    @Value("${scope-version.cache-millis:1000}")
+    private long cacheMillis;
+
+    @PostConstruct
+    void createTransactionTemplate() {
+        newTransaction = new TransactionTemplate(transactionManager);
+        newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        // a transaction of its own, since a transaction the caller is in may already read from the replica
+        primaryRead = new TransactionTemplate(transactionManager);
+        primaryRead.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        primaryRead.setReadOnly(true);
+    }
+
+    /**
+     * Part of a per-user ETag that tells users apart without putting their email in a header
+     */
+    public static String userTag(String email) {
+        return DigestUtils.md5DigestAsHex(email.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return current version of the scope, 0 if it never changed
+     */
+    public long getVersion(ScopeType type, Object key) {
+        return cached(type.name() + ":" + key, () -> repository.findById(new ScopeVersion.Key(type.name(), key.toString()))
+                .map(ScopeVersion::getVersion)
+                .orElse(0L));
+    }
+
+    /**
+     * Version of the {@link ScopeType#USER} scope of the user with {@code email}, without looking up their id first
+     *
+     * @return current version, 0 if it never changed or there is no such user
+     */
+    public long getUserVersion(String email) {
+        return cached(ScopeType.USER.name() + ":email:" + email, () -> repository.findUserVersion(ScopeType.USER.name(), email));
+    }
+
+    public long getCategoriesVersion() {
+        return getVersion(ScopeType.CATEGORIES, ALL);
+    }
+
+    /**
+     * Version of the bookings of all categories, which goes up whenever the bookings of any category change
+     */
+    public long getAllCategoriesVersion() {
+        return getVersion(ScopeType.BOOKINGS, ALL);
+    }
+
+    /**
+     * Must be called in the transaction that changes the data of the scope
+     */
+    public void increment(ScopeType type, Object key) {
+        repository.increment(type.name(), key.toString());
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate();
+            }
+        });
+    }
+
+    /**
+     * Must be called in the transaction that changes a category itself
+     */
+    public void incrementCategory(Integer categoryId) {
+        increment(ScopeType.CATEGORY, categoryId);
+        increment(ScopeType.CATEGORIES, ALL);
+    }
+
+    @EventListener
+    public void onEventChanged(EventChangedEvent event) {
+        // always category first, so two transactions never wait for each other's rows in opposite order
+        increment(ScopeType.CATEGORY, event.getCategoryId());
+        if (event.getUserId() != null) {
+            increment(ScopeType.USER, event.getUserId());
+        }
+        incrementBookingsAfterCommit();
+    }
+
+    /**
+     * The counter of all bookings is incremented once per transaction, after it commits and in a transaction of its
+     * own, so bookings of different categories never wait for each other's lock on its row. If the increment fails,
+     * lists that depend on it are only revalidated once their ETag changes for another reason.
+     */
+    private void incrementBookingsAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            incrementBookings();
+            return;
+        }
+        if (TransactionSynchronizationManager.hasResource(BOOKINGS_REGISTERED)) {
+            return;
+        }
+
+        TransactionSynchronizationManager.bindResource(BOOKINGS_REGISTERED, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    // the connection of the committed transaction is still bound, so a new transaction is needed
+                    newTransaction.executeWithoutResult(status -> incrementBookings());
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to increment the version of all bookings: " + e.getMessage());
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(BOOKINGS_REGISTERED);
+            }
+        });
+    }
+
+    private void incrementBookings() {
+        repository.increment(ScopeType.BOOKINGS.name(), ALL);
+        invalidate();
+    }
+
+    /**
+     * Versions are always read from the primary: one read from a lagging replica would be cached, and could then
+     * hide a user's own change from them even after they are pinned to the primary.
+     */
+    private long cached(String key, LongSupplier read) {
+        long now = System.nanoTime();
+        CachedVersion cached = cache.get(key);
+        if (cached != null && now - cached.readAt < cacheMillis * 1_000_000L) {
+            return cached.version;
+        }
+
+        long invalidationsBefore;
+        synchronized (cache) {
+            invalidationsBefore = invalidations;
+        }
+        long version = primaryRead.execute(status -> {
+            ReplicaRoutingDataSource.usePrimary();
+            return read.getAsLong();
+        });
+        synchronized (cache) {
+            // a change committed while reading may be missing from the version, use it for this answer only
+            if (invalidations == invalidationsBefore) {
+                if (cache.size() >= MAX_CACHED_VERSIONS) {
+                    cache.clear();
+                }
+                cache.put(key, new CachedVersion(version, now));
+            }
+        }
+        return version;
+    }
+
+    private void invalidate() {
+        synchronized (cache) {
+            invalidations++;
+            cache.clear();
+        }
+    }
+
+    public enum ScopeType {
+        /**
+         * a category and the bookings in it, keyed by category id
+         */
+        CATEGORY,
+        /**
+         * the bookings of a user, keyed by user id, which stays the same when the email of the user changes
+         */
+        USER,
+        /**
+         * the list of categories
+         */
+        CATEGORIES,
+        /**
+         * the bookings of all categories, with a single counter
+         */
+        BOOKINGS
+    }
+
+    private static class CachedVersion {
+        private final long version;
+        private final long readAt;
+
+        private CachedVersion(long version, long readAt) {
+            this.version = version;
+            this.readAt = readAt;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package int221.oasip.backendus3.services;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import int221.oasip.backendus3.dtos.CreateUserRequest;
+import int221.oasip.backendus3.dtos.RejectedUserRow;
+import int221.oasip.backendus3.dtos.UserImportResponse;
+import int221.oasip.backendus3.entities.Role;
+import int221.oasip.backendus3.entities.User;
+import int221.oasip.backendus3.exceptions.ValidationErrors;
+import int221.oasip.backendus3.repository.UserRepository;
+import int221.oasip.backendus3.utils.CsvReader;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Creates users in bulk from a CSV or JSON stream, e.g. the accounts of a new term.
+ * <p>
+ * Users are read {@value #BATCH_SIZE} at a time. The rows of a batch are validated as for a single user, and their
+ * names and emails are checked against the existing users with one query. The passwords of the rows that pass are
+ * hashed in parallel on {@code user-import.hash-threads} threads shared by all imports, and the users are inserted in
+ * one JDBC batch. Rows that are rejected are reported and the others are created, so an import can be corrected and
+ * sent again with the rejected rows only. A stream that cannot be read further ends the import at that row.
+ */
+@Service
+@RequiredArgsConstructor
+public class UserImportService {
+    private static final int BATCH_SIZE = 500;
+    private static final List<String> CSV_COLUMNS = List.of("name", "email", "password", "role");
+    private static final List<String> REQUIRED_CSV_COLUMNS = List.of("name", "email", "password");
+
+    private final UserRepository repository;
+    private final Argon2PasswordEncoder argon2PasswordEncoder;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${user-import.hash-threads:4}")
+    private int hashThreads;
+
+    /**
+     * an import waits for the hashes of a batch before it reads the next, so the queue holds at most a batch per import
+     */
+    private ExecutorService hashers;
+
+    @PostConstruct
+    void start() {
+        hashers = Executors.newFixedThreadPool(hashThreads, runnable -> {
+            Thread thread = new Thread(runnable, "user-import-hasher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        hashers.shutdownNow();
+    }
+
+    /**
+     * @param in UTF-8 with a header line naming the columns: name, email, password and optionally role
+     */
+    public UserImportResponse importCsv(InputStream in) {
+        CsvReader csv = new CsvReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        List<String> header;
+        try {
+            header = csv.read();
+        } catch (IOException e) {
+            throw validationError("header", e.getMessage());
+        }
+        if (header == null) {
+            throw validationError("header", "Header must name the columns " + String.join(", ", CSV_COLUMNS));
+        }
+        // spreadsheet programs start UTF-8 files with a byte order mark, which would be part of the first column name
+        if (!header.isEmpty() && header.get(0).startsWith("\uFEFF")) {
+            header.set(0, header.get(0).substring(1));
+        }
+
+        List<String> columns = new ArrayList<>();
+        for (String column : header) {
+            String name = column.strip().toLowerCase(Locale.ROOT);
+            if (!CSV_COLUMNS.contains(name) || columns.contains(name)) {
+                throw validationError("header", "Unknown or repeated column '" + column + "', columns must be " + String.join(", ", CSV_COLUMNS));
+            }
+            columns.add(name);
+        }
+        if (!columns.containsAll(REQUIRED_CSV_COLUMNS)) {
+            throw validationError("header", "Header must name the columns " + String.join(", ", REQUIRED_CSV_COLUMNS));
+        }
+
+        return importRows(() -> {
+            List<String> record = csv.read();
+            if (record == null) {
+                return null;
+            }
+            CreateUserRequest request = new CreateUserRequest();
+            for (int i = 0; i < columns.size() && i < record.size(); i++) {
+                String value = record.get(i);
+                switch (columns.get(i)) {
+                    case "name":
+                        request.setName(value);
+                        break;
+                    case "email":
+                        request.setEmail(value);
+                        break;
+                    case "password":
+                        request.setPassword(value);
+                        break;
+                    case "role":
+                        // an empty cell keeps the default role
+                        if (!value.isBlank()) {
+                            request.setRole(value);
+                        }
+                        break;
+                }
+            }
+            return request;
+        });
+    }
+
+    /**
+     * @param in an array of users, as for a single user
+     */
+    public UserImportResponse importJson(InputStream in) {
+        JsonParser parser;
+        try {
+            parser = objectMapper.getFactory().createParser(in);
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw validationError("body", "Body must be an array of users");
+            }
+        } catch (IOException e) {
+            throw validationError("body", e.getMessage());
+        }
+
+        return importRows(() -> parser.nextToken() == JsonToken.END_ARRAY ? null : objectMapper.readValue(parser, CreateUserRequest.class));
+    }
+
+    private UserImportResponse importRows(RowReader reader) {
+        List<RejectedUserRow> rejected = new ArrayList<>();
+        int created = 0;
+        int rowNumber = 0;
+        boolean end = false;
+        while (!end) {
+            List<Row> batch = new ArrayList<>(BATCH_SIZE);
+            while (batch.size() < BATCH_SIZE) {
+                CreateUserRequest request;
+                try {
+                    request = reader.read();
+                } catch (IOException e) {
+                    Row unreadable = new Row(rowNumber + 1, null);
+                    unreadable.addError("row", "Cannot be read, the import stopped here: " + e.getMessage());
+                    rejected.add(new RejectedUserRow(unreadable.number, unreadable.errors));
+                    end = true;
+                    break;
+                }
+                if (request == null) {
+                    end = true;
+                    break;
+                }
+                batch.add(new Row(++rowNumber, request));
+            }
+            created += importBatch(batch, rejected);
+        }
+
+        UserImportResponse response = new UserImportResponse();
+        response.setCreated(created);
+        response.setRejected(rejected);
+        return response;
+    }
+
+    /**
+     * @return number of users created
+     */
+    private int importBatch(List<Row> batch, List<RejectedUserRow> rejected) {
+        // validated, and unique within the batch
+        List<Row> valid = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        for (Row row : batch) {
+            for (ConstraintViolation<CreateUserRequest> violation : validator.validate(row.request)) {
+                row.addError(violation.getPropertyPath().toString(), violation.getMessage());
+            }
+            if (row.errors.isEmpty()) {
+                row.user.setName(row.request.getName().strip());
+                row.user.setEmail(row.request.getEmail().strip());
+                row.user.setRole(Role.fromString(row.request.getRole().strip()));
+                if (names.contains(uniqueKey(row.user.getName()))) {
+                    row.addError("name", "Name is not unique");
+                }
+                if (emails.contains(uniqueKey(row.user.getEmail()))) {
+                    row.addError("email", "Email is not unique");
+                }
+            }
+            if (!row.errors.isEmpty()) {
+                rejected.add(new RejectedUserRow(row.number, row.errors));
+                continue;
+            }
+            names.add(uniqueKey(row.user.getName()));
+            emails.add(uniqueKey(row.user.getEmail()));
+            valid.add(row);
+        }
+        if (valid.isEmpty()) {
+            return 0;
+        }
+
+        // unique among the existing users
+        Set<String> takenNames = new HashSet<>();
+        Set<String> takenEmails = new HashSet<>();
+        for (User user : repository.findByNameInOrEmailIn(
+                valid.stream().map(row -> row.user.getName()).collect(Collectors.toList()),
+                valid.stream().map(row -> row.user.getEmail()).collect(Collectors.toList()))) {
+            takenNames.add(uniqueKey(user.getName()));
+            takenEmails.add(uniqueKey(user.getEmail()));
+        }
+        List<Row> unique = new ArrayList<>();
+        for (Row row : valid) {
+            if (takenNames.contains(uniqueKey(row.user.getName()))) {
+                row.addError("name", "Name is not unique");
+            }
+            if (takenEmails.contains(uniqueKey(row.user.getEmail()))) {
+                row.addError("email", "Email is not unique");
+            }
+            if (!row.errors.isEmpty()) {
+                rejected.add(new RejectedUserRow(row.number, row.errors));
+            } else {
+                unique.add(row);
+            }
+        }
+        if (unique.isEmpty()) {
+            return 0;
+        }
+
+        hashPasswords(unique);
+        return insert(unique, rejected);
+    }
+
+    private void hashPasswords(List<Row> rows) {
+        List<Future<String>> hashes = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            String password = row.request.getPassword();
+            hashes.add(hashers.submit(() -> argon2PasswordEncoder.encode(password)));
+        }
+        try {
+            for (int i = 0; i < rows.size(); i++) {
+                rows.get(i).user.setPassword(hashes.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            hashes.forEach(hash -> hash.cancel(true));
+            throw new IllegalStateException("Interrupted while hashing passwords", e);
+        } catch (ExecutionException e) {
+            hashes.forEach(hash -> hash.cancel(true));
+            throw new IllegalStateException("Cannot hash password", e.getCause());
+        }
+    }
+
+    /**
+     * @return number of users created
+     */
+    private int insert(List<Row> rows, List<RejectedUserRow> rejected) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> repository.insertAll(rows.stream().map(row -> row.user).collect(Collectors.toList())));
+            return rows.size();
+        } catch (DuplicateKeyException e) {
+            // created since the check, e.g. by another import: insert one at a time to find out which
+        }
+
+        int created = 0;
+        for (Row row : rows) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> repository.insertAll(List.of(row.user)));
+                created++;
+            } catch (DuplicateKeyException e) {
+                if (repository.existsByName(row.user.getName())) {
+                    row.addError("name", "Name is not unique");
+                }
+                if (repository.existsByEmail(row.user.getEmail()) || row.errors.isEmpty()) {
+                    row.addError("email", "Email is not unique");
+                }
+                rejected.add(new RejectedUserRow(row.number, row.errors));
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Names and emails are unique regardless of case, as the collation of the user table compares them
+     */
+    private static String uniqueKey(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    private static ValidationErrors validationError(String field, String message) {
+        ValidationErrors errors = new ValidationErrors();
+        errors.addFieldError(field, message);
+        return errors;
+    }
+
+    private interface RowReader {
+        /**
+         * @return next user, or null at the end of the stream
+         */
+        CreateUserRequest read() throws IOException;
+    }
+
+    private static class Row {
+        private final int number;
+        private final CreateUserRequest request;
+        private final User user = new User();
+        /**
+         * messages by field, as {@link ValidationErrors} has them for a single user
+         */
+        private final Map<String, Collection<String>> errors = new LinkedHashMap<>();
+
+        Row(int number, CreateUserRequest request) {
+            this.number = number;
+            this.request = request;
+        }
+
+        void addError(String field, String message) {
+            errors.computeIfAbsent(field, k -> new ArrayList<>()).add(message);
+        }
+    }
+}
@@ -14,6 +14,7 @@ import org.modelmapper.ModelMapper;
 import org.springframework.data.domain.Sort;
 import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -24,12 +25,15 @@ public class UserServive {
     private ModelMapper modelMapper;
     private ModelMapperUtils modelMapperUtils;
     private Argon2PasswordEncoder argon2PasswordEncoder;
+    private ScopeVersionService versionService;
 
+    @Transactional(readOnly = true)
     public List<UserResponse> getAll() {
         List<User> users = repository.findAll(Sort.by("name"));
         return modelMapperUtils.mapList(users, UserResponse.class);
     }
 
+    @Transactional
     public UserResponse create(CreateUserRequest request) {
         String strippedName = request.getName().strip();
         String strippedEmail = request.getEmail().strip();
@@ -63,16 +67,18 @@ public class UserServive {
         return modelMapper.map(repository.saveAndFlush(user), UserResponse.class);
     }
 
+    @Transactional
     public void delete(Integer id) {
-        boolean userExists = repository.existsById(id);
-        if (!userExists) {
+        if (repository.deleteUserById(id) == 0) {
             throw new EntityNotFoundException("User not found");
         }
-        repository.deleteById(id);
     }
 
+    @Transactional
     public UserResponse update(Integer id, EditUserRequest request) {
         User user = repository.findById(id).orElseThrow(() -> new EntityNotFoundException("User with id " + id + " not found"));
+        // what the user can see depends on the role, so cached responses of the user must be revalidated
+        versionService.increment(ScopeVersionService.ScopeType.USER, user.getId());
 
         ValidationErrors errors = new ValidationErrors();
         if (request.getName() != null) {
@@ -0,0 +1,147 @@
+package int221.oasip.backendus3.utils;
+
+import org.springframework.lang.Nullable;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Attachments stored gzip compressed, named after the original file with {@value #SUFFIX} appended.
+ * <p>
+ * Whether a file is compressed is decided from its first bytes: formats that are compressed already (images, PDF,
+ * archives and the zip based office formats) are stored as they are, everything else (text, CSV, the old binary
+ * office formats) is compressed, and kept only if it became smaller.
+ */
+public final class CompressedFiles {
+    public static final String SUFFIX = ".oasip.gz";
+    private static final int MIN_SIZE = 1024;
+    private static final int SNIFF_SIZE = 16;
+
+    private static final byte[][] COMPRESSED_SIGNATURES = {
+            {0x1f, (byte) 0x8b},                                  // gzip
+            {'P', 'K', 0x03, 0x04},                               // zip, docx, xlsx, pptx, odt, jar, epub
+            {'%', 'P', 'D', 'F'},
+            {(byte) 0x89, 'P', 'N', 'G'},
+            {(byte) 0xff, (byte) 0xd8, (byte) 0xff},              // jpeg
+            {'G', 'I', 'F', '8'},
+            {'R', 'I', 'F', 'F'},                                 // webp, avi
+            {'B', 'Z', 'h'},
+            {(byte) 0xfd, '7', 'z', 'X', 'Z', 0x00},
+            {'7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c},
+            {'R', 'a', 'r', '!'},
+            {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},              // zstd
+            {'I', 'D', '3'},                                      // mp3
+            {'O', 'g', 'g', 'S'},
+            {0x1a, 0x45, (byte) 0xdf, (byte) 0xa3},              // mkv, webm
+    };
+
+    private CompressedFiles() {
+    }
+
+    /**
+     * Store the upload in {@code directory}, compressed if that is worth it
+     *
+     * @return the stored file
+     */
+    public static Path store(MultipartFile file, Path directory, String fileName) throws IOException {
+        Path plain = directory.resolve(fileName);
+        if (file.getSize() < MIN_SIZE || !isCompressible(file)) {
+            file.transferTo(plain);
+            return plain;
+        }
+
+        Path compressed = directory.resolve(fileName + SUFFIX);
+        // beside the bucket rather than in it, where it would be taken for the attachment
+        Path temporary = Files.createTempFile(directory.getParent(), ".upload", ".tmp");
+        try {
+            try (InputStream input = file.getInputStream();
+                 OutputStream output = new GZIPOutputStream(Files.newOutputStream(temporary), 64 * 1024)) {
+                input.transferTo(output);
+            }
+            if (Files.size(temporary) >= file.getSize() * 9 / 10) {
+                // did not compress well, the file is stored as it is so downloads need no work
+                file.transferTo(plain);
+                return plain;
+            }
+            Files.move(temporary, compressed, StandardCopyOption.REPLACE_EXISTING);
+            return compressed;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    public static boolean isCompressed(Path file) {
+        return file.getFileName().toString().endsWith(SUFFIX);
+    }
+
+    /**
+     * @return the name the file was uploaded with
+     */
+    public static String originalName(Path file) {
+        String name = file.getFileName().toString();
+        return isCompressed(file) ? name.substring(0, name.length() - SUFFIX.length()) : name;
+    }
+
+    /**
+     * @return the content of the file as it was uploaded, decompressed while it is read
+     */
+    public static InputStream open(Path file) throws IOException {
+        InputStream input = Files.newInputStream(file);
+        if (!isCompressed(file)) {
+            return input;
+        }
+        try {
+            return new GZIPInputStream(input, 64 * 1024);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param acceptEncoding value of the {@code Accept-Encoding} request header
+     * @return whether the client accepts a stored file as it is, with {@code Content-Encoding: gzip}
+     */
+    public static boolean acceptsGzip(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (!parts[0].trim().equalsIgnoreCase("gzip")) {
+                continue;
+            }
+            // gzip;q=0 means not acceptable, the parameter name is case-insensitive
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim().toLowerCase();
+                if (param.startsWith("q=") && param.substring(2).matches("0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isCompressible(MultipartFile file) throws IOException {
+        byte[] head;
+        try (InputStream input = file.getInputStream()) {
+            head = input.readNBytes(SNIFF_SIZE);
+        }
+        for (byte[] signature : COMPRESSED_SIGNATURES) {
+            if (head.length >= signature.length && Arrays.equals(head, 0, signature.length, signature, 0, signature.length)) {
+                return false;
+            }
+        }
+        // mp4, mov and heic have their box type at offset 4
+        return !(head.length >= 8 && head[4] == 'f' && head[5] == 't' && head[6] == 'y' && head[7] == 'p');
+    }
+}
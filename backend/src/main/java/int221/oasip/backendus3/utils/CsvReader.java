@@ -0,0 +1,92 @@
+package int221.oasip.backendus3.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a CSV (RFC 4180) stream one record at a time. Fields may be quoted, with {@code ""} for a quote and line
+ * breaks inside the quotes. Lines may end with CRLF or LF, empty lines are skipped.
+ */
+public class CsvReader {
+    private final Reader reader;
+    private int lineNumber = 1;
+    private int next = -2;
+
+    /**
+     * @param reader read one character at a time, so it should be buffered
+     */
+    public CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @return fields of the next record, or null at the end of the stream
+     * @throws IOException if a quoted field is not closed
+     */
+    public List<String> read() throws IOException {
+        int c = peek();
+        while (c == '\r' || c == '\n') {
+            newLine(take());
+            c = peek();
+        }
+        if (c == -1) {
+            return null;
+        }
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            c = take();
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Quoted field is not closed before the end, on line " + lineNumber);
+                } else if (c == '"' && peek() == '"') {
+                    field.append((char) take());
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    if (c == '\n') {
+                        lineNumber++;
+                    }
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                fields.add(field.toString());
+                newLine(c);
+                return fields;
+            } else {
+                field.append((char) c);
+            }
+        }
+    }
+
+    private void newLine(int c) throws IOException {
+        if (c == '\r' && peek() == '\n') {
+            take();
+        }
+        if (c != -1) {
+            lineNumber++;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (next == -2) {
+            next = reader.read();
+        }
+        return next;
+    }
+
+    private int take() throws IOException {
+        int c = peek();
+        next = -2;
+        return c;
+    }
+}
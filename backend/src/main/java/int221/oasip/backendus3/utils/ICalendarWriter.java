@@ -0,0 +1,92 @@
+package int221.oasip.backendus3.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Writes an iCalendar (RFC 5545) stream one VEVENT at a time, so a feed never has to be held in memory.
+ * Text values are escaped and lines are folded at 75 octets.
+ */
+public class ICalendarWriter {
+    private static final DateTimeFormatter UTC_DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final int MAX_LINE_OCTETS = 75;
+
+    private final Writer writer;
+
+    public ICalendarWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public void begin(String calendarName) throws IOException {
+        line("BEGIN:VCALENDAR");
+        line("VERSION:2.0");
+        line("PRODID:-//OASIP//Bookings//EN");
+        line("CALSCALE:GREGORIAN");
+        line("X-WR-CALNAME:" + escape(calendarName));
+    }
+
+    public void end() throws IOException {
+        line("END:VCALENDAR");
+        writer.flush();
+    }
+
+    /**
+     * @param stamp       when the feed was generated, since a feed is not a scheduling message (RFC 5545, 3.8.7.2)
+     * @param rrule       recurrence rule without the {@code RRULE:} prefix, or null
+     * @param exdates     start times of cancelled occurrences of a recurring event
+     * @param description description, or null
+     */
+    public void event(String uid, Instant stamp, Instant start, Instant end, String summary, String description, String rrule, List<Instant> exdates) throws IOException {
+        line("BEGIN:VEVENT");
+        line("UID:" + uid);
+        line("DTSTAMP:" + UTC_DATE_TIME.format(stamp));
+        line("DTSTART:" + UTC_DATE_TIME.format(start));
+        line("DTEND:" + UTC_DATE_TIME.format(end));
+        line("SUMMARY:" + escape(summary));
+        if (description != null && !description.isEmpty()) {
+            line("DESCRIPTION:" + escape(description));
+        }
+        if (rrule != null) {
+            line("RRULE:" + rrule);
+        }
+        for (Instant exdate : exdates) {
+            line("EXDATE:" + UTC_DATE_TIME.format(exdate));
+        }
+        line("END:VEVENT");
+    }
+
+    public static String formatUtc(Instant instant) {
+        return UTC_DATE_TIME.format(instant);
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\")
+                .replace(";", "\\;")
+                .replace(",", "\\,")
+                .replace("\r\n", "\\n")
+                .replace("\n", "\\n")
+                .replace("\r", "\\n");
+    }
+
+    private void line(String content) throws IOException {
+        int octets = 0;
+        int i = 0;
+        while (i < content.length()) {
+            int codePoint = content.codePointAt(i);
+            int length = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (octets + length > MAX_LINE_OCTETS) {
+                // continuation lines start with a space, which counts towards their length
+                writer.write("\r\n ");
+                octets = 1;
+            }
+            writer.write(Character.toChars(codePoint));
+            octets += length;
+            i += Character.charCount(codePoint);
+        }
+        writer.write("\r\n");
+    }
+}
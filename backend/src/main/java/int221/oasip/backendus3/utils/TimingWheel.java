@@ -0,0 +1,241 @@
+package int221.oasip.backendus3.utils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel: timers are scheduled and cancelled in O(1), and expire in batches as the wheel advances.
+ * <p>
+ * Level 0 has a slot per tick, every level above has slots as long as a whole turn of the level below it. A timer
+ * is kept at the lowest level whose turn reaches its deadline, and moves down a level when the wheel reaches its
+ * slot, so each timer is moved at most once per level. Deadlines are rounded up to the next tick, so timers never
+ * expire early. Not thread-safe.
+ *
+ * @param <T> value of a timer, returned when it expires
+ */
+public class TimingWheel<T> {
+    private final long tickMillis;
+    private final int slotBits;
+    private final int slotMask;
+    private final Bucket<T>[][] levels;
+    /**
+     * timers that were scheduled at or before the current tick, returned by the next advance
+     */
+    private final Bucket<T> due = new Bucket<>();
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis    length of a tick, the resolution of the deadlines
+     * @param slotsPerLevel a power of two
+     * @param levelCount    deadlines up to {@code slotsPerLevel ^ levelCount} ticks ahead can be scheduled
+     * @param start         time of the current tick
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, int slotsPerLevel, int levelCount, Instant start) {
+        if (tickMillis <= 0 || slotsPerLevel < 2 || Integer.bitCount(slotsPerLevel) != 1 || levelCount <= 0
+                || Integer.numberOfTrailingZeros(slotsPerLevel) * levelCount >= Long.SIZE - 1) {
+            throw new IllegalArgumentException("tickMillis must be positive and slotsPerLevel a power of two, with at most 62 bits of ticks for all levels");
+        }
+        this.tickMillis = tickMillis;
+        this.slotBits = Integer.numberOfTrailingZeros(slotsPerLevel);
+        this.slotMask = slotsPerLevel - 1;
+        this.levels = new Bucket[levelCount][slotsPerLevel];
+        for (Bucket<T>[] level : levels) {
+            for (int i = 0; i < level.length; i++) {
+                level[i] = new Bucket<>();
+            }
+        }
+        this.currentTick = Math.floorDiv(start.toEpochMilli(), tickMillis);
+    }
+
+    /**
+     * @return the latest deadline that can be scheduled now
+     */
+    public Instant getHorizon() {
+        return Instant.ofEpochMilli((currentTick + (1L << (slotBits * levels.length)) - 1) * tickMillis);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Schedule {@code value} to be returned by the first advance to {@code deadline} or later. A deadline that has
+     * passed is returned by the next advance.
+     *
+     * @throws IllegalArgumentException if the deadline is after {@link #getHorizon()}
+     */
+    public Timer<T> schedule(Instant deadline, T value) {
+        Timer<T> timer = new Timer<>(this, value, Math.floorDiv(deadline.toEpochMilli() + tickMillis - 1, tickMillis));
+        place(timer);
+        size++;
+        return timer;
+    }
+
+    /**
+     * Advance the wheel to the tick of {@code now}, which takes one step per tick that passed
+     *
+     * @return values of the timers that expired, in the order of their deadlines tick by tick
+     */
+    public List<T> advanceTo(Instant now) {
+        List<T> expired = new ArrayList<>();
+        drain(due, expired);
+        long targetTick = Math.floorDiv(now.toEpochMilli(), tickMillis);
+        while (currentTick < targetTick) {
+            currentTick++;
+            // higher levels first, so their timers drop into a lower slot before that slot is processed
+            for (int level = levels.length - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (slotBits * level)) - 1)) == 0) {
+                    Bucket<T> bucket = levels[level][slot(currentTick, level)];
+                    for (Timer<T> timer = bucket.removeAll(); timer != null; ) {
+                        Timer<T> next = timer.next;
+                        timer.next = null;
+                        place(timer);
+                        timer = next;
+                    }
+                }
+            }
+            drain(levels[0][slot(currentTick, 0)], expired);
+            drain(due, expired);
+        }
+        return expired;
+    }
+
+    /**
+     * @return values of the timers that have not expired, in no particular order
+     */
+    public List<T> pending() {
+        List<T> values = new ArrayList<>(size);
+        due.forEach(values);
+        for (Bucket<T>[] level : levels) {
+            for (Bucket<T> bucket : level) {
+                bucket.forEach(values);
+            }
+        }
+        return values;
+    }
+
+    private void place(Timer<T> timer) {
+        long delta = timer.deadlineTick - currentTick;
+        if (delta <= 0) {
+            due.add(timer);
+            return;
+        }
+        for (int level = 0; level < levels.length; level++) {
+            if (delta < (1L << (slotBits * (level + 1)))) {
+                levels[level][slot(timer.deadlineTick, level)].add(timer);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Deadline is after the horizon of the wheel " + getHorizon());
+    }
+
+    private int slot(long tick, int level) {
+        return (int) ((tick >>> (slotBits * level)) & slotMask);
+    }
+
+    private void drain(Bucket<T> bucket, List<T> expired) {
+        for (Timer<T> timer = bucket.removeAll(); timer != null; ) {
+            Timer<T> next = timer.next;
+            timer.next = null;
+            timer.wheel = null;
+            size--;
+            expired.add(timer.value);
+            timer = next;
+        }
+    }
+
+    public static class Timer<T> {
+        private final T value;
+        private final long deadlineTick;
+        private TimingWheel<T> wheel;
+        private Bucket<T> bucket;
+        private Timer<T> prev;
+        private Timer<T> next;
+
+        private Timer(TimingWheel<T> wheel, T value, long deadlineTick) {
+            this.wheel = wheel;
+            this.value = value;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * Remove the timer from its wheel, in O(1)
+         *
+         * @return false if it has already expired or been cancelled
+         */
+        public boolean cancel() {
+            if (wheel == null) {
+                return false;
+            }
+            bucket.remove(this);
+            wheel.size--;
+            wheel = null;
+            return true;
+        }
+    }
+
+    /**
+     * Doubly linked list of timers
+     */
+    private static class Bucket<T> {
+        private Timer<T> head;
+        private Timer<T> tail;
+
+        void add(Timer<T> timer) {
+            timer.bucket = this;
+            timer.prev = tail;
+            timer.next = null;
+            if (tail == null) {
+                head = timer;
+            } else {
+                tail.next = timer;
+            }
+            tail = timer;
+        }
+
+        void remove(Timer<T> timer) {
+            if (timer.prev == null) {
+                head = timer.next;
+            } else {
+                timer.prev.next = timer.next;
+            }
+            if (timer.next == null) {
+                tail = timer.prev;
+            } else {
+                timer.next.prev = timer.prev;
+            }
+            timer.prev = null;
+            timer.next = null;
+            timer.bucket = null;
+        }
+
+        /**
+         * Empty the bucket
+         *
+         * @return first timer of what it held, still linked to the rest by {@code next}
+         */
+        Timer<T> removeAll() {
+            Timer<T> first = head;
+            for (Timer<T> timer = first; timer != null; timer = timer.next) {
+                timer.prev = null;
+                timer.bucket = null;
+            }
+            head = null;
+            tail = null;
+            return first;
+        }
+
+        void forEach(List<T> values) {
+            for (Timer<T> timer = head; timer != null; timer = timer.next) {
+                values.add(timer.value);
+            }
+        }
+    }
+}
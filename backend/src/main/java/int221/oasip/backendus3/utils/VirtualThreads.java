@@ -0,0 +1,53 @@
+package int221.oasip.backendus3.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads, looked up reflectively so the application still compiles and runs on JDKs without them.
+ */
+public final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param name prefix of the thread names, followed by a counter
+     * @throws IllegalStateException if the JDK has no virtual threads
+     */
+    public static ThreadFactory factory(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need JDK 21 or later, running on " + Runtime.version(), e);
+        }
+    }
+
+    /**
+     * An executor that starts a new virtual thread for every task, there is no pool to size.
+     *
+     * @throws IllegalStateException if the JDK has no virtual threads
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String name) {
+        ThreadFactory factory = factory(name);
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need JDK 21 or later, running on " + Runtime.version(), e);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+-- Reminders and digests that a backend instance has taken on to send, see ReminderService.
+-- Claims are deleted a week after they were made, long after their event has started.
+
+CREATE TABLE IF NOT EXISTS `mailClaim` (
+  `claimKey` VARCHAR(64) NOT NULL,
+  `claimedAt` DATETIME NOT NULL,
+  PRIMARY KEY (`claimKey`),
+  INDEX `mailClaim_claimedAt_idx` (`claimedAt` ASC) VISIBLE)
+ENGINE = InnoDB;
@@ -0,0 +1,42 @@
+-- Slots of each category that bookings claim, see EventSlotRepository. The unique index refuses a second booking
+-- of the same slot, whichever instance makes it.
+--
+-- The slots of existing events are claimed at the default event.slot-minutes of 1. Events that already overlap each
+-- other keep only the slots that were claimed first.
+
+CREATE TABLE IF NOT EXISTS `eventSlot` (
+  `eventSlotId` BIGINT NOT NULL AUTO_INCREMENT,
+  `eventCategoryId` INT NOT NULL,
+  `slotStart` DATETIME NOT NULL,
+  `eventId` INT NOT NULL,
+  PRIMARY KEY (`eventSlotId`),
+  UNIQUE INDEX `eventSlot_category_slotStart_UNIQUE` (`eventCategoryId` ASC, `slotStart` ASC) VISIBLE,
+  INDEX `fk_eventSlot_event1_idx` (`eventId` ASC) VISIBLE,
+  CONSTRAINT `fk_eventSlot_eventCategory1`
+    FOREIGN KEY (`eventCategoryId`)
+    REFERENCES `eventCategory` (`eventCategoryId`)
+    ON DELETE NO ACTION
+    ON UPDATE NO ACTION,
+  CONSTRAINT `fk_eventSlot_event1`
+    FOREIGN KEY (`eventId`)
+    REFERENCES `event` (`eventId`)
+    ON DELETE CASCADE
+    ON UPDATE NO ACTION)
+ENGINE = InnoDB;
+
+INSERT IGNORE INTO `eventSlot` (`eventCategoryId`, `slotStart`, `eventId`)
+WITH RECURSIVE slots (eventId, eventCategoryId, slotStart, endTime) AS (
+  SELECT
+    eventId,
+    eventCategoryId,
+    DATE_FORMAT(eventStartTime, '%Y-%m-%d %H:%i:00'),
+    TIMESTAMPADD(MINUTE, eventDuration, eventStartTime)
+  FROM `event`
+  UNION ALL
+  SELECT eventId, eventCategoryId, TIMESTAMPADD(MINUTE, 1, slotStart), endTime
+  FROM slots
+  WHERE TIMESTAMPADD(MINUTE, 1, slotStart) < endTime
+)
+SELECT eventCategoryId, slotStart, eventId
+FROM slots
+ORDER BY eventId, slotStart;
@@ -0,0 +1,41 @@
+-- Recurring bookings, stored as a rule that is expanded when read, see EventSeriesService.
+-- Occurrences cancelled one at a time are kept as exceptions of their series.
+
+CREATE TABLE IF NOT EXISTS `eventSeries` (
+  `eventSeriesId` INT NOT NULL AUTO_INCREMENT,
+  `userId` INT NULL,
+  `eventCategoryId` INT NOT NULL,
+  `bookingName` VARCHAR(100) NOT NULL,
+  `bookingEmail` VARCHAR(50) NOT NULL,
+  `eventNotes` VARCHAR(500) NULL,
+  `firstStartTime` DATETIME NOT NULL,
+  `eventDuration` INT NOT NULL,
+  `intervalWeeks` INT NOT NULL,
+  `untilTime` DATETIME NOT NULL,
+  PRIMARY KEY (`eventSeriesId`),
+  INDEX `eventSeries_category_firstStartTime_idx` (`eventCategoryId` ASC, `firstStartTime` ASC) VISIBLE,
+  INDEX `fk_eventSeries_user1_idx` (`userId` ASC) VISIBLE,
+  CONSTRAINT `fk_eventSeries_eventCategory1`
+    FOREIGN KEY (`eventCategoryId`)
+    REFERENCES `eventCategory` (`eventCategoryId`)
+    ON DELETE NO ACTION
+    ON UPDATE NO ACTION,
+  CONSTRAINT `fk_eventSeries_user1`
+    FOREIGN KEY (`userId`)
+    REFERENCES `user` (`userId`)
+    ON DELETE SET NULL
+    ON UPDATE NO ACTION)
+ENGINE = InnoDB;
+
+CREATE TABLE IF NOT EXISTS `eventSeriesException` (
+  `eventSeriesExceptionId` INT NOT NULL AUTO_INCREMENT,
+  `eventSeriesId` INT NOT NULL,
+  `occurrenceStartTime` DATETIME NOT NULL,
+  PRIMARY KEY (`eventSeriesExceptionId`),
+  UNIQUE INDEX `eventSeriesException_series_occurrence_UNIQUE` (`eventSeriesId` ASC, `occurrenceStartTime` ASC) VISIBLE,
+  CONSTRAINT `fk_eventSeriesException_eventSeries1`
+    FOREIGN KEY (`eventSeriesId`)
+    REFERENCES `eventSeries` (`eventSeriesId`)
+    ON DELETE CASCADE
+    ON UPDATE NO ACTION)
+ENGINE = InnoDB;
@@ -0,0 +1,27 @@
+-- Per-day counts of the calendar, read instead of the event table when calendar.summary.enabled is set, see
+-- CalendarService. Existing events are counted at the default calendar.summary.zone-offset of +07:00.
+-- The counts are only kept up to date while the summary is enabled, db/scripts/event-day-summary-backfill.sql
+-- counts them again before enabling it later.
+
+CREATE TABLE IF NOT EXISTS `eventDaySummary` (
+  `summaryDate` DATE NOT NULL,
+  `eventCategoryId` INT NOT NULL,
+  `eventCount` INT NOT NULL DEFAULT 0,
+  `bookedMinutes` INT NOT NULL DEFAULT 0,
+  PRIMARY KEY (`summaryDate`, `eventCategoryId`),
+  INDEX `fk_eventDaySummary_eventCategory1_idx` (`eventCategoryId` ASC) VISIBLE,
+  CONSTRAINT `fk_eventDaySummary_eventCategory1`
+    FOREIGN KEY (`eventCategoryId`)
+    REFERENCES `eventCategory` (`eventCategoryId`)
+    ON DELETE NO ACTION
+    ON UPDATE NO ACTION)
+ENGINE = InnoDB;
+
+INSERT INTO `eventDaySummary` (`summaryDate`, `eventCategoryId`, `eventCount`, `bookedMinutes`)
+SELECT
+  CAST(TIMESTAMPADD(MINUTE, 7 * 60, eventStartTime) AS DATE) AS summaryDate,
+  eventCategoryId,
+  COUNT(*),
+  SUM(eventDuration)
+FROM `event`
+GROUP BY summaryDate, eventCategoryId;
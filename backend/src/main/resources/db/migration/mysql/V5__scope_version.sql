@@ -0,0 +1,9 @@
+-- Change counters per category and per user that ETags are made of, see ScopeVersionService. A scope is at
+-- version 0 until its first change inserts its row.
+
+CREATE TABLE IF NOT EXISTS `scopeVersion` (
+  `scopeType` VARCHAR(20) NOT NULL,
+  `scopeKey` VARCHAR(50) NOT NULL,
+  `version` BIGINT NOT NULL DEFAULT 0,
+  PRIMARY KEY (`scopeType`, `scopeKey`))
+ENGINE = InnoDB;
@@ -0,0 +1,5 @@
+-- Full-text index of GET /api/events/search, see EventSearchTest.
+-- The first full-text index of a table rebuilds it and locks it against writes while it does.
+
+ALTER TABLE `event`
+  ADD FULLTEXT INDEX `event_search_idx` (`bookingName`, `bookingEmail`, `eventNotes`);
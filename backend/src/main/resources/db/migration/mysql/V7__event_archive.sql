@@ -0,0 +1,32 @@
+-- Archive of past events, and the start time index the archive job scans, see EventArchiveService.
+-- The job moves events once event.archive.after-days have passed since they started.
+
+ALTER TABLE `event`
+  ADD INDEX `event_startTime_idx` (`eventStartTime` ASC),
+  ALGORITHM = INPLACE, LOCK = NONE;
+
+CREATE TABLE IF NOT EXISTS `eventArchive` (
+  `eventId` INT NOT NULL,
+  `bookingName` VARCHAR(100) NOT NULL,
+  `bookingEmail` VARCHAR(50) NOT NULL,
+  `eventStartTime` DATETIME NOT NULL,
+  `eventDuration` INT NOT NULL,
+  `eventNotes` VARCHAR(500) NULL,
+  `eventCategoryId` INT NOT NULL,
+  `userId` INT NULL DEFAULT NULL,
+  `bucketUuid` VARCHAR(36) NULL,
+  PRIMARY KEY (`eventId`),
+  INDEX `eventArchive_startTime_idx` (`eventStartTime` ASC) VISIBLE,
+  INDEX `fk_eventArchive_eventCategory_idx` (`eventCategoryId` ASC) VISIBLE,
+  INDEX `fk_eventArchive_user1_idx` (`userId` ASC) VISIBLE,
+  CONSTRAINT `fk_eventArchive_eventCategory`
+    FOREIGN KEY (`eventCategoryId`)
+    REFERENCES `eventCategory` (`eventCategoryId`)
+    ON DELETE NO ACTION
+    ON UPDATE NO ACTION,
+  CONSTRAINT `fk_eventArchive_user1`
+    FOREIGN KEY (`userId`)
+    REFERENCES `user` (`userId`)
+    ON DELETE SET NULL
+    ON UPDATE NO ACTION)
+ENGINE = InnoDB;
@@ -0,0 +1,18 @@
+-- Queue of upload directories to delete, and the indexes the orphan reconciler looks bucket uuids up with, see
+-- FileCleanupService.
+
+ALTER TABLE `event`
+  ADD INDEX `event_bucketUuid_idx` (`bucketUuid` ASC),
+  ALGORITHM = INPLACE, LOCK = NONE;
+
+ALTER TABLE `eventArchive`
+  ADD INDEX `eventArchive_bucketUuid_idx` (`bucketUuid` ASC),
+  ALGORITHM = INPLACE, LOCK = NONE;
+
+CREATE TABLE IF NOT EXISTS `fileCleanup` (
+  `bucketUuid` VARCHAR(36) NOT NULL,
+  `dueAt` DATETIME NOT NULL,
+  `attempts` INT NOT NULL DEFAULT 0,
+  PRIMARY KEY (`bucketUuid`),
+  INDEX `fileCleanup_dueAt_idx` (`dueAt` ASC) VISIBLE)
+ENGINE = InnoDB;
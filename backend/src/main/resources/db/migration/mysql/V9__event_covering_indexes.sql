@@ -0,0 +1,27 @@
+-- Indexes for the queries of EventRepository, see EventQueryPlanTest.
+-- The indexes replaced here were added by V1, V7 and V8.
+--
+-- (eventCategoryId, eventStartTime) and (userId, eventStartTime) serve the foreign keys too, so the single column
+-- indexes they start with are dropped. (eventStartTime, eventCategoryId, userId, eventDuration) replaces the
+-- eventStartTime index and covers the day counts of the calendar and the ids the archive job selects.
+--
+-- LOCK = NONE is not possible here: dropping the index of a foreign key in the same statement that adds the index
+-- taking it over needs the table locked for writes. LOCK = SHARED still allows reads while the indexes are built.
+
+ALTER TABLE `event`
+  ADD INDEX `event_category_startTime_idx` (`eventCategoryId` ASC, `eventStartTime` ASC),
+  ADD INDEX `event_user_startTime_idx` (`userId` ASC, `eventStartTime` ASC),
+  ADD INDEX `event_startTime_covering_idx` (`eventStartTime` ASC, `eventCategoryId` ASC, `userId` ASC, `eventDuration` ASC),
+  DROP INDEX `fk_event_eventCategory_idx`,
+  DROP INDEX `fk_event_user1_idx`,
+  DROP INDEX `event_startTime_idx`,
+  ALGORITHM = INPLACE, LOCK = SHARED;
+
+ALTER TABLE `eventArchive`
+  ADD INDEX `eventArchive_category_startTime_idx` (`eventCategoryId` ASC, `eventStartTime` ASC),
+  ADD INDEX `eventArchive_user_startTime_idx` (`userId` ASC, `eventStartTime` ASC),
+  ADD INDEX `eventArchive_startTime_covering_idx` (`eventStartTime` ASC, `eventCategoryId` ASC, `userId` ASC, `eventDuration` ASC),
+  DROP INDEX `fk_eventArchive_eventCategory_idx`,
+  DROP INDEX `fk_eventArchive_user1_idx`,
+  DROP INDEX `eventArchive_startTime_idx`,
+  ALGORITHM = INPLACE, LOCK = SHARED;
@@ -0,0 +1,97 @@
+package int221.oasip.backendus3;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import int221.oasip.backendus3.dtos.EventResponse;
+import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.repository.EventCategoryRepository;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Logs in, books with an attachment and downloads it through HTTP. The native profile runs it in the native image
+ * too ({@code mvn -Pnative test}), where it catches reflection and resource configuration that is missing.
+ */
+@Tag("native")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:smoke;MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        // the migrations are written for MySQL, Hibernate creates the schema on H2
+        "spring.flyway.enabled=false",
+        "mail.disable=true",
+        "upload.path=target/smoke-uploads",
+        "JWT_SECRET=smoke-test-secret-that-is-long-enough-for-hs256",
+        "OASIP_JWT_ISSUER_URI=https://oasip.test",
+        "AZURE_CLIENT_ID=smoke-test",
+        "AZURE_TENANT_ID=smoke-test"
+})
+class NativeSmokeTest {
+    private static final String EMAIL = "smoke.student@mail.kmutt.ac.th";
+    private static final String PASSWORD = "smoke-test-1";
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+    @Autowired
+    private EventCategoryRepository categoryRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private Argon2PasswordEncoder passwordEncoder;
+
+    @Test
+    void loginBookAndDownload() {
+        EventCategory category = categoryRepository.save(new EventCategory("Smoke Test Clinic", null, 30));
+        // createdOn and updatedOn are set by MySQL, the schema H2 creates from the entities has no defaults
+        jdbcTemplate.update("INSERT INTO user (name, email, password, role, createdOn, updatedOn) VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)",
+                "Smoke Student", EMAIL, passwordEncoder.encode(PASSWORD), "STUDENT");
+
+        // LoginResponse has no default constructor to read it back into
+        ResponseEntity<JsonNode> login = restTemplate.postForEntity("/api/auth/login", Map.of("email", EMAIL, "password", PASSWORD), JsonNode.class);
+        assertEquals(HttpStatus.OK, login.getStatusCode());
+        assertNotNull(login.getBody());
+
+        byte[] content = "native smoke test attachment".getBytes(StandardCharsets.UTF_8);
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        form.add("eventCategoryId", category.getId());
+        form.add("bookingName", "Smoke Student");
+        form.add("bookingEmail", EMAIL);
+        form.add("eventStartTime", OffsetDateTime.now(ZoneOffset.UTC).plusDays(1).truncatedTo(ChronoUnit.HOURS).toString());
+        form.add("file", new ByteArrayResource(content) {
+            @Override
+            public String getFilename() {
+                return "notes.txt";
+            }
+        });
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(login.getBody().get("accessToken").asText());
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        ResponseEntity<EventResponse> booking = restTemplate.postForEntity("/api/events", new HttpEntity<>(form, headers), EventResponse.class);
+        assertEquals(HttpStatus.CREATED, booking.getStatusCode());
+        assertNotNull(booking.getBody());
+        assertNotNull(booking.getBody().getBucketUuid());
+
+        ResponseEntity<byte[]> download = restTemplate.getForEntity("/api/events/files/" + booking.getBody().getBucketUuid(), byte[].class);
+        assertEquals(HttpStatus.OK, download.getStatusCode());
+        assertEquals(new String(content, StandardCharsets.UTF_8), new String(download.getBody(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,168 @@
+package int221.oasip.backendus3;
+
+import lombok.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the statements executed through its connections, with the parameters they were executed with.
+ * A batch is recorded once, when it is executed, with the number of statements in it.
+ * <p>
+ * Round trips are the executions and the commits and rollbacks, each of which waits for the database once.
+ */
+public class RecordingDataSource extends DelegatingDataSource {
+    private final List<RecordedStatement> statements = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger transactionEnds = new AtomicInteger();
+
+    public RecordingDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return record(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return record(super.getConnection(username, password));
+    }
+
+    /**
+     * Wraps the data source of a test context in a recording one, to be returned from a static {@code @Bean} method
+     */
+    public static BeanPostProcessor wrapDataSources() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return bean instanceof DataSource && !(bean instanceof RecordingDataSource) ? new RecordingDataSource((DataSource) bean) : bean;
+            }
+        };
+    }
+
+    public List<RecordedStatement> getStatements() {
+        synchronized (statements) {
+            return new ArrayList<>(statements);
+        }
+    }
+
+    /**
+     * @return number of statements, counting every statement of a batch
+     */
+    public int getStatementCount() {
+        return getStatements().stream().mapToInt(RecordedStatement::getBatchSize).sum();
+    }
+
+    public int getRoundTrips() {
+        return statements.size() + transactionEnds.get();
+    }
+
+    public void clear() {
+        statements.clear();
+        transactionEnds.set(0);
+    }
+
+    private Connection record(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            if (method.getName().equals("commit") || method.getName().equals("rollback")) {
+                transactionEnds.incrementAndGet();
+            }
+            Object result = invoke(connection, method, args);
+            if (result instanceof PreparedStatement) {
+                return record((PreparedStatement) result, (String) args[0]);
+            }
+            if (result instanceof Statement) {
+                return record((Statement) result);
+            }
+            return result;
+        });
+    }
+
+    private PreparedStatement record(PreparedStatement statement, String sql) {
+        List<Parameter> parameters = new ArrayList<>();
+        AtomicInteger batched = new AtomicInteger();
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parameters.add(new Parameter(method, args));
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            } else if (name.equals("addBatch")) {
+                batched.incrementAndGet();
+            } else if (name.equals("executeBatch") || name.equals("executeLargeBatch")) {
+                statements.add(new RecordedStatement(sql, List.copyOf(parameters), batched.getAndSet(0)));
+            } else if (name.startsWith("execute") && (args == null || args.length == 0)) {
+                statements.add(new RecordedStatement(sql, List.copyOf(parameters), 1));
+            }
+            return invoke(statement, method, args);
+        });
+    }
+
+    private Statement record(Statement statement) {
+        List<String> batch = new ArrayList<>();
+        return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Statement.class}, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.equals("addBatch")) {
+                batch.add((String) args[0]);
+            } else if (name.equals("executeBatch") || name.equals("executeLargeBatch")) {
+                statements.add(new RecordedStatement(String.join(";\n", batch), List.of(), batch.size()));
+                batch.clear();
+            } else if (name.startsWith("execute") && args != null && args[0] instanceof String) {
+                statements.add(new RecordedStatement((String) args[0], List.of(), 1));
+            }
+            return invoke(statement, method, args);
+        });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Value
+    public static class RecordedStatement {
+        String sql;
+        List<Parameter> parameters;
+        int batchSize;
+
+        public boolean isSelect() {
+            String start = sql.stripLeading().toLowerCase();
+            return start.startsWith("select") || start.startsWith("(select");
+        }
+
+        /**
+         * Set the parameters of this statement on another one, e.g. an EXPLAIN of it
+         */
+        public void bind(PreparedStatement statement) throws SQLException {
+            for (Parameter parameter : parameters) {
+                try {
+                    parameter.getSetter().invoke(statement, parameter.getArgs());
+                } catch (ReflectiveOperationException e) {
+                    throw new SQLException("Cannot bind " + parameter.getSetter().getName(), e);
+                }
+            }
+        }
+    }
+
+    @Value
+    public static class Parameter {
+        Method setter;
+        Object[] args;
+    }
+}
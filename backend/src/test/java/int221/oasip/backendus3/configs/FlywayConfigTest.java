@@ -0,0 +1,87 @@
+package int221.oasip.backendus3.configs;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationInfo;
+import org.flywaydb.core.api.MigrationInfoService;
+import org.flywaydb.core.api.configuration.Configuration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The tables are listed from H2, Flyway itself is mocked because the one in use cannot open H2 2.x databases
+ */
+class FlywayConfigTest {
+    private final FlywayMigrationStrategy strategy = new FlywayConfig().baselineVersion1Strategy();
+    private final Flyway flyway = mock(Flyway.class);
+    private final MigrationInfoService info = mock(MigrationInfoService.class);
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        Configuration configuration = mock(Configuration.class);
+        when(configuration.getDataSource()).thenReturn(dataSource);
+        when(configuration.getTable()).thenReturn("flyway_schema_history");
+        when(flyway.getConfiguration()).thenReturn(configuration);
+        when(flyway.info()).thenReturn(info);
+        when(info.pending()).thenReturn(new MigrationInfo[]{mock(MigrationInfo.class)});
+    }
+
+    @Test
+    void migrate_shouldBaselineTheSchemaOfTheEntrypointScript_beforeMigratingIt() {
+        createTables(FlywayConfig.VERSION_1_TABLES.toArray(new String[0]));
+
+        strategy.migrate(flyway);
+
+        InOrder inOrder = inOrder(flyway);
+        inOrder.verify(flyway).baseline();
+        inOrder.verify(flyway).migrate();
+    }
+
+    @Test
+    void migrate_shouldRefuse_whenTheSchemaIsNotTheOneOfTheEntrypointScript() {
+        createTables("event");
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> strategy.migrate(flyway));
+
+        assertTrue(e.getMessage().contains("eventCategory"));
+        verify(flyway, never()).baseline();
+        verify(flyway, never()).migrate();
+    }
+
+    @Test
+    void migrate_shouldRefuse_whenTheDatabaseIsEmpty() {
+        assertThrows(IllegalStateException.class, () -> strategy.migrate(flyway));
+
+        verify(flyway, never()).baseline();
+        verify(flyway, never()).migrate();
+    }
+
+    @Test
+    void migrate_shouldOnlyMigrate_whenTheDatabaseHasAHistory() {
+        // the tables of later versions do not matter once there is a history
+        createTables("flyway_schema_history", "event");
+
+        strategy.migrate(flyway);
+
+        verify(flyway, never()).baseline();
+        verify(flyway).migrate();
+    }
+
+    private void createTables(String... tables) {
+        for (String table : tables) {
+            jdbcTemplate.execute("CREATE TABLE \"" + table + "\" (id INT)");
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package int221.oasip.backendus3.configs;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class ReplicaRoutingDataSourceTest {
+    private final ReplicaRoutingDataSource dataSource = new ReplicaRoutingDataSource(mock(DataSource.class), mock(DataSource.class), 5);
+
+    @BeforeEach
+    void setUp() {
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("a@mail.kmutt.ac.th", null, List.of()));
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        new ArrayList<>(TransactionSynchronizationManager.getResourceMap().keySet()).forEach(TransactionSynchronizationManager::unbindResource);
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void usePrimary_shouldSendAReadOnlyTransactionToThePrimary_withoutPinningTheUser() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        assertEquals("REPLICA", dataSource.determineCurrentLookupKey().toString());
+
+        ReplicaRoutingDataSource.usePrimary();
+        assertEquals("PRIMARY", dataSource.determineCurrentLookupKey().toString());
+        complete();
+
+        // the next read-only transaction of the user goes to the replica again
+        TransactionSynchronizationManager.initSynchronization();
+        assertEquals("REPLICA", dataSource.determineCurrentLookupKey().toString());
+    }
+
+    @Test
+    void determineCurrentLookupKey_shouldPinTheUser_afterAReadWriteTransactionCommits() {
+        assertEquals("PRIMARY", dataSource.determineCurrentLookupKey().toString());
+        complete();
+
+        TransactionSynchronizationManager.initSynchronization();
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        assertEquals("PRIMARY", dataSource.determineCurrentLookupKey().toString());
+    }
+
+    private static void complete() {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+        synchronizations.forEach(it -> it.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        TransactionSynchronizationManager.clearSynchronization();
+        assertTrue(TransactionSynchronizationManager.getResourceMap().isEmpty());
+    }
+}
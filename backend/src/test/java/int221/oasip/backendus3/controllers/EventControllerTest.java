@@ -0,0 +1,143 @@
+package int221.oasip.backendus3.controllers;
+
+import int221.oasip.backendus3.dtos.CreateEventMultipartRequest;
+import int221.oasip.backendus3.dtos.EventResponse;
+import int221.oasip.backendus3.services.CalendarService;
+import int221.oasip.backendus3.services.EventSeriesService;
+import int221.oasip.backendus3.services.EventService;
+import int221.oasip.backendus3.services.IdempotencyService;
+import int221.oasip.backendus3.services.RenditionService;
+import int221.oasip.backendus3.services.ScopeVersionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Idempotency-Key handling of booking creation, as a guest, without the security filters
+ */
+class EventControllerTest {
+    private static final String START_TIME = Instant.now().plus(7, ChronoUnit.DAYS).truncatedTo(ChronoUnit.HOURS).toString();
+
+    private final EventService eventService = mock(EventService.class);
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        IdempotencyService idempotencyService = new IdempotencyService();
+        ReflectionTestUtils.setField(idempotencyService, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(idempotencyService, "maxKeys", 10);
+        ReflectionTestUtils.setField(idempotencyService, "waitSeconds", 1L);
+
+        EventController controller = new EventController(eventService, mock(EventSeriesService.class), mock(CalendarService.class),
+                mock(ScopeVersionService.class), mock(RenditionService.class), idempotencyService);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+        EventResponse created = new EventResponse();
+        created.setBookingName("Somchai Jaidee");
+        when(eventService.create(any(CreateEventMultipartRequest.class), anyBoolean(), anyBoolean())).thenReturn(created);
+    }
+
+    @Test
+    void create_shouldRejectABlankOrTooLongKey() throws Exception {
+        mockMvc.perform(booking("Somchai Jaidee").header("Idempotency-Key", " "))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(booking("Somchai Jaidee").header("Idempotency-Key", "k".repeat(256)))
+                .andExpect(status().isBadRequest());
+
+        verify(eventService, never()).create(any(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    void create_shouldBookEveryTime_withoutAKey() throws Exception {
+        mockMvc.perform(booking("Somchai Jaidee")).andExpect(status().isCreated());
+        mockMvc.perform(booking("Somchai Jaidee")).andExpect(status().isCreated());
+
+        verify(eventService, times(2)).create(any(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    void create_shouldReplayTheResponse_whenTheKeyIsSentAgain() throws Exception {
+        mockMvc.perform(booking("Somchai Jaidee").header("Idempotency-Key", "k".repeat(255)))
+                .andExpect(status().isCreated())
+                .andExpect(header().doesNotExist("Idempotent-Replayed"));
+
+        mockMvc.perform(booking("Somchai Jaidee").header("Idempotency-Key", "k".repeat(255)))
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Idempotent-Replayed", "true"))
+                .andExpect(jsonPath("$.bookingName").value("Somchai Jaidee"));
+
+        verify(eventService, times(1)).create(any(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    void create_shouldAnswer422_whenTheKeyIsSentWithAnotherBooking() throws Exception {
+        mockMvc.perform(booking("Somchai Jaidee").header("Idempotency-Key", "key-1"))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(booking("Somchai Rakdee").header("Idempotency-Key", "key-1"))
+                .andExpect(status().isUnprocessableEntity());
+
+        verify(eventService, times(1)).create(any(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    void create_shouldAnswer409_whenTheOriginalIsStillRunningAfterTheWait() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        EventResponse created = new EventResponse();
+        when(eventService.create(any(CreateEventMultipartRequest.class), anyBoolean(), anyBoolean())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return created;
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> original = executor.submit(() -> {
+                mockMvc.perform(booking("Somchai Jaidee").header("Idempotency-Key", "key-1"))
+                        .andExpect(status().isCreated());
+                return null;
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            mockMvc.perform(booking("Somchai Jaidee").header("Idempotency-Key", "key-1"))
+                    .andExpect(status().isConflict());
+
+            release.countDown();
+            original.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+        verify(eventService, times(1)).create(any(), anyBoolean(), anyBoolean());
+    }
+
+    private static MockHttpServletRequestBuilder booking(String bookingName) {
+        // jackson-dataformat-xml is on the classpath, the response is XML unless JSON is asked for
+        return multipart("/api/events")
+                .accept(MediaType.APPLICATION_JSON)
+                .param("eventCategoryId", "1")
+                .param("bookingName", bookingName)
+                .param("bookingEmail", "somchai.jaidee@mail.kmutt.ac.th")
+                .param("eventStartTime", START_TIME);
+    }
+}
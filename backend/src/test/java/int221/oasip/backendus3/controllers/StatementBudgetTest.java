@@ -0,0 +1,347 @@
+package int221.oasip.backendus3.controllers;
+
+import int221.oasip.backendus3.RecordingDataSource;
+import int221.oasip.backendus3.configs.OasipJwtProps;
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.entities.User;
+import int221.oasip.backendus3.repository.EventCategoryRepository;
+import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.UserRepository;
+import int221.oasip.backendus3.services.TokenService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultMatcher;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Limits the SQL statements and the round trips to the database of each endpoint, so a lazy association that is
+ * loaded per row, or a check that reads the same row again, fails the build instead of slowing down production.
+ * <p>
+ * Statements count every statement of a JDBC batch, round trips count a batch once and add the commits and rollbacks,
+ * see {@link RecordingDataSource}. Each budget lists what the endpoint is expected to run. The data has several rows
+ * wherever an endpoint returns a list, so a query per row goes over the budget.
+ * <p>
+ * A budget is the exact count of the endpoint: one that needs less fails too, so the budget is lowered with it and
+ * keeps catching the next regression.
+ * <p>
+ * Search runs on the MySQL FULLTEXT index, which H2 does not have; its query is checked by EventQueryPlanTest.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:budget;MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        // the migrations are written for MySQL, Hibernate creates the schema on H2
+        "spring.flyway.enabled=false",
+        "mail.disable=true",
+        "upload.path=target/budget-uploads",
+        // every request reads the versions behind its ETag, instead of some of them coming from the cache
+        "scope-version.cache-millis=0",
+        // its loads and claims run on the scheduler thread, in the middle of the requests being counted
+        "reminder.enabled=false",
+        "JWT_SECRET=budget-test-secret-that-is-long-enough-for-hs256",
+        "OASIP_JWT_ISSUER_URI=https://oasip.test",
+        "AZURE_CLIENT_ID=budget-test",
+        "AZURE_TENANT_ID=budget-test"
+})
+@AutoConfigureMockMvc
+class StatementBudgetTest {
+    private static final String ADMIN = "budget.admin@mail.kmutt.ac.th";
+    private static final String STUDENT = "budget.student@mail.kmutt.ac.th";
+    private static final String OTHER_STUDENT = "budget.other@mail.kmutt.ac.th";
+    private static final String LECTURER = "budget.lecturer@mail.kmutt.ac.th";
+    private static final String PASSWORD = "budget-test-1";
+    private static final Instant TOMORROW = Instant.now().plus(1, ChronoUnit.DAYS).truncatedTo(ChronoUnit.DAYS);
+
+    private static boolean seeded;
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private RecordingDataSource dataSource;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private EventCategoryRepository categoryRepository;
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private Argon2PasswordEncoder passwordEncoder;
+    @Autowired
+    private TokenService tokenService;
+    @Autowired
+    private OasipJwtProps jwtProps;
+
+    private List<EventCategory> categories;
+
+    @TestConfiguration
+    static class RecordingConfig {
+        @Bean
+        static BeanPostProcessor recordingDataSource() {
+            return RecordingDataSource.wrapDataSources();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        if (!seeded) {
+            seed();
+            seeded = true;
+        }
+        categories = categoryRepository.findAll();
+    }
+
+    @Test
+    void getCategories() throws Exception {
+        // categories version, categories
+        assertBudget(2, 4, get("/api/categories"));
+    }
+
+    @Test
+    void getLecturerCategories() throws Exception {
+        // user version, categories version, owned categories
+        assertBudget(3, 6, withToken(get("/api/categories/lecturer"), LECTURER, "LECTURER"));
+    }
+
+    @Test
+    void getAvailability() throws Exception {
+        // category, events and series of the days, which are then cached
+        Instant from = TOMORROW.plus(30, ChronoUnit.DAYS);
+        assertBudget(3, 4, get("/api/categories/{id}/availability", categories.get(2).getId())
+                .param("from", from.toString())
+                .param("to", from.plus(2, ChronoUnit.DAYS).toString()));
+    }
+
+    @Test
+    void updateCategory() throws Exception {
+        // category, update, category and categories versions
+        assertBudget(4, 5, withToken(patch("/api/categories/{id}", categories.get(2).getId()), ADMIN, "ADMIN")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"eventCategoryDescription\": \"Changed by the budget test\"}"));
+    }
+
+    @Test
+    void getEvents() throws Exception {
+        // all events with their categories
+        assertBudget(1, 2, withToken(get("/api/events"), ADMIN, "ADMIN"));
+        // user, events of the user with their categories
+        assertBudget(2, 3, withToken(get("/api/events"), STUDENT, "STUDENT"));
+        // user, owned categories, events of the categories
+        assertBudget(3, 4, withToken(get("/api/events"), LECTURER, "LECTURER"));
+    }
+
+    @Test
+    void getUpcomingEvents() throws Exception {
+        // user and categories versions for the ETag, then user, events, their categories in one batch, series
+        assertBudget(6, 9, withToken(get("/api/events").param("type", "upcoming"), STUDENT, "STUDENT"));
+    }
+
+    @Test
+    void getCalendar() throws Exception {
+        LocalDate from = LocalDate.ofInstant(TOMORROW, ZoneOffset.UTC);
+        // user, counts, series
+        assertBudget(3, 5, withToken(get("/api/events/calendar"), STUDENT, "STUDENT")
+                .param("from", from.toString())
+                .param("to", from.plusDays(7).toString())
+                .param("zoneOffset", "+07:00"));
+    }
+
+    @Test
+    void getEvent() throws Exception {
+        Integer id = ownEvent();
+        // event with its category
+        assertBudget(1, 2, withToken(get("/api/events/{id}", id), STUDENT, "STUDENT"));
+    }
+
+    @Test
+    void createEvent() throws Exception {
+        // category, user, series, insert, 30 one-minute slots in one batch, category and user versions,
+        // and the version of all bookings after the commit
+        assertBudget(37, 11, withToken(multipart("/api/events"), STUDENT, "STUDENT")
+                .param("eventCategoryId", categories.get(1).getId().toString())
+                .param("bookingName", "Budget Student")
+                .param("bookingEmail", STUDENT)
+                .param("eventStartTime", TOMORROW.plus(12, ChronoUnit.DAYS).atOffset(ZoneOffset.UTC).toString()), status().isCreated());
+    }
+
+    @Test
+    void updateEvent() throws Exception {
+        Integer id = ownEvent();
+        // event, update, category and user versions, and the version of all bookings after the commit
+        MockHttpServletRequestBuilder request = multipart("/api/events/{id}", id)
+                .with(it -> {
+                    it.setMethod("PATCH");
+                    return it;
+                })
+                .param("eventNotes", "Changed by the budget test");
+        assertBudget(5, 8, withToken(request, STUDENT, "STUDENT"));
+    }
+
+    @Test
+    void deleteEvent() throws Exception {
+        Integer id = ownEvent();
+        // event, release slots, category and user versions, delete, and the version of all bookings after the commit
+        assertBudget(6, 9, withToken(delete("/api/events/{id}", id), STUDENT, "STUDENT"));
+    }
+
+    @Test
+    void getUsers() throws Exception {
+        assertBudget(1, 2, withToken(get("/api/users"), ADMIN, "ADMIN"));
+    }
+
+    @Test
+    void createUser() throws Exception {
+        // name and email checks, insert, generated timestamps
+        assertBudget(4, 5, withToken(post("/api/users"), ADMIN, "ADMIN")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\": \"Budget New\", \"email\": \"budget.new@mail.kmutt.ac.th\", \"password\": \"budget-test-2\", \"role\": \"student\"}"), status().isCreated());
+    }
+
+    @Test
+    void updateUser() throws Exception {
+        Integer id = newUser("Budget Update", "budget.update@mail.kmutt.ac.th");
+        // user, user version, update, generated timestamps
+        assertBudget(4, 5, withToken(patch("/api/users/{id}", id), ADMIN, "ADMIN")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"role\": \"lecturer\"}"));
+    }
+
+    @Test
+    void deleteUser() throws Exception {
+        Integer id = newUser("Budget Delete", "budget.delete@mail.kmutt.ac.th");
+        assertBudget(1, 2, withToken(delete("/api/users/{id}", id), ADMIN, "ADMIN"), status().isNoContent());
+    }
+
+    @Test
+    void login() throws Exception {
+        // the user of the email
+        assertBudget(1, 1, post("/api/auth/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"email\": \"" + STUDENT + "\", \"password\": \"" + PASSWORD + "\"}"));
+    }
+
+    private void assertBudget(int maxStatements, int maxRoundTrips, RequestBuilder request) throws Exception {
+        assertBudget(maxStatements, maxRoundTrips, request, status().isOk());
+    }
+
+    private void assertBudget(int maxStatements, int maxRoundTrips, RequestBuilder request, ResultMatcher expectedStatus) throws Exception {
+        dataSource.clear();
+        mockMvc.perform(request).andExpect(expectedStatus);
+
+        int statements = dataSource.getStatementCount();
+        int roundTrips = dataSource.getRoundTrips();
+        String executed = dataSource.getStatements().stream()
+                .map(it -> (it.getBatchSize() > 1 ? it.getBatchSize() + " x " : "") + it.getSql())
+                .collect(Collectors.joining("\n"));
+        if (statements > maxStatements || roundTrips > maxRoundTrips) {
+            fail(statements + " statements in " + roundTrips + " round trips, the budget is " + maxStatements + " in " + maxRoundTrips + ":\n" + executed);
+        }
+        if (statements < maxStatements || roundTrips < maxRoundTrips) {
+            fail(statements + " statements in " + roundTrips + " round trips, lower the budget of " + maxStatements + " in " + maxRoundTrips + " to them:\n" + executed);
+        }
+    }
+
+    private <T extends MockHttpServletRequestBuilder> T withToken(T request, String email, String role) {
+        Instant now = Instant.now();
+        JwtClaimsSet claims = JwtClaimsSet.builder()
+                .issuer(jwtProps.getIssueUri())
+                .subject(email)
+                .claim("role", role)
+                .issuedAt(now)
+                .expiresAt(now.plus(5, ChronoUnit.MINUTES))
+                .build();
+        String token = tokenService.getEncoder()
+                .encode(JwtEncoderParameters.from(JwsHeader.with(MacAlgorithm.HS256).build(), claims))
+                .getTokenValue();
+        request.header(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+        return request;
+    }
+
+    private Integer ownEvent() {
+        User student = userRepository.findByEmail(STUDENT).orElseThrow();
+        Event event = event(categories.get(0), student, TOMORROW.plus(20, ChronoUnit.DAYS));
+        eventRepository.insertAll(List.of(event));
+        return event.getId();
+    }
+
+    private Integer newUser(String name, String email) {
+        jdbcTemplate.update("INSERT INTO user (name, email, password, role) VALUES (?, ?, ?, ?)", name, email, "not-a-hash", "STUDENT");
+        return userRepository.findByEmail(email).orElseThrow().getId();
+    }
+
+    private void seed() {
+        // createdOn and updatedOn are set by MySQL, the schema H2 creates from the entities has no defaults
+        jdbcTemplate.execute("ALTER TABLE user ALTER COLUMN createdOn SET DEFAULT CURRENT_TIMESTAMP");
+        jdbcTemplate.execute("ALTER TABLE user ALTER COLUMN updatedOn SET DEFAULT CURRENT_TIMESTAMP");
+
+        List<EventCategory> categories = categoryRepository.saveAll(List.of(
+                new EventCategory("Budget Clinic A", null, 30),
+                new EventCategory("Budget Clinic B", null, 30),
+                new EventCategory("Budget Clinic C", null, 30)));
+
+        String password = passwordEncoder.encode(PASSWORD);
+        for (String[] user : new String[][]{{"Budget Admin", ADMIN, "ADMIN"}, {"Budget Student", STUDENT, "STUDENT"},
+                {"Budget Other", OTHER_STUDENT, "STUDENT"}, {"Budget Lecturer", LECTURER, "LECTURER"}}) {
+            jdbcTemplate.update("INSERT INTO user (name, email, password, role) VALUES (?, ?, ?, ?)", user[0], user[1], password, user[2]);
+        }
+        User student = userRepository.findByEmail(STUDENT).orElseThrow();
+        User other = userRepository.findByEmail(OTHER_STUDENT).orElseThrow();
+        User lecturer = userRepository.findByEmail(LECTURER).orElseThrow();
+
+        for (EventCategory category : categories.subList(0, 2)) {
+            jdbcTemplate.update("INSERT INTO eventCategoryOwner (userId, eventCategoryId) VALUES (?, ?)", lecturer.getId(), category.getId());
+        }
+
+        // several events of each user in each owned category, in the past and upcoming
+        List<Event> events = new ArrayList<>();
+        for (int day = -3; day < 6; day++) {
+            EventCategory category = categories.get(Math.floorMod(day, 2));
+            events.add(event(category, student, TOMORROW.plus(day, ChronoUnit.DAYS).plus(9, ChronoUnit.HOURS)));
+            events.add(event(category, other, TOMORROW.plus(day, ChronoUnit.DAYS).plus(10, ChronoUnit.HOURS)));
+        }
+        eventRepository.insertAll(events);
+    }
+
+    private static Event event(EventCategory category, User user, Instant startTime) {
+        Event event = new Event();
+        event.setBookingName(user.getName());
+        event.setBookingEmail(user.getEmail());
+        event.setEventStartTime(startTime);
+        event.setEventDuration(category.getEventDuration());
+        event.setEventCategory(category);
+        event.setUser(user);
+        return event;
+    }
+}
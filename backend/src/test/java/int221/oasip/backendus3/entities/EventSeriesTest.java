@@ -0,0 +1,99 @@
+package int221.oasip.backendus3.entities;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventSeriesTest {
+    // a Monday
+    private static final Instant T = Instant.parse("2030-01-07T08:00:00Z");
+
+    @Test
+    void getOccurrenceStartTimes_shouldOnlyExpandTheRequestedRange() {
+        EventSeries series = series(T, 60, 2, weeks(6));
+
+        assertEquals(List.of(weeks(2), weeks(4)), series.getOccurrenceStartTimes(T.plus(1, ChronoUnit.DAYS), weeks(5)));
+        assertEquals(List.of(T, weeks(2)), series.getOccurrenceStartTimes(T.minus(30, ChronoUnit.DAYS), weeks(3)));
+        // the until time is exclusive
+        assertEquals(List.of(T, weeks(2), weeks(4)), series.getOccurrenceStartTimes(T, weeks(10)));
+    }
+
+    @Test
+    void getOccurrenceStartTimes_shouldSkipCancelledOccurrences() {
+        EventSeries series = series(T, 60, 2, weeks(6));
+        series.getExceptions().add(new EventSeriesException(series, weeks(2)));
+
+        assertEquals(List.of(T, weeks(4)), series.getOccurrenceStartTimes(T, weeks(6)));
+    }
+
+    @Test
+    void findOverlappingOccurrence_shouldFindTheOccurrenceAroundTheRange() {
+        EventSeries series = series(T, 60, 1, weeks(4));
+
+        assertEquals(Optional.of(weeks(1)), series.findOverlappingOccurrence(weeks(1).minus(30, ChronoUnit.MINUTES), weeks(1).plus(1, ChronoUnit.MINUTES)));
+        assertEquals(Optional.of(weeks(1)), series.findOverlappingOccurrence(weeks(1).plus(59, ChronoUnit.MINUTES), weeks(1).plus(90, ChronoUnit.MINUTES)));
+        // ranges that only touch an occurrence do not overlap it
+        assertEquals(Optional.empty(), series.findOverlappingOccurrence(weeks(1).plus(60, ChronoUnit.MINUTES), weeks(1).plus(90, ChronoUnit.MINUTES)));
+        assertEquals(Optional.empty(), series.findOverlappingOccurrence(weeks(1).minus(30, ChronoUnit.MINUTES), weeks(1)));
+    }
+
+    @Test
+    void findOverlappingOccurrence_shouldIgnoreRangesOutsideTheSeries() {
+        EventSeries series = series(T, 60, 1, weeks(4));
+        series.getExceptions().add(new EventSeriesException(series, weeks(2)));
+
+        assertEquals(Optional.of(T), series.findOverlappingOccurrence(T.minus(30, ChronoUnit.MINUTES), T.plus(30, ChronoUnit.MINUTES)));
+        assertEquals(Optional.empty(), series.findOverlappingOccurrence(T.minus(7, ChronoUnit.DAYS), T.minus(7, ChronoUnit.DAYS).plus(60, ChronoUnit.MINUTES)));
+        assertEquals(Optional.empty(), series.findOverlappingOccurrence(weeks(2), weeks(2).plus(60, ChronoUnit.MINUTES)));
+        assertEquals(Optional.empty(), series.findOverlappingOccurrence(weeks(4), weeks(4).plus(60, ChronoUnit.MINUTES)));
+    }
+
+    @Test
+    void mayOverlap_shouldCompareTheOffsetModuloTheGcdOfThePeriods() {
+        EventSeries everyTwoWeeks = series(T, 60, 2, weeks(20));
+
+        // same time of the week, but always in the other week
+        assertFalse(everyTwoWeeks.mayOverlap(series(weeks(1), 60, 2, weeks(21))));
+        // every 3 weeks from week 1 meets every 2 weeks from week 0 in week 4
+        assertTrue(everyTwoWeeks.mayOverlap(series(weeks(1), 60, 3, weeks(21))));
+        // 30 minutes later in a weekly series, within the 60 minutes of the occurrences
+        assertTrue(everyTwoWeeks.mayOverlap(series(T.plus(30, ChronoUnit.MINUTES), 60, 1, weeks(20))));
+        assertTrue(series(T.plus(30, ChronoUnit.MINUTES), 60, 1, weeks(20)).mayOverlap(everyTwoWeeks));
+    }
+
+    @Test
+    void mayOverlap_shouldCompareTheDurationOfTheSeriesThatStartsFirstInTheWeek() {
+        EventSeries weekly = series(T, 60, 1, weeks(20));
+
+        // starts 60 minutes before, so it overlaps only if it lasts longer than 60 minutes
+        assertTrue(weekly.mayOverlap(series(T.minus(60, ChronoUnit.MINUTES), 90, 1, weeks(20))));
+        assertFalse(weekly.mayOverlap(series(T.minus(60, ChronoUnit.MINUTES), 60, 1, weeks(20))));
+        assertFalse(weekly.mayOverlap(series(T.plus(60, ChronoUnit.MINUTES), 60, 1, weeks(20))));
+    }
+
+    @Test
+    void mayOverlap_shouldBeFalse_whenTheSeriesDoNotRunAtTheSameTime() {
+        EventSeries first = series(T, 60, 1, weeks(4));
+
+        assertFalse(first.mayOverlap(series(weeks(5), 60, 1, weeks(8))));
+        assertFalse(series(weeks(5), 60, 1, weeks(8)).mayOverlap(first));
+    }
+
+    private static Instant weeks(long weeks) {
+        return T.plus(7 * weeks, ChronoUnit.DAYS);
+    }
+
+    private static EventSeries series(Instant firstStartTime, int duration, int intervalWeeks, Instant untilTime) {
+        EventSeries series = new EventSeries();
+        series.setFirstStartTime(firstStartTime);
+        series.setEventDuration(duration);
+        series.setIntervalWeeks(intervalWeeks);
+        series.setUntilTime(untilTime);
+        return series;
+    }
+}
@@ -0,0 +1,198 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.entities.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.MountableFile;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Moves events to the archive on MySQL, whose {@code FOR UPDATE SKIP LOCKED} the embedded test database does not
+ * have, and reads them back.
+ * <p>
+ * Needs Docker, the test is skipped without it.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EventArchiveTest {
+    private static final Instant T = Instant.parse("2020-01-06T08:00:00Z");
+
+    @Container
+    private static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0")
+            .withDatabaseName("oasip")
+            .withCopyFileToContainer(MountableFile.forHostPath("../db/scripts/entrypoint/00-schema.sql"), "/docker-entrypoint-initdb.d/00-schema.sql")
+            .withUrlParam("connectionTimeZone", "SERVER");
+
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private EventCategoryRepository categoryRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private EntityManager entityManager;
+
+    private EventCategory category;
+    private User user;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", MYSQL::getJdbcUrl);
+        registry.add("spring.datasource.username", MYSQL::getUsername);
+        registry.add("spring.datasource.password", MYSQL::getPassword);
+    }
+
+    @BeforeEach
+    void setUp() {
+        category = categoryRepository.save(new EventCategory("Project Management Clinic", null, 30));
+        // createdOn and updatedOn have defaults in the schema
+        jdbcTemplate.update("INSERT INTO user (name, email, password, role) VALUES (?, ?, ?, ?)",
+                "Somchai Jaidee", "somchai.jaidee@mail.kmutt.ac.th", "not-a-hash", "STUDENT");
+        user = userRepository.findByEmail("somchai.jaidee@mail.kmutt.ac.th").orElseThrow();
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM eventArchive");
+        eventRepository.deleteAll();
+        categoryRepository.deleteAll();
+        jdbcTemplate.update("DELETE FROM user");
+    }
+
+    @Test
+    void archiveStartedBefore_shouldMoveTheOldestEventsUpToTheLimit() {
+        List<Event> events = insert(4);
+
+        assertEquals(2, (int) transactionTemplate.execute(status -> eventRepository.archiveStartedBefore(start(3), 2)));
+        assertEquals(List.of(events.get(0).getId(), events.get(1).getId()), archivedIds());
+
+        // only one more started before the time, so it is the last batch
+        assertEquals(1, (int) transactionTemplate.execute(status -> eventRepository.archiveStartedBefore(start(3), 2)));
+        assertEquals(0, (int) transactionTemplate.execute(status -> eventRepository.archiveStartedBefore(start(3), 2)));
+        assertEquals(List.of(events.get(3).getId()), jdbcTemplate.queryForList("SELECT eventId FROM event", Integer.class));
+    }
+
+    @Test
+    void archiveStartedBefore_shouldSkipEventsLockedByAnotherTransaction() throws Exception {
+        List<Event> events = insert(3);
+        Integer locked = events.get(0).getId();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch isLocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<?> holder = executor.submit(() -> transactionTemplate.execute(status -> {
+                jdbcTemplate.queryForList("SELECT eventId FROM event WHERE eventId = ? FOR UPDATE", Integer.class, locked);
+                isLocked.countDown();
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }));
+            assertTrue(isLocked.await(30, TimeUnit.SECONDS));
+
+            // returns without waiting for the lock
+            assertEquals(2, (int) transactionTemplate.execute(status -> eventRepository.archiveStartedBefore(start(10), 10)));
+            release.countDown();
+            holder.get(30, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        assertEquals(List.of(events.get(1).getId(), events.get(2).getId()), archivedIds());
+        assertEquals(List.of(locked), jdbcTemplate.queryForList("SELECT eventId FROM event", Integer.class));
+    }
+
+    @Test
+    void findArchivedById_shouldReturnAnEventThatIsNotManaged() {
+        Event archived = insert(1).get(0);
+        transactionTemplate.execute(status -> eventRepository.archiveStartedBefore(start(1), 10));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            Event found = eventRepository.findArchivedById(archived.getId()).orElseThrow();
+
+            assertFalse(entityManager.contains(found));
+            assertEquals(archived.getBookingName(), found.getBookingName());
+            assertEquals(archived.getEventStartTime(), found.getEventStartTime());
+            assertEquals(category.getId(), found.getEventCategory().getId());
+            assertEquals(category.getEventCategoryName(), found.getEventCategory().getEventCategoryName());
+            assertEquals(user.getId(), found.getUser().getId());
+        });
+        assertTrue(eventRepository.findArchivedById(archived.getId() + 1000).isEmpty());
+    }
+
+    @Test
+    void findPastEvents_shouldReturnTheArchivedEvents_withoutManagingThem() {
+        List<Event> events = insert(3);
+        transactionTemplate.execute(status -> eventRepository.archiveStartedBefore(start(1), 10));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            // the third event starts at that time, the unarchived events come first
+            List<Event> past = eventRepository.findPastEvents(start(2), null, user.getId());
+
+            assertEquals(List.of(events.get(1).getId(), events.get(0).getId()), past.stream().map(Event::getId).collect(Collectors.toList()));
+            assertTrue(entityManager.contains(past.get(0)));
+            assertFalse(entityManager.contains(past.get(1)));
+            assertEquals(category.getEventCategoryName(), past.get(1).getEventCategory().getEventCategoryName());
+        });
+        assertEquals(List.of(), eventRepository.findPastEvents(start(2), List.of(category.getId() + 1000), null));
+        assertEquals(List.of(), eventRepository.findPastEvents(start(2), null, user.getId() + 1000));
+    }
+
+    private List<Event> insert(int count) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Event event = new Event();
+            event.setEventCategory(category);
+            event.setUser(user);
+            event.setBookingName("Somchai Jaidee");
+            event.setBookingEmail("somchai.jaidee@mail.kmutt.ac.th");
+            event.setEventStartTime(start(i));
+            event.setEventDuration(30);
+            events.add(event);
+        }
+        eventRepository.insertAll(events);
+        return events;
+    }
+
+    private List<Integer> archivedIds() {
+        return jdbcTemplate.queryForList("SELECT eventId FROM eventArchive ORDER BY eventStartTime", Integer.class);
+    }
+
+    private static Instant start(int day) {
+        return T.plus(day, ChronoUnit.DAYS);
+    }
+}
@@ -0,0 +1,314 @@
+package int221.oasip.backendus3.repository;
+
+import int221.oasip.backendus3.RecordingDataSource;
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.entities.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.MountableFile;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Runs EXPLAIN for the queries of {@link EventRepository} on MySQL with the schema and the migrations, and fails when
+ * one of them reads a whole table. The tables are seeded with enough rows that MySQL prefers an index where there is
+ * one, and the queries are called with parameters that select a few of them, as the application does.
+ * <p>
+ * Needs Docker, the test is skipped without it.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EventQueryPlanTest {
+    private static final int CATEGORIES = 20;
+    private static final int USERS = 500;
+    private static final int EVENTS = 20_000;
+    private static final int ARCHIVED_EVENTS = 20_000;
+    private static final Instant FIRST_START = Instant.parse("2019-01-01T00:00:00Z");
+    private static final Instant ARCHIVE_FIRST_START = Instant.parse("2009-01-01T00:00:00Z");
+    private static final long SPAN_MINUTES = ChronoUnit.MINUTES.between(FIRST_START, Instant.parse("2029-12-31T00:00:00Z"));
+    /**
+     * a full scan of a table this small is cheaper than an index, so it is allowed
+     */
+    private static final long MAX_SCANNED_ROWS = 1000;
+
+    @Container
+    private static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0")
+            .withDatabaseName("oasip")
+            .withCopyFileToContainer(MountableFile.forHostPath("../db/scripts/entrypoint/00-schema.sql"), "/docker-entrypoint-initdb.d/00-schema.sql")
+            .withUrlParam("connectionTimeZone", "SERVER")
+            .withUrlParam("rewriteBatchedStatements", "true");
+
+    private static boolean seeded;
+
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private EventCategoryRepository categoryRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private RecordingDataSource dataSource;
+
+    private Integer categoryId;
+    private Integer userId;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", MYSQL::getJdbcUrl);
+        registry.add("spring.datasource.username", MYSQL::getUsername);
+        registry.add("spring.datasource.password", MYSQL::getPassword);
+    }
+
+    @TestConfiguration
+    static class RecordingConfig {
+        @Bean
+        static BeanPostProcessor recordingDataSource() {
+            return RecordingDataSource.wrapDataSources();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        if (!seeded) {
+            seed();
+            seeded = true;
+        }
+        categoryId = jdbcTemplate.queryForObject("SELECT MIN(eventCategoryId) FROM eventCategory", Integer.class);
+        userId = jdbcTemplate.queryForObject("SELECT MIN(userId) FROM user", Integer.class);
+        dataSource.clear();
+    }
+
+    @Test
+    void findById() {
+        Integer id = jdbcTemplate.queryForObject("SELECT MIN(eventId) FROM event", Integer.class);
+        assertUsesIndexes(() -> eventRepository.findById(id));
+    }
+
+    @Test
+    void findArchivedById() {
+        Integer id = jdbcTemplate.queryForObject("SELECT MIN(eventId) FROM eventArchive", Integer.class);
+        assertUsesIndexes(() -> eventRepository.findArchivedById(id));
+    }
+
+    @Test
+    void findOverlapEventsByCategoryId() {
+        Instant startAt = Instant.parse("2024-03-04T09:00:00Z");
+        assertUsesIndexes(() -> eventRepository.findOverlapEventsByCategoryId(startAt, startAt.plus(30, ChronoUnit.MINUTES), categoryId, null));
+    }
+
+    @Test
+    void findByDateRange() {
+        Instant from = Instant.parse("2024-03-04T00:00:00Z");
+        assertUsesIndexes(() -> eventRepository.findByDateRange(from, from.plus(1, ChronoUnit.DAYS), null, null));
+        assertUsesIndexes(() -> eventRepository.findByDateRange(from, from.plus(7, ChronoUnit.DAYS), List.of(categoryId), null));
+        assertUsesIndexes(() -> eventRepository.findByDateRange(from, from.plus(30, ChronoUnit.DAYS), null, userId));
+    }
+
+    @Test
+    void countByDay() {
+        Instant from = Instant.parse("2024-03-01T00:00:00Z");
+        assertUsesIndexes(() -> eventRepository.countByDay(from, from.plus(31, ChronoUnit.DAYS), 420, null, null));
+        assertUsesIndexes(() -> eventRepository.countByDay(from, from.plus(31, ChronoUnit.DAYS), 420, List.of(categoryId), userId));
+        Instant archived = Instant.parse("2015-03-01T00:00:00Z");
+        assertUsesIndexes(() -> eventRepository.countByDay(archived, archived.plus(31, ChronoUnit.DAYS), 420, null, null));
+    }
+
+    @Test
+    void findByEventCategory_IdAndUser_Id() {
+        assertUsesIndexes(() -> eventRepository.findByEventCategory_IdAndUser_Id(categoryId, null));
+        assertUsesIndexes(() -> eventRepository.findByEventCategory_IdAndUser_Id(categoryId, userId));
+    }
+
+    @Test
+    void findUpcomingAndOngoingEvents() {
+        // close to the last seeded event, upcoming events are a few of all events as they are in the application
+        Instant startAt = Instant.parse("2029-12-01T00:00:00Z");
+        assertUsesIndexes(() -> eventRepository.findUpcomingAndOngoingEvents(startAt, null, null));
+        assertUsesIndexes(() -> eventRepository.findUpcomingAndOngoingEvents(startAt, List.of(categoryId), null));
+        assertUsesIndexes(() -> eventRepository.findUpcomingAndOngoingEvents(Instant.parse("2024-03-04T00:00:00Z"), null, userId));
+    }
+
+    @Test
+    void findPastEvents() {
+        assertUsesIndexes(() -> eventRepository.findPastEvents(Instant.parse("2024-03-04T00:00:00Z"), null, userId));
+        assertUsesIndexes(() -> eventRepository.findPastEvents(Instant.parse("2009-02-01T00:00:00Z"), null, null));
+    }
+
+    @Test
+    void search() {
+        assertUsesIndexes(() -> eventRepository.search("+booker7*", null, null, PageRequest.of(0, 20)));
+        assertUsesIndexes(() -> eventRepository.search("+booker7*", List.of(categoryId), userId, PageRequest.of(1, 20)));
+    }
+
+    @Test
+    void findUsedBucketUuids() {
+        List<String> bucketUuids = jdbcTemplate.queryForList("SELECT bucketUuid FROM event WHERE bucketUuid IS NOT NULL LIMIT 5", String.class);
+        bucketUuids.add(UUID.randomUUID().toString());
+        assertUsesIndexes(() -> eventRepository.findUsedBucketUuids(bucketUuids));
+    }
+
+    @Test
+    void streamByUserId() {
+        assertUsesIndexes(() -> transactionTemplate.execute(status -> {
+            try (Stream<Event> events = eventRepository.streamByUserId(userId)) {
+                return events.count();
+            }
+        }));
+    }
+
+    @Test
+    void streamByCategoryId() {
+        assertUsesIndexes(() -> transactionTemplate.execute(status -> {
+            try (Stream<Event> events = eventRepository.streamByCategoryId(categoryId)) {
+                return events.count();
+            }
+        }));
+    }
+
+    @Test
+    void findByUser_Id() {
+        assertUsesIndexes(() -> eventRepository.findByUser_Id(userId));
+    }
+
+    @Test
+    void findByEventCategory_IdIn() {
+        assertUsesIndexes(() -> eventRepository.findByEventCategory_IdIn(List.of(categoryId)));
+    }
+
+    @Test
+    void archiveStartedBefore() {
+        // nothing started before it, so the events are only selected and not moved
+        assertUsesIndexes(() -> transactionTemplate.execute(status -> eventRepository.archiveStartedBefore(FIRST_START, 100)));
+    }
+
+    private void assertUsesIndexes(Runnable query) {
+        dataSource.clear();
+        query.run();
+        List<RecordingDataSource.RecordedStatement> selects = dataSource.getStatements().stream()
+                .filter(RecordingDataSource.RecordedStatement::isSelect)
+                .collect(Collectors.toList());
+        assertFalse(selects.isEmpty(), "no query was run");
+
+        for (RecordingDataSource.RecordedStatement select : selects) {
+            List<String> scans = explain(select).stream()
+                    .filter(row -> "ALL".equals(row.type) && row.rows >= MAX_SCANNED_ROWS && row.table != null && !row.table.startsWith("<"))
+                    .map(row -> row.table + " (" + row.rows + " rows)")
+                    .collect(Collectors.toList());
+            if (!scans.isEmpty()) {
+                fail("Full table scan of " + String.join(", ", scans) + " in: " + select.getSql());
+            }
+        }
+    }
+
+    private List<PlanRow> explain(RecordingDataSource.RecordedStatement select) {
+        try (Connection connection = dataSource.getTargetDataSource().getConnection();
+             PreparedStatement statement = connection.prepareStatement("EXPLAIN " + select.getSql())) {
+            select.bind(statement);
+            List<PlanRow> rows = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    rows.add(new PlanRow(resultSet.getString("table"), resultSet.getString("type"), resultSet.getLong("rows")));
+                }
+            }
+            return rows;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot explain " + select.getSql(), e);
+        }
+    }
+
+    private void seed() {
+        for (int i = 0; i < CATEGORIES; i++) {
+            categoryRepository.save(new EventCategory("Clinic " + i, null, 30));
+        }
+        // createdOn and updatedOn have defaults in the schema
+        jdbcTemplate.batchUpdate("INSERT INTO user (name, email, password, role) VALUES (?, ?, ?, ?)",
+                IntStream.range(0, USERS)
+                        .mapToObj(i -> new Object[]{"User " + i, "user" + i + "@mail.kmutt.ac.th", "not-a-hash", i % 50 == 0 ? "LECTURER" : "STUDENT"})
+                        .collect(Collectors.toList()));
+
+        List<EventCategory> categories = categoryRepository.findAll();
+        List<User> users = userRepository.findAll();
+        Random random = new Random(46);
+
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < EVENTS; i++) {
+            Event event = new Event();
+            event.setBookingName("Booker" + i);
+            event.setBookingEmail("booker" + i + "@mail.kmutt.ac.th");
+            event.setEventStartTime(FIRST_START.plus(random.nextInt((int) SPAN_MINUTES), ChronoUnit.MINUTES));
+            event.setEventDuration(1 + random.nextInt(120));
+            event.setEventNotes(i % 3 == 0 ? "notes " + i : null);
+            event.setEventCategory(categories.get(random.nextInt(categories.size())));
+            event.setUser(i % 4 == 0 ? null : users.get(random.nextInt(users.size())));
+            event.setBucketUuid(i % 10 == 0 ? UUID.randomUUID().toString() : null);
+            events.add(event);
+        }
+        eventRepository.insertAll(events);
+
+        List<Object[]> archived = new ArrayList<>();
+        for (int i = 0; i < ARCHIVED_EVENTS; i++) {
+            Instant startTime = ARCHIVE_FIRST_START.plus(random.nextInt((int) SPAN_MINUTES), ChronoUnit.MINUTES);
+            archived.add(new Object[]{
+                    // ids the event table does not reach
+                    1_000_000 + i, "Archived" + i, "archived" + i + "@mail.kmutt.ac.th", Timestamp.from(startTime), 1 + random.nextInt(120), null,
+                    categories.get(random.nextInt(categories.size())).getId(),
+                    i % 4 == 0 ? null : users.get(random.nextInt(users.size())).getId(),
+                    i % 10 == 0 ? UUID.randomUUID().toString() : null
+            });
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO eventArchive (" + EventRepository.ARCHIVED_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)", archived);
+
+        jdbcTemplate.execute("ANALYZE TABLE eventCategory, user, event, eventArchive");
+    }
+
+    private static class PlanRow {
+        final String table;
+        final String type;
+        final long rows;
+
+        PlanRow(String table, String type, long rows) {
+            this.table = table;
+            this.type = type;
+            this.rows = rows;
+        }
+    }
+}
@@ -2,7 +2,6 @@ package int221.oasip.backendus3.repository;
 
 import int221.oasip.backendus3.entities.Event;
 import int221.oasip.backendus3.entities.EventCategory;
-import int221.oasip.backendus3.entities.User;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,6 +10,7 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 
 import java.time.Clock;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.Collections;
@@ -18,15 +18,21 @@ import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
-@DataJpaTest
-@AutoConfigureTestDatabase
+// the native queries need the MySQL mode of H2, and the migrations are written for MySQL, Hibernate creates the schema
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:repository;MODE=MySQL;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.flyway.enabled=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
 class EventRepositoryTest {
     private static final Clock FIXED_CLOCK = Clock.fixed(Instant.parse("2022-05-05T08:00:00Z"), ZoneId.systemDefault());
     @Autowired
     EventCategoryRepository categoryRepository;
     @Autowired
-    private UserRepository userRepository;
-    @Autowired
     private EventRepository eventRepository;
     private EventCategory category15MinutesA;
     private EventCategory category15MinutesB;
@@ -166,10 +172,32 @@ class EventRepositoryTest {
         assertEquals(0, events.size());
     }
 
+    @Test
+    void countByDay_shouldGroupEventsByDayAndCategory() {
+        Instant day1 = FIXED_CLOCK.instant();
+        Instant day2 = day1.plus(1, ChronoUnit.DAYS);
+        eventRepository.save(createEvent(category15MinutesA, day1));
+        eventRepository.save(createEvent(category15MinutesA, day1.plus(1, ChronoUnit.HOURS)));
+        eventRepository.save(createEvent(category15MinutesB, day1));
+        eventRepository.save(createEvent(category15MinutesA, day2));
+        eventRepository.save(createEvent(category15MinutesA, day2.plus(2, ChronoUnit.DAYS)));
+
+        List<EventDayCount> counts = eventRepository.countByDay(day1, day2.plus(1, ChronoUnit.HOURS), 0, null, null);
+
+        assertEquals(3, counts.size());
+        assertEquals(LocalDate.of(2022, 5, 5), counts.get(0).getEventDate());
+        assertEquals(category15MinutesA.getId(), counts.get(0).getCategoryId());
+        assertEquals(2, counts.get(0).getEventCount());
+        assertEquals(30, counts.get(0).getBookedMinutes());
+        assertEquals(LocalDate.of(2022, 5, 5), counts.get(1).getEventDate());
+        assertEquals(category15MinutesB.getId(), counts.get(1).getCategoryId());
+        assertEquals(1, counts.get(1).getEventCount());
+        assertEquals(LocalDate.of(2022, 5, 6), counts.get(2).getEventDate());
+        assertEquals(1, counts.get(2).getEventCount());
+    }
+
     private Event createEvent(EventCategory category, Instant startAt) {
-        Event event = new Event(category, "event name", "user@email.com", startAt, "event notes");
-        User proxy = userRepository.getById(0); // kinda hacky, but we don't care about the user for now
-        event.setUser(proxy);
-        return event;
+        // booked by a guest, the user does not matter to these queries
+        return new Event(category, "event name", "user@email.com", startAt, "event notes");
     }
 }
\ No newline at end of file
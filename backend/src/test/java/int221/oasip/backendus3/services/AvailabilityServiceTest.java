@@ -0,0 +1,121 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.exceptions.EntityNotFoundException;
+import int221.oasip.backendus3.exceptions.FieldNotValidException;
+import int221.oasip.backendus3.repository.EventCategoryRepository;
+import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.EventSeriesRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class AvailabilityServiceTest {
+    private static final Instant DAY = Instant.parse("2100-01-01T00:00:00Z");
+
+    private final EventCategoryRepository categoryRepository = mock(EventCategoryRepository.class);
+    private final EventRepository eventRepository = mock(EventRepository.class);
+    private final EventSeriesRepository seriesRepository = mock(EventSeriesRepository.class);
+    private final List<Event> events = new ArrayList<>();
+    private AvailabilityService service;
+    private EventCategory category;
+
+    @BeforeEach
+    void setUp() {
+        category = new EventCategory();
+        category.setId(1);
+        category.setEventDuration(30);
+        when(categoryRepository.findById(1)).thenReturn(Optional.of(category));
+        when(eventRepository.findByDateRange(any(), any(), any(), any())).thenAnswer(invocation -> new ArrayList<>(events));
+
+        service = new AvailabilityService(categoryRepository, eventRepository, seriesRepository);
+        ReflectionTestUtils.setField(service, "ttlSeconds", 60L);
+    }
+
+    @Test
+    void getFreeIntervals_shouldSkipGapsShorterThanOneBooking() {
+        events.add(event(at(10, 0), 60));
+        events.add(event(at(11, 20), 40));
+
+        // 11:00 to 11:20 is too short for a 30 minute booking
+        assertEquals(List.of(interval(at(9, 0), at(10, 0)), interval(at(12, 0), at(13, 0))), free(at(9, 0), at(13, 0)));
+    }
+
+    @Test
+    void getFreeIntervals_shouldJoinGapsAcrossMidnight() {
+        events.add(event(at(22, 0), 60));
+        events.add(event(at(24 + 1, 0), 60));
+
+        assertEquals(List.of(interval(at(23, 0), at(24 + 1, 0))), free(at(23, 0), at(24 + 2, 0)));
+    }
+
+    @Test
+    void getFreeIntervals_shouldKeepCachedDaysUpToDateFromChanges() {
+        assertEquals(List.of(interval(at(9, 0), at(12, 0))), free(at(9, 0), at(12, 0)));
+
+        Event booked = event(at(10, 0), 60);
+        service.onEventChanged(EventChangedEvent.created(booked));
+        assertEquals(List.of(interval(at(9, 0), at(10, 0)), interval(at(11, 0), at(12, 0))), free(at(9, 0), at(12, 0)));
+
+        service.onEventChanged(EventChangedEvent.deleted(booked));
+        assertEquals(List.of(interval(at(9, 0), at(12, 0))), free(at(9, 0), at(12, 0)));
+        verify(eventRepository, times(1)).findByDateRange(any(), any(), any(), any());
+    }
+
+    @Test
+    void getFreeIntervals_shouldNotCacheDays_whenAChangeCommitsAfterTheSnapshot() {
+        Event booked = event(at(10, 0), 60);
+        // the booking commits after the category was read, so the query does not see it
+        when(categoryRepository.findById(1)).thenAnswer(invocation -> {
+            service.onEventChanged(EventChangedEvent.created(booked));
+            return Optional.of(category);
+        }).thenReturn(Optional.of(category));
+
+        service.getFreeIntervals(1, at(9, 0), at(12, 0));
+        events.add(booked);
+
+        assertEquals(List.of(interval(at(9, 0), at(10, 0)), interval(at(11, 0), at(12, 0))), free(at(9, 0), at(12, 0)));
+        verify(eventRepository, times(2)).findByDateRange(any(), any(), any(), any());
+    }
+
+    @Test
+    void getFreeIntervals_shouldRejectInvalidRanges() {
+        assertThrows(FieldNotValidException.class, () -> free(at(12, 0), at(9, 0)));
+        assertThrows(FieldNotValidException.class, () -> service.getFreeIntervals(1, DAY, DAY.plus(AvailabilityService.MAX_RANGE_DAYS + 1, ChronoUnit.DAYS)));
+        assertThrows(EntityNotFoundException.class, () -> service.getFreeIntervals(2, at(9, 0), at(12, 0)));
+    }
+
+    private static Instant at(int hour, int minute) {
+        return DAY.plus(hour, ChronoUnit.HOURS).plus(minute, ChronoUnit.MINUTES);
+    }
+
+    private Event event(Instant startTime, int duration) {
+        Event e = new Event();
+        e.setEventCategory(category);
+        e.setEventStartTime(startTime);
+        e.setEventDuration(duration);
+        return e;
+    }
+
+    private List<String> free(Instant from, Instant to) {
+        return service.getFreeIntervals(1, from, to).stream()
+                .map(it -> interval(it.getStartTime(), it.getEndTime()))
+                .collect(Collectors.toList());
+    }
+
+    private static String interval(Instant startTime, Instant endTime) {
+        return startTime + "/" + endTime;
+    }
+}
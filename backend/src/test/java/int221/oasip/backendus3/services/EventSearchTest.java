@@ -0,0 +1,194 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.configs.ApplicationConfig;
+import int221.oasip.backendus3.dtos.EventResponse;
+import int221.oasip.backendus3.dtos.EventSearchResponse;
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.entities.User;
+import int221.oasip.backendus3.exceptions.FieldNotValidException;
+import int221.oasip.backendus3.repository.EventCategoryRepository;
+import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.UserRepository;
+import int221.oasip.backendus3.services.EventService.EventScope;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.MountableFile;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Searches bookings through the FULLTEXT index on MySQL, which the embedded test database does not have. The index
+ * only sees committed rows, so the events are inserted outside of a test transaction.
+ * <p>
+ * Needs Docker, the test is skipped without it.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@DataJpaTest(properties = {
+        "spring.jpa.show-sql=false",
+        "mail.disable=true"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ApplicationConfig.class, EventService.class, EventSeriesService.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EventSearchTest {
+    private static final Instant T = Instant.parse("2030-01-07T08:00:00Z");
+    private static final EventScope EVERYTHING = new EventScope(null, null, false);
+
+    @Container
+    private static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0")
+            .withDatabaseName("oasip")
+            .withCopyFileToContainer(MountableFile.forHostPath("../db/scripts/entrypoint/00-schema.sql"), "/docker-entrypoint-initdb.d/00-schema.sql")
+            .withUrlParam("connectionTimeZone", "SERVER");
+
+    @Autowired
+    private EventService eventService;
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private EventCategoryRepository categoryRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    // collaborators that are not part of what is under test
+    @MockBean
+    private FileCleanupService fileCleanupService;
+    @MockBean
+    private RenditionService renditionService;
+    @MockBean
+    private CachePurgeService cachePurgeService;
+    @MockBean
+    private MailService mailService;
+
+    private EventCategory clinic;
+    private EventCategory otherClinic;
+    private User student;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", MYSQL::getJdbcUrl);
+        registry.add("spring.datasource.username", MYSQL::getUsername);
+        registry.add("spring.datasource.password", MYSQL::getPassword);
+    }
+
+    @BeforeEach
+    void setUp() {
+        clinic = categoryRepository.save(new EventCategory("Project Management Clinic", null, 30));
+        otherClinic = categoryRepository.save(new EventCategory("Database Clinic", null, 30));
+        // createdOn and updatedOn have defaults in the schema
+        jdbcTemplate.update("INSERT INTO user (name, email, password, role) VALUES (?, ?, ?, ?)",
+                "Somchai Jaidee", "somchai.jaidee@mail.kmutt.ac.th", "not-a-hash", "STUDENT");
+        student = userRepository.findByEmail("somchai.jaidee@mail.kmutt.ac.th").orElseThrow();
+    }
+
+    @AfterEach
+    void tearDown() {
+        eventRepository.deleteAll();
+        categoryRepository.deleteAll();
+        jdbcTemplate.update("DELETE FROM user");
+    }
+
+    @Test
+    void search_shouldRequireEveryWordAsAPrefix() {
+        insert(event(clinic, student, "Somchai Jaidee", "somchai.jaidee@mail.kmutt.ac.th", "thesis draft", 0));
+        insert(event(clinic, null, "Somchai Rakdee", "somchai.rakdee@mail.kmutt.ac.th", null, 1));
+        insert(event(clinic, null, "Jane Doe", "jane.doe@example.com", "thesis review", 2));
+
+        assertEquals(List.of("Somchai Jaidee"), names(eventService.search("somch THES", 0, 10, EVERYTHING)));
+        assertEquals(List.of("Somchai Jaidee", "Somchai Rakdee"), sorted(names(eventService.search("somchai", 0, 10, EVERYTHING))));
+        // the email is split into words too
+        assertEquals(List.of("Jane Doe"), names(eventService.search("example", 0, 10, EVERYTHING)));
+        assertEquals(List.of(), names(eventService.search("somchai review", 0, 10, EVERYTHING)));
+    }
+
+    @Test
+    void search_shouldIgnoreTheOperatorsOfTheFullTextSyntax() {
+        insert(event(clinic, null, "Jane Doe", "jane.doe@example.com", null, 0));
+        insert(event(clinic, null, "Somchai Rakdee", "somchai.rakdee@mail.kmutt.ac.th", null, 1));
+
+        // as operators, -doe would exclude the booking and the unclosed quote would be a syntax error
+        assertEquals(List.of("Jane Doe"), names(eventService.search("\"jane -doe*", 0, 10, EVERYTHING)));
+        assertThrows(FieldNotValidException.class, () -> eventService.search("+-*\"()~<>@", 0, 10, EVERYTHING));
+    }
+
+    @Test
+    void search_shouldOnlyFindEventsInTheScope() {
+        insert(event(clinic, student, "Somchai Jaidee", "somchai.jaidee@mail.kmutt.ac.th", null, 0));
+        insert(event(otherClinic, null, "Somchai Rakdee", "somchai.rakdee@mail.kmutt.ac.th", null, 1));
+        insert(event(otherClinic, null, "Jane Doe", "jane.doe@example.com", null, 2));
+
+        assertEquals(List.of("Somchai Jaidee"), names(eventService.search("somchai", 0, 10, new EventScope(null, student.getId(), false))));
+        assertEquals(List.of("Somchai Rakdee"), names(eventService.search("somchai", 0, 10, new EventScope(List.of(otherClinic.getId()), null, true))));
+        // a lecturer who owns no category
+        assertEquals(List.of(), names(eventService.search("somchai", 0, 10, new EventScope(null, null, true))));
+    }
+
+    @Test
+    void search_shouldReadPagesWithoutCounting_latestFirstAmongEquallyRelevantEvents() {
+        for (int i = 0; i < 3; i++) {
+            insert(event(clinic, null, "Budget Review", "budget.review@mail.kmutt.ac.th", null, i));
+        }
+        // a word in every row has no weight in the ranking, so some rows do not match
+        insert(event(clinic, null, "Jane Doe", "jane.doe@example.com", null, 3));
+
+        EventSearchResponse first = eventService.search("budget", 0, 2, EVERYTHING);
+        assertEquals(List.of(start(2), start(1)), startTimes(first));
+        assertTrue(first.isHasNext());
+
+        EventSearchResponse second = eventService.search("budget", 1, 2, EVERYTHING);
+        assertEquals(List.of(start(0)), startTimes(second));
+        assertFalse(second.isHasNext());
+    }
+
+    private void insert(Event event) {
+        eventRepository.insertAll(List.of(event));
+    }
+
+    private static Event event(EventCategory category, User user, String name, String email, String notes, int day) {
+        Event event = new Event();
+        event.setEventCategory(category);
+        event.setUser(user);
+        event.setBookingName(name);
+        event.setBookingEmail(email);
+        event.setEventNotes(notes);
+        event.setEventStartTime(start(day));
+        event.setEventDuration(30);
+        return event;
+    }
+
+    private static Instant start(int day) {
+        return T.plus(day, ChronoUnit.DAYS);
+    }
+
+    private static List<String> names(EventSearchResponse response) {
+        return response.getEvents().stream().map(EventResponse::getBookingName).collect(Collectors.toList());
+    }
+
+    private static List<String> sorted(List<String> names) {
+        return names.stream().sorted().collect(Collectors.toList());
+    }
+
+    private static List<Instant> startTimes(EventSearchResponse response) {
+        return response.getEvents().stream().map(EventResponse::getEventStartTime).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,176 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.configs.ApplicationConfig;
+import int221.oasip.backendus3.dtos.CreateEventMultipartRequest;
+import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.exceptions.EventOverlapException;
+import int221.oasip.backendus3.repository.EventCategoryRepository;
+import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.EventSlotRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.MountableFile;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Books the same slots from many threads at once on MySQL, whose REPEATABLE READ snapshots are what the category lock
+ * has to get right; H2 reads committed rows and would pass with a lock taken too late.
+ * <p>
+ * Needs Docker, the test is skipped without it.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@DataJpaTest(properties = {
+        "spring.jpa.show-sql=false",
+        "spring.datasource.hikari.maximum-pool-size=20",
+        "mail.disable=true"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ApplicationConfig.class, EventService.class, EventSeriesService.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EventServiceConcurrencyTest {
+    private static final int BOOKINGS = 300;
+
+    @Container
+    private static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0")
+            .withDatabaseName("oasip")
+            .withCopyFileToContainer(MountableFile.forHostPath("../db/scripts/entrypoint/00-schema.sql"), "/docker-entrypoint-initdb.d/00-schema.sql")
+            .withUrlParam("connectionTimeZone", "SERVER")
+            .withUrlParam("rewriteBatchedStatements", "true");
+
+    @Autowired
+    private EventService eventService;
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private EventCategoryRepository categoryRepository;
+    @Autowired
+    private EventSlotRepository slotRepository;
+    // collaborators that are not part of what is under test
+    @MockBean
+    private FileCleanupService fileCleanupService;
+    @MockBean
+    private RenditionService renditionService;
+    @MockBean
+    private CachePurgeService cachePurgeService;
+    @MockBean
+    private MailService mailService;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", MYSQL::getJdbcUrl);
+        registry.add("spring.datasource.username", MYSQL::getUsername);
+        registry.add("spring.datasource.password", MYSQL::getPassword);
+    }
+
+    @AfterEach
+    void tearDown() {
+        slotRepository.deleteAll();
+        eventRepository.deleteAll();
+        categoryRepository.deleteAll();
+    }
+
+    @Test
+    void create_shouldAcceptExactlyOneBooking_whenManyBookTheSameSlotAtOnce() throws Exception {
+        EventCategory category = categoryRepository.save(new EventCategory("Project Management Clinic", null, 30));
+        OffsetDateTime slot = OffsetDateTime.now(ZoneOffset.UTC).plusDays(1).truncatedTo(ChronoUnit.HOURS);
+
+        List<Callable<Void>> bookings = new ArrayList<>();
+        for (int i = 0; i < BOOKINGS; i++) {
+            // shift every other booking a few minutes so partial overlaps are exercised too
+            bookings.add(booking(category, slot.plusMinutes(i % 2 == 0 ? 0 : 10), "student" + i));
+        }
+        Outcome outcome = runConcurrently(bookings);
+
+        assertEquals(1, outcome.created.get());
+        assertEquals(BOOKINGS - 1, outcome.overlapped.get());
+        assertEquals(1, eventRepository.count());
+    }
+
+    @Test
+    void create_shouldAcceptOneBookingPerCategory_whenCategoriesBookTheSameSlotAtOnce() throws Exception {
+        EventCategory categoryA = categoryRepository.save(new EventCategory("DevOps/Infra Clinic", null, 20));
+        EventCategory categoryB = categoryRepository.save(new EventCategory("Database Clinic", null, 15));
+        OffsetDateTime slot = OffsetDateTime.now(ZoneOffset.UTC).plusDays(1).truncatedTo(ChronoUnit.HOURS);
+
+        List<Callable<Void>> bookings = new ArrayList<>();
+        for (int i = 0; i < BOOKINGS; i++) {
+            bookings.add(booking(i % 2 == 0 ? categoryA : categoryB, slot, "student" + i));
+        }
+        Outcome outcome = runConcurrently(bookings);
+
+        assertEquals(2, outcome.created.get());
+        assertEquals(BOOKINGS - 2, outcome.overlapped.get());
+        assertEquals(2, eventRepository.count());
+    }
+
+    private Callable<Void> booking(EventCategory category, OffsetDateTime startTime, String name) {
+        return () -> {
+            CreateEventMultipartRequest request = new CreateEventMultipartRequest();
+            request.setEventCategoryId(category.getId());
+            request.setBookingName(name);
+            request.setBookingEmail(name + "@example.com");
+            request.setEventStartTime(startTime);
+            eventService.create(request, true, false);
+            return null;
+        };
+    }
+
+    private Outcome runConcurrently(List<Callable<Void>> tasks) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(64);
+        CountDownLatch start = new CountDownLatch(1);
+        Outcome outcome = new Outcome();
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (Callable<Void> task : tasks) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        task.call();
+                        outcome.created.incrementAndGet();
+                    } catch (EventOverlapException e) {
+                        outcome.overlapped.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                try {
+                    future.get(60, TimeUnit.SECONDS);
+                } catch (ExecutionException | TimeoutException e) {
+                    throw new AssertionError("Booking did not complete normally", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return outcome;
+    }
+
+    private static class Outcome {
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger overlapped = new AtomicInteger();
+    }
+}
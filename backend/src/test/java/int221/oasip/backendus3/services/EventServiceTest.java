@@ -0,0 +1,67 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventSeries;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EventServiceTest {
+    private static final Instant T = Instant.parse("2030-01-07T08:00:00Z");
+
+    @Test
+    void findBatchConflicts_shouldAcceptAdjacentStartTimes() {
+        List<String> conflicts = EventService.findBatchConflicts(
+                List.of(at(0), at(30), at(60)), 30, List.of(event(-30, 30), event(90, 30)), List.of());
+
+        assertEquals(Arrays.asList(null, null, null), conflicts);
+    }
+
+    @Test
+    void findBatchConflicts_shouldKeepTheLatestEndOfTheExistingEvents() {
+        // the long event ends after the short one that starts after it, so only the running maximum catches 60
+        List<String> conflicts = EventService.findBatchConflicts(
+                List.of(at(0), at(60), at(120)), 30, List.of(event(0, 90), event(10, 10)), List.of());
+
+        assertEquals(Arrays.asList("Start time overlaps with other event(s)", "Start time overlaps with other event(s)", null), conflicts);
+    }
+
+    @Test
+    void findBatchConflicts_shouldOnlyCompareWithAcceptedStartTimes() {
+        // 20 overlaps 0 and is skipped, so 40 does not overlap anything that is booked
+        List<String> conflicts = EventService.findBatchConflicts(
+                List.of(at(0), at(20), at(40)), 30, List.of(), List.of());
+
+        assertEquals(Arrays.asList(null, "Start time overlaps with another start time in the request", null), conflicts);
+    }
+
+    @Test
+    void findBatchConflicts_shouldCompareWithOccurrencesOfTheSeries() {
+        EventSeries series = new EventSeries();
+        series.setFirstStartTime(at(0).minus(7, ChronoUnit.DAYS));
+        series.setEventDuration(30);
+        series.setIntervalWeeks(1);
+        series.setUntilTime(at(0).plus(70, ChronoUnit.DAYS));
+
+        List<String> conflicts = EventService.findBatchConflicts(
+                List.of(at(-20), at(30), at(7 * 24 * 60 + 15)), 30, List.of(), List.of(series));
+
+        assertEquals(Arrays.asList("Start time overlaps with a recurring event", null, "Start time overlaps with a recurring event"), conflicts);
+    }
+
+    private static Instant at(long minutes) {
+        return T.plus(minutes, ChronoUnit.MINUTES);
+    }
+
+    private static Event event(long startMinutes, int duration) {
+        Event e = new Event();
+        e.setEventStartTime(at(startMinutes));
+        e.setEventDuration(duration);
+        return e;
+    }
+}
@@ -0,0 +1,163 @@
+package int221.oasip.backendus3.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import int221.oasip.backendus3.services.EventStreamService.CategoryStream;
+import int221.oasip.backendus3.services.EventStreamService.Message;
+import int221.oasip.backendus3.services.EventStreamService.Subscriber;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.modelmapper.ModelMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventStreamServiceTest {
+    private static final String INSTANCE = "abcd1234";
+
+    private final ExecutorService senders = Executors.newFixedThreadPool(4);
+    private EventStreamService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new EventStreamService(new ModelMapper(), new ObjectMapper());
+        ReflectionTestUtils.setField(service, "senders", senders);
+    }
+
+    @AfterEach
+    void tearDown() {
+        senders.shutdownNow();
+    }
+
+    @Test
+    void since_shouldReplayTheMessagesAfterTheLastEventId() {
+        CategoryStream stream = stream(5);
+
+        assertEquals(List.of(INSTANCE + "-3", INSTANCE + "-4", INSTANCE + "-5"), ids(stream.since(INSTANCE + "-2", INSTANCE)));
+        assertEquals(List.of(), ids(stream.since(INSTANCE + "-5", INSTANCE)));
+        assertEquals(5, stream.since(INSTANCE + "-0", INSTANCE).size());
+    }
+
+    @Test
+    void since_shouldOnlyReplayWhatIsStillKept() {
+        int published = EventStreamService.REPLAY_SIZE + 44;
+        CategoryStream stream = stream(published);
+
+        // the oldest message kept is the one after 44
+        List<Message> all = stream.since(INSTANCE + "-44", INSTANCE);
+        assertEquals(EventStreamService.REPLAY_SIZE, all.size());
+        assertEquals(INSTANCE + "-45", all.get(0).getId());
+        assertEquals(INSTANCE + "-" + published, all.get(all.size() - 1).getId());
+        assertNull(stream.since(INSTANCE + "-43", INSTANCE));
+    }
+
+    @Test
+    void since_shouldBeNull_whenTheIdIsNotFromThisStream() {
+        CategoryStream stream = stream(5);
+
+        // from another instance, from the future, or not an id at all
+        assertNull(stream.since("ffff0000-3", INSTANCE));
+        assertNull(stream.since(INSTANCE + "-6", INSTANCE));
+        assertNull(stream.since(INSTANCE + "-x", INSTANCE));
+        assertNull(stream.since("3", INSTANCE));
+    }
+
+    @Test
+    void enqueue_shouldSendTheMessagesOfASubscriberInOrder() throws InterruptedException {
+        CategoryStream stream = new CategoryStream();
+        RecordingEmitter emitter = new RecordingEmitter(new CountDownLatch(0));
+        Subscriber subscriber = new Subscriber(emitter);
+        stream.subscribers.add(subscriber);
+
+        // fewer than the buffer holds, sent by whichever sender threads pick up the draining in between
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= EventStreamService.BUFFER_SIZE; i++) {
+            Message message = Message.event(INSTANCE + "-" + i, "created", "{}");
+            expected.add(message.getId());
+            service.enqueue(stream, subscriber, message);
+            if (i % 10 == 0) {
+                Thread.sleep(1);
+            }
+        }
+
+        emitter.awaitSent(expected.size());
+        assertEquals(expected, emitter.sent);
+        assertFalse(emitter.completed);
+    }
+
+    @Test
+    void enqueue_shouldDisconnectASubscriber_whoseBufferIsFull() throws InterruptedException {
+        CategoryStream stream = new CategoryStream();
+        CountDownLatch released = new CountDownLatch(1);
+        RecordingEmitter emitter = new RecordingEmitter(released);
+        Subscriber subscriber = new Subscriber(emitter);
+        stream.subscribers.add(subscriber);
+
+        // one message is held by the blocked sender, the buffer holds the rest until one more does not fit
+        for (int i = 1; i <= EventStreamService.BUFFER_SIZE + 2; i++) {
+            service.enqueue(stream, subscriber, Message.event(INSTANCE + "-" + i, "created", "{}"));
+        }
+        released.countDown();
+
+        assertTrue(emitter.completed);
+        assertFalse(stream.subscribers.contains(subscriber));
+    }
+
+    private static CategoryStream stream(int published) {
+        CategoryStream stream = new CategoryStream();
+        synchronized (stream) {
+            LongStream.rangeClosed(1, published).forEach(i -> stream.append(INSTANCE, "created", "{}"));
+        }
+        return stream;
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).collect(Collectors.toList());
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch released;
+        private volatile boolean completed;
+
+        private RecordingEmitter(CountDownLatch released) {
+            this.released = released;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            // the first part of an event is "id:<id>\nevent:<name>\ndata:"
+            String head = builder.build().iterator().next().getData().toString();
+            sent.add(head.substring("id:".length(), head.indexOf('\n')));
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        private void awaitSent(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (sent.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.FileCleanupRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class FileCleanupServiceTest {
+    private final FileCleanupRepository cleanupRepository = mock(FileCleanupRepository.class);
+    private final EventRepository eventRepository = mock(EventRepository.class);
+    private final RenditionService renditionService = mock(RenditionService.class);
+    private final CachePurgeService cachePurgeService = mock(CachePurgeService.class);
+    private FileCleanupService service;
+
+    @TempDir
+    Path root;
+    private Path uploads;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        uploads = Files.createDirectory(root.resolve("uploads"));
+        Path renditions = Files.createDirectory(root.resolve("renditions"));
+        when(renditionService.getDirectory(anyString())).thenAnswer(invocation -> renditions.resolve(invocation.getArgument(0, String.class)));
+        when(eventRepository.findUsedBucketUuids(any())).thenReturn(List.of());
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        service = new FileCleanupService(cleanupRepository, eventRepository, transactionTemplate, renditionService, cachePurgeService);
+        ReflectionTestUtils.setField(service, "uploadPath", uploads.toString());
+        ReflectionTestUtils.setField(service, "orphanGraceMinutes", 60L);
+    }
+
+    @Test
+    void cleanUp_shouldDeleteTheDirectoriesThatNoEventUses() throws IOException {
+        String unused = bucket(uploads, "file.pdf");
+        String used = bucket(uploads, "file.pdf");
+        Files.createFile(Files.createDirectories(renditionService.getDirectory(unused)).resolve("thumbnail.webp"));
+        when(cleanupRepository.lockDue(any(), anyInt())).thenReturn(List.of(unused, used));
+        when(eventRepository.findUsedBucketUuids(any())).thenReturn(List.of(used));
+
+        service.cleanUp();
+
+        assertFalse(Files.exists(uploads.resolve(unused)));
+        assertFalse(Files.exists(renditionService.getDirectory(unused)));
+        assertTrue(Files.exists(uploads.resolve(used).resolve("file.pdf")));
+        // both are done, the used one is not queued anymore either
+        assertEquals(List.of(unused, used), deletedFromQueue());
+        verify(cachePurgeService).purgeLater(CachePurgeService.fileTag(unused));
+        verify(cachePurgeService, never()).purgeLater(CachePurgeService.fileTag(used));
+        verify(cleanupRepository, never()).reschedule(any(), any());
+    }
+
+    @Test
+    void cleanUp_shouldRetryLater_whenADirectoryCannotBeDeleted() throws IOException {
+        String bucketUuid = bucket(uploads, "file.pdf");
+        // the rendition directory is below a file, so walking it fails with something other than "no such file"
+        Path file = Files.createFile(root.resolve("not-a-directory"));
+        when(renditionService.getDirectory(bucketUuid)).thenReturn(file.resolve(bucketUuid));
+        when(cleanupRepository.lockDue(any(), anyInt())).thenReturn(List.of(bucketUuid));
+
+        service.cleanUp();
+
+        ArgumentCaptor<Instant> dueAt = ArgumentCaptor.forClass(Instant.class);
+        verify(cleanupRepository).reschedule(eq(bucketUuid), dueAt.capture());
+        assertTrue(dueAt.getValue().isAfter(Instant.now().plus(9, ChronoUnit.MINUTES)));
+        assertEquals(List.of(), deletedFromQueue());
+        assertTrue(Files.exists(uploads.resolve(bucketUuid)));
+    }
+
+    @Test
+    void cleanUp_shouldDropNamesThatAreNotUploadDirectories_withoutDeletingThem() throws IOException {
+        Path other = Files.createDirectory(uploads.resolve("keep-me"));
+        when(cleanupRepository.lockDue(any(), anyInt())).thenReturn(List.of("keep-me", "../uploads"));
+
+        service.cleanUp();
+
+        assertTrue(Files.exists(other));
+        assertEquals(List.of("keep-me", "../uploads"), deletedFromQueue());
+    }
+
+    @Test
+    void cleanUp_shouldLockAnotherBatch_onlyAfterAFullOne() {
+        List<String> full = IntStream.range(0, 50).mapToObj(i -> UUID.randomUUID().toString()).collect(Collectors.toList());
+        when(cleanupRepository.lockDue(any(), anyInt())).thenReturn(full, List.of(UUID.randomUUID().toString()));
+
+        service.cleanUp();
+
+        verify(cleanupRepository, times(2)).lockDue(any(), eq(50));
+    }
+
+    @Test
+    void reconcile_shouldQueueOldDirectoriesThatNoEventUses() throws IOException {
+        String orphan = old(bucket(uploads, "file.pdf"));
+        String used = old(bucket(uploads, "file.pdf"));
+        // its booking may not have committed yet
+        String recent = bucket(uploads, "file.pdf");
+        Files.createDirectory(uploads.resolve("not-a-bucket"));
+        old("not-a-bucket");
+        when(eventRepository.findUsedBucketUuids(any())).thenReturn(List.of(used));
+
+        service.reconcile();
+
+        verify(cleanupRepository).enqueue(eq(orphan), any());
+        verify(cleanupRepository, never()).enqueue(eq(used), any());
+        verify(cleanupRepository, never()).enqueue(eq(recent), any());
+        verify(cleanupRepository, never()).enqueue(eq("not-a-bucket"), any());
+    }
+
+    @Test
+    void reconcile_shouldCheckOneBatchPerRun_andStartOverAfterTheLast() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 501; i++) {
+            names.add(old(bucket(uploads)));
+        }
+        names.sort(null);
+
+        service.reconcile();
+        service.reconcile();
+        service.reconcile();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<String>> checked = ArgumentCaptor.forClass(Collection.class);
+        verify(eventRepository, times(3)).findUsedBucketUuids(checked.capture());
+        assertEquals(names.subList(0, 500), new ArrayList<>(checked.getAllValues().get(0)));
+        assertEquals(names.subList(500, 501), new ArrayList<>(checked.getAllValues().get(1)));
+        assertEquals(names.subList(0, 500), new ArrayList<>(checked.getAllValues().get(2)));
+    }
+
+    private List<String> deletedFromQueue() {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Iterable<String>> done = ArgumentCaptor.forClass(Iterable.class);
+        verify(cleanupRepository).deleteAllByIdInBatch(done.capture());
+        List<String> names = new ArrayList<>();
+        done.getValue().forEach(names::add);
+        return names;
+    }
+
+    private static String bucket(Path uploads, String... files) throws IOException {
+        String bucketUuid = UUID.randomUUID().toString();
+        Path directory = Files.createDirectory(uploads.resolve(bucketUuid));
+        for (String file : files) {
+            Files.writeString(directory.resolve(file), "content");
+        }
+        return bucketUuid;
+    }
+
+    private String old(String name) throws IOException {
+        Files.setLastModifiedTime(uploads.resolve(name), FileTime.from(Instant.now().minus(2, ChronoUnit.HOURS)));
+        return name;
+    }
+}
@@ -0,0 +1,94 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.exceptions.IdempotencyKeyInProgressException;
+import int221.oasip.backendus3.exceptions.IdempotencyKeyReusedException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyServiceTest {
+    private IdempotencyService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new IdempotencyService();
+        ReflectionTestUtils.setField(service, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(service, "maxKeys", 2);
+        ReflectionTestUtils.setField(service, "waitSeconds", 5L);
+    }
+
+    @Test
+    void execute_shouldReplayTheResult_whenTheKeyCompleted() {
+        AtomicInteger runs = new AtomicInteger();
+
+        IdempotencyService.Outcome<Integer> first = service.execute("a", "booking", runs::incrementAndGet);
+        IdempotencyService.Outcome<Integer> retry = service.execute("a", "booking", runs::incrementAndGet);
+
+        assertEquals(1, runs.get());
+        assertFalse(first.isReplayed());
+        assertTrue(retry.isReplayed());
+        assertEquals(first.getValue(), retry.getValue());
+        assertThrows(IdempotencyKeyReusedException.class, () -> service.execute("a", "another booking", runs::incrementAndGet));
+    }
+
+    @Test
+    void execute_shouldWaitForTheOriginal_whenTheKeyIsInFlight() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<IdempotencyService.Outcome<Integer>> original = executor.submit(() -> service.execute("a", "booking", () -> {
+                started.countDown();
+                await(release);
+                return runs.incrementAndGet();
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            ReflectionTestUtils.setField(service, "waitSeconds", 0L);
+            assertThrows(IdempotencyKeyInProgressException.class, () -> service.execute("a", "booking", runs::incrementAndGet));
+            ReflectionTestUtils.setField(service, "waitSeconds", 5L);
+
+            release.countDown();
+            IdempotencyService.Outcome<Integer> duplicate = service.execute("a", "booking", runs::incrementAndGet);
+            assertEquals(1, runs.get());
+            assertTrue(duplicate.isReplayed());
+            assertEquals(original.get().getValue(), duplicate.getValue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_shouldRunAgain_whenTheOriginalFailedOrWasEvicted() {
+        AtomicInteger runs = new AtomicInteger();
+        assertThrows(IllegalStateException.class, () -> service.execute("a", "booking", () -> {
+            throw new IllegalStateException("mail server is down");
+        }));
+        assertFalse(service.execute("a", "booking", runs::incrementAndGet).isReplayed());
+
+        // only the latest two keys are kept
+        service.execute("b", "booking", runs::incrementAndGet);
+        service.execute("c", "booking", runs::incrementAndGet);
+        assertFalse(service.execute("a", "booking", runs::incrementAndGet).isReplayed());
+        assertTrue(service.execute("c", "booking", runs::incrementAndGet).isReplayed());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.entities.EventCategoryOwner;
+import int221.oasip.backendus3.entities.User;
+import int221.oasip.backendus3.repository.EventCategoryOwnerRepository;
+import int221.oasip.backendus3.repository.EventRepository;
+import int221.oasip.backendus3.repository.MailClaimRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ReminderServiceTest {
+    /**
+     * 17:00 in Bangkok, an hour before the digest
+     */
+    private static final Instant T = Instant.parse("2030-01-07T10:00:00Z");
+
+    private final EventRepository eventRepository = mock(EventRepository.class);
+    private final EventCategoryOwnerRepository ownerRepository = mock(EventCategoryOwnerRepository.class);
+    private final MailClaimRepository claimRepository = mock(MailClaimRepository.class);
+    private final MailService mailService = mock(MailService.class);
+    private ReminderService service;
+
+    @BeforeEach
+    void setUp() {
+        when(eventRepository.findByDateRange(any(), any(), any(), any())).thenReturn(List.of());
+        when(claimRepository.claimReminders(any(), any())).thenAnswer(invocation -> new HashSet<>(invocation.<Map<Integer, Instant>>getArgument(0).keySet()));
+        when(claimRepository.claim(anyString(), any())).thenReturn(true);
+        when(ownerRepository.findAllWithUser()).thenReturn(List.of());
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        service = new ReminderService(eventRepository, ownerRepository, claimRepository, mailService, transactionTemplate);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "leadMinutes", 60L);
+        ReflectionTestUtils.setField(service, "horizonHours", 32L);
+        ReflectionTestUtils.setField(service, "digestTimeText", "18:00");
+        ReflectionTestUtils.setField(service, "mailDisable", false);
+        at(T);
+    }
+
+    @Test
+    void start_shouldRejectALead_thatIsNotPositiveOrEndsAfterMidnight() {
+        // 18:00 is 360 minutes before midnight
+        ReflectionTestUtils.setField(service, "leadMinutes", 361L);
+        assertThrows(IllegalStateException.class, service::start);
+        ReflectionTestUtils.setField(service, "leadMinutes", 0L);
+        assertThrows(IllegalStateException.class, service::start);
+
+        ReflectionTestUtils.setField(service, "leadMinutes", 360L);
+        service.start();
+    }
+
+    @Test
+    void start_shouldRejectAHorizon_thatEndsBeforeTheDayAfterTheDigestAndTheNextLoad() {
+        // 6 hours to midnight, a day and an hour between two loads
+        ReflectionTestUtils.setField(service, "horizonHours", 30L);
+        assertThrows(IllegalStateException.class, service::start);
+
+        ReflectionTestUtils.setField(service, "horizonHours", 31L);
+        service.start();
+    }
+
+    @Test
+    void tick_shouldSendAReminder_leadMinutesBeforeTheEvent() throws Exception {
+        Event event = event(1, 3, "Somchai Jaidee", T.plus(3, ChronoUnit.HOURS));
+        when(eventRepository.findByDateRange(any(), any(), any(), any())).thenReturn(List.of(event));
+        service.start();
+
+        service.tick();
+        at(T.plus(119, ChronoUnit.MINUTES));
+        service.tick();
+        verify(mailService, never()).newMessage(eq(event.getBookingEmail()), anyString(), anyString());
+
+        at(T.plus(120, ChronoUnit.MINUTES));
+        service.tick();
+        verify(mailService).newMessage(eq(event.getBookingEmail()), startsWith("Reminder: Clinic 3 @ "), contains("Somchai Jaidee"));
+        verify(claimRepository).claimReminders(Map.of(1, event.getEventStartTime()), T.plus(120, ChronoUnit.MINUTES));
+    }
+
+    @Test
+    void tick_shouldOnlySendTheReminders_thatThisInstanceClaimed() throws Exception {
+        Instant startTime = T.plus(3, ChronoUnit.HOURS);
+        Event claimed = event(1, 3, "Somchai Jaidee", startTime);
+        Event claimedElsewhere = event(2, 3, "Somchai Rakdee", startTime);
+        when(eventRepository.findByDateRange(any(), any(), any(), any())).thenReturn(List.of(claimed, claimedElsewhere));
+        // doReturn does not call the answer of setUp, which fails on the matchers
+        doReturn(Set.of(1)).when(claimRepository).claimReminders(any(), any());
+        service.start();
+
+        service.tick();
+        at(T.plus(2, ChronoUnit.HOURS));
+        service.tick();
+
+        verify(claimRepository).claimReminders(Map.of(1, startTime, 2, startTime), T.plus(2, ChronoUnit.HOURS));
+        verify(mailService).newMessage(eq(claimed.getBookingEmail()), anyString(), anyString());
+        verify(mailService, never()).newMessage(eq(claimedElsewhere.getBookingEmail()), anyString(), anyString());
+    }
+
+    @Test
+    void tick_shouldKeepTheChangesThatCommitWhileALoadReads() throws Exception {
+        Event deleted = event(1, 3, "Somchai Jaidee", T.plus(3, ChronoUnit.HOURS));
+        Event moved = event(2, 3, "Somchai Rakdee", T.plus(3, ChronoUnit.HOURS));
+        Event movedLater = event(2, 3, "Somchai Rakdee", T.plus(4, ChronoUnit.HOURS));
+        // the first load reads both events as they were before the changes
+        when(eventRepository.findByDateRange(any(), any(), any(), any())).thenAnswer(invocation -> {
+            service.onEventChanged(EventChangedEvent.deleted(deleted));
+            service.onEventChanged(EventChangedEvent.updated(movedLater, EventChangedEvent.TimeRange.of(moved)));
+            return List.of(deleted, moved);
+        }).thenReturn(List.of(movedLater));
+        service.start();
+
+        service.tick();
+        at(T.plus(2, ChronoUnit.HOURS));
+        service.tick();
+        verify(mailService, never()).newMessage(anyString(), anyString(), anyString());
+
+        at(T.plus(3, ChronoUnit.HOURS));
+        service.tick();
+        verify(mailService).newMessage(eq(movedLater.getBookingEmail()), anyString(), anyString());
+        verify(mailService, never()).newMessage(eq(deleted.getBookingEmail()), anyString(), anyString());
+    }
+
+    @Test
+    void tick_shouldDropTheReminderOfAnEvent_thatTheNextLoadDoesNotFind() throws Exception {
+        Event event = event(1, 3, "Somchai Jaidee", T.plus(3, ChronoUnit.HOURS));
+        // deleted through another instance
+        when(eventRepository.findByDateRange(any(), any(), any(), any())).thenReturn(List.of(event), List.of());
+        service.start();
+
+        service.tick();
+        at(T.plus(61, ChronoUnit.MINUTES));
+        service.tick();
+        // the reminder would be due now
+        at(T.plus(2, ChronoUnit.HOURS));
+        service.tick();
+
+        verify(eventRepository, times(2)).findByDateRange(any(), any(), any(), any());
+        verify(mailService, never()).newMessage(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void tick_shouldSendTheDigestOfTheNextDay_fromThePendingReminders() throws Exception {
+        // 09:00 and 10:00 in Bangkok on the next day, and 21:00 today
+        Event nextDay = event(1, 3, "Somchai Jaidee", Instant.parse("2030-01-08T02:00:00Z"));
+        Event otherCategory = event(2, 4, "Somchai Rakdee", Instant.parse("2030-01-08T03:00:00Z"));
+        Event today = event(3, 3, "Jane Doe", Instant.parse("2030-01-07T14:00:00Z"));
+        when(eventRepository.findByDateRange(any(), any(), any(), any())).thenReturn(List.of(nextDay, otherCategory, today));
+        when(ownerRepository.findAllWithUser()).thenReturn(List.of(owner("lecturer@mail.kmutt.ac.th", 3)));
+        service.start();
+
+        service.tick();
+        verify(claimRepository, never()).claim(anyString(), any());
+
+        at(T.plus(1, ChronoUnit.HOURS));
+        service.tick();
+
+        verify(claimRepository).claim("digest:2030-01-08", T.plus(1, ChronoUnit.HOURS));
+        ArgumentCaptor<String> content = ArgumentCaptor.forClass(String.class);
+        verify(mailService).newMessage(eq("lecturer@mail.kmutt.ac.th"), startsWith("Your bookings on "), content.capture());
+        assertTrue(content.getValue().contains("Somchai Jaidee"));
+        assertFalse(content.getValue().contains("Somchai Rakdee"));
+        assertFalse(content.getValue().contains("Jane Doe"));
+        // the reminders stay pending for their own time
+        verify(mailService, never()).newMessage(eq(nextDay.getBookingEmail()), anyString(), anyString());
+    }
+
+    @Test
+    void tick_shouldNotSendTheDigest_whenAnotherInstanceClaimedIt() throws Exception {
+        Event nextDay = event(1, 3, "Somchai Jaidee", Instant.parse("2030-01-08T02:00:00Z"));
+        when(eventRepository.findByDateRange(any(), any(), any(), any())).thenReturn(List.of(nextDay));
+        when(ownerRepository.findAllWithUser()).thenReturn(List.of(owner("lecturer@mail.kmutt.ac.th", 3)));
+        when(claimRepository.claim(anyString(), any())).thenReturn(false);
+        service.start();
+
+        service.tick();
+        at(T.plus(1, ChronoUnit.HOURS));
+        service.tick();
+
+        verify(claimRepository).claim("digest:2030-01-08", T.plus(1, ChronoUnit.HOURS));
+        verify(mailService, never()).newMessage(anyString(), anyString(), anyString());
+    }
+
+    private void at(Instant now) {
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    private static Event event(int id, int categoryId, String name, Instant startTime) {
+        EventCategory category = new EventCategory("Clinic " + categoryId, null, 30);
+        category.setId(categoryId);
+
+        Event event = new Event();
+        event.setId(id);
+        event.setEventCategory(category);
+        event.setBookingName(name);
+        event.setBookingEmail(name.toLowerCase().replace(' ', '.') + "@mail.kmutt.ac.th");
+        event.setEventStartTime(startTime);
+        event.setEventDuration(30);
+        return event;
+    }
+
+    private static EventCategoryOwner owner(String email, int categoryId) {
+        User user = new User();
+        user.setEmail(email);
+        EventCategory category = new EventCategory();
+        category.setId(categoryId);
+
+        EventCategoryOwner owner = new EventCategoryOwner();
+        owner.setUser(user);
+        owner.setEventCategory(category);
+        return owner;
+    }
+}
@@ -0,0 +1,125 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.services.RenditionService.Rendition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class RenditionServiceTest {
+    private final CachePurgeService cachePurgeService = mock(CachePurgeService.class);
+    private RenditionService service;
+
+    @TempDir
+    Path uploads;
+
+    @BeforeEach
+    void setUp() {
+        service = new RenditionService(cachePurgeService);
+        ReflectionTestUtils.setField(service, "uploadPath", uploads.toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    void generateLater_shouldScaleTheImageToEveryRendition() throws Exception {
+        String bucketUuid = bucket("photo.png", image(2000, 1000));
+
+        service.generateLater(bucketUuid);
+
+        assertSize(awaitRendition(bucketUuid, Rendition.THUMBNAIL), 240, 120);
+        assertSize(awaitRendition(bucketUuid, Rendition.PREVIEW), 1024, 512);
+    }
+
+    @Test
+    void generateLater_shouldGenerateAgain_whenRequestedWhileGenerating() throws Exception {
+        String bucketUuid = bucket("photo.png", image(400, 400));
+        // the first generation is held up at its end, when its renditions are already written
+        CountDownLatch firstDone = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            firstDone.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return null;
+        }).doNothing().when(cachePurgeService).purgeLater(anyString());
+
+        service.generateLater(bucketUuid);
+        assertTrue(firstDone.await(10, TimeUnit.SECONDS));
+        assertSize(service.get(bucketUuid, Rendition.THUMBNAIL).orElseThrow(), 240, 240);
+
+        // the file is replaced while the first generation is still pending
+        Files.delete(uploads.resolve(bucketUuid).resolve("photo.png"));
+        ImageIO.write(image(480, 240), "png", uploads.resolve(bucketUuid).resolve("photo.png").toFile());
+        service.generateLater(bucketUuid);
+        release.countDown();
+
+        verify(cachePurgeService, timeout(10_000).times(2)).purgeLater(CachePurgeService.fileTag(bucketUuid));
+        assertSize(service.get(bucketUuid, Rendition.THUMBNAIL).orElseThrow(), 240, 120);
+    }
+
+    @Test
+    void get_shouldQueueTheRenditions_whenTheyAreMissing() throws Exception {
+        String bucketUuid = bucket("photo.png", image(100, 50));
+
+        assertTrue(service.get(bucketUuid, Rendition.PREVIEW).isEmpty());
+
+        // smaller images are not scaled up
+        assertSize(awaitRendition(bucketUuid, Rendition.PREVIEW), 100, 50);
+    }
+
+    @Test
+    void generateLater_shouldWriteNothing_whenTheFileIsNotAnImage() throws Exception {
+        String bucketUuid = UUID.randomUUID().toString();
+        Files.writeString(Files.createDirectory(uploads.resolve(bucketUuid)).resolve("notes.txt"), "not an image");
+
+        service.generateLater(bucketUuid);
+
+        verify(cachePurgeService, after(500).never()).purgeLater(anyString());
+        assertFalse(Files.exists(service.getDirectory(bucketUuid)));
+        assertTrue(service.get("../" + bucketUuid, Rendition.PREVIEW).isEmpty());
+    }
+
+    private String bucket(String fileName, BufferedImage image) throws IOException {
+        String bucketUuid = UUID.randomUUID().toString();
+        Path directory = Files.createDirectory(uploads.resolve(bucketUuid));
+        ImageIO.write(image, "png", directory.resolve(fileName).toFile());
+        return bucketUuid;
+    }
+
+    private Path awaitRendition(String bucketUuid, Rendition rendition) throws InterruptedException {
+        Path path = service.getDirectory(bucketUuid).resolve(rendition.getFileName());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!Files.isRegularFile(path) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return path;
+    }
+
+    private static BufferedImage image(int width, int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private static void assertSize(Path jpeg, int width, int height) throws IOException {
+        BufferedImage image = ImageIO.read(jpeg.toFile());
+        assertNotNull(image, jpeg + " is not an image");
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+    }
+}
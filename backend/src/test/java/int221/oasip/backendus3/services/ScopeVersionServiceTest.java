@@ -0,0 +1,134 @@
+package int221.oasip.backendus3.services;
+
+import int221.oasip.backendus3.entities.Event;
+import int221.oasip.backendus3.entities.EventCategory;
+import int221.oasip.backendus3.entities.ScopeVersion;
+import int221.oasip.backendus3.entities.User;
+import int221.oasip.backendus3.repository.ScopeVersionRepository;
+import int221.oasip.backendus3.services.ScopeVersionService.ScopeType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ScopeVersionServiceTest {
+    private final ScopeVersionRepository repository = mock(ScopeVersionRepository.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private ScopeVersionService service;
+
+    @BeforeEach
+    void setUp() {
+        when(repository.findById(any())).thenReturn(Optional.of(version(1)));
+
+        service = new ScopeVersionService(repository, transactionManager);
+        ReflectionTestUtils.setField(service, "cacheMillis", 60_000L);
+        service.createTransactionTemplate();
+    }
+
+    @Test
+    void getVersion_shouldUseTheCachedVersion_untilAScopeIsIncremented() {
+        assertEquals(1, service.getVersion(ScopeType.CATEGORY, 1));
+        when(repository.findById(any())).thenReturn(Optional.of(version(2)));
+        assertEquals(1, service.getVersion(ScopeType.CATEGORY, 1));
+
+        service.increment(ScopeType.CATEGORY, 1);
+
+        assertEquals(2, service.getVersion(ScopeType.CATEGORY, 1));
+        verify(repository, times(2)).findById(any());
+    }
+
+    @Test
+    void getVersion_shouldNotCacheTheVersion_whenAnIncrementCommitsWhileReading() {
+        when(repository.findById(any())).thenAnswer(invocation -> {
+            service.increment(ScopeType.CATEGORY, 1);
+            return Optional.of(version(1));
+        }).thenReturn(Optional.of(version(2)));
+
+        assertEquals(1, service.getVersion(ScopeType.CATEGORY, 1));
+        assertEquals(2, service.getVersion(ScopeType.CATEGORY, 1));
+        assertEquals(2, service.getVersion(ScopeType.CATEGORY, 1));
+        verify(repository, times(2)).findById(any());
+    }
+
+    @Test
+    void getVersion_shouldReadInANewReadOnlyTransaction() {
+        service.getVersion(ScopeType.CATEGORY, 1);
+
+        ArgumentCaptor<TransactionDefinition> definition = ArgumentCaptor.forClass(TransactionDefinition.class);
+        verify(transactionManager).getTransaction(definition.capture());
+        assertTrue(definition.getValue().isReadOnly());
+        assertEquals(TransactionDefinition.PROPAGATION_REQUIRES_NEW, definition.getValue().getPropagationBehavior());
+    }
+
+    @Test
+    void onEventChanged_shouldIncrementTheCategoryTheUserAndAllBookings() {
+        service.onEventChanged(EventChangedEvent.created(event()));
+
+        verify(repository).increment(ScopeType.CATEGORY.name(), "3");
+        verify(repository).increment(ScopeType.USER.name(), "7");
+        verify(repository).increment(ScopeType.BOOKINGS.name(), "all");
+    }
+
+    @Test
+    void onEventChanged_shouldIncrementAllBookingsOnceAfterTheCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.onEventChanged(EventChangedEvent.created(event()));
+            service.onEventChanged(EventChangedEvent.deleted(event()));
+            verify(repository, never()).increment(ScopeType.BOOKINGS.name(), "all");
+
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCommit();
+            }
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(repository, times(1)).increment(ScopeType.BOOKINGS.name(), "all");
+        verify(transactionManager, times(1)).getTransaction(any());
+        assertTrue(TransactionSynchronizationManager.getResourceMap().isEmpty());
+    }
+
+    @Test
+    void userTag_shouldTellEmailsApart() {
+        String tag = ScopeVersionService.userTag("a@mail.kmutt.ac.th");
+
+        assertTrue(tag.matches("[0-9a-f]{32}"));
+        assertEquals(tag, ScopeVersionService.userTag("a@mail.kmutt.ac.th"));
+        assertNotEquals(tag, ScopeVersionService.userTag("b@mail.kmutt.ac.th"));
+    }
+
+    private static ScopeVersion version(long version) {
+        ScopeVersion scopeVersion = new ScopeVersion();
+        scopeVersion.setVersion(version);
+        return scopeVersion;
+    }
+
+    private static Event event() {
+        EventCategory category = new EventCategory();
+        category.setId(3);
+        User user = new User();
+        user.setId(7);
+
+        Event event = new Event();
+        event.setEventCategory(category);
+        event.setUser(user);
+        event.setEventStartTime(Instant.parse("2030-01-07T08:00:00Z"));
+        event.setEventDuration(30);
+        return event;
+    }
+}
@@ -0,0 +1,148 @@
+package int221.oasip.backendus3.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import int221.oasip.backendus3.dtos.RejectedUserRow;
+import int221.oasip.backendus3.dtos.UserImportResponse;
+import int221.oasip.backendus3.entities.User;
+import int221.oasip.backendus3.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+class UserImportServiceTest {
+    private final UserRepository repository = mock(UserRepository.class);
+    private final Argon2PasswordEncoder passwordEncoder = mock(Argon2PasswordEncoder.class);
+    private final List<List<String>> inserted = new ArrayList<>();
+    private UserImportService service;
+
+    @BeforeEach
+    void setUp() {
+        when(passwordEncoder.encode(any())).thenAnswer(invocation -> "hash:" + invocation.getArgument(0));
+        when(repository.findByNameInOrEmailIn(anyCollection(), anyCollection())).thenReturn(List.of());
+        // the users are the same objects in every insert, so their names are taken when they are inserted
+        doAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            inserted.add(users.stream().map(User::getName).collect(Collectors.toList()));
+            return null;
+        }).when(repository).insertAll(any());
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        service = new UserImportService(repository, passwordEncoder, Validation.buildDefaultValidatorFactory().getValidator(),
+                new ObjectMapper(), transactionTemplate);
+        ReflectionTestUtils.setField(service, "hashThreads", 2);
+        service.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    void importCsv_shouldRejectTheRepeatsOfANameOrEmail_withinTheImport() {
+        UserImportResponse response = service.importCsv(csv("name,email,password\n" +
+                "Somchai Jaidee,somchai.jaidee@mail.kmutt.ac.th,password-1\n" +
+                "Somchai Rakdee,somchai.jaidee@mail.kmutt.ac.th,password-2\n" +
+                " somchai jaidee ,somchai.other@mail.kmutt.ac.th,password-3\n"));
+
+        assertEquals(1, response.getCreated());
+        assertEquals(List.of(List.of("Somchai Jaidee")), inserted);
+        assertEquals(List.of(2, 3), rows(response));
+        assertEquals(Map.of("email", List.of("Email is not unique")), response.getRejected().get(0).getErrors());
+        // names are unique regardless of case and of the spaces around them
+        assertEquals(Map.of("name", List.of("Name is not unique")), response.getRejected().get(1).getErrors());
+    }
+
+    @Test
+    void importCsv_shouldRejectTheNamesAndEmailsOfExistingUsers() {
+        when(repository.findByNameInOrEmailIn(anyCollection(), anyCollection()))
+                .thenReturn(List.of(user("SOMCHAI JAIDEE", "taken@mail.kmutt.ac.th"), user("Someone Else", "JANE.DOE@example.com")));
+
+        UserImportResponse response = service.importCsv(csv("name,email,password\n" +
+                "Somchai Jaidee,somchai.jaidee@mail.kmutt.ac.th,password-1\n" +
+                "Jane Doe,jane.doe@example.com,password-2\n" +
+                "Somchai Rakdee,somchai.rakdee@mail.kmutt.ac.th,password-3\n"));
+
+        assertEquals(1, response.getCreated());
+        assertEquals(List.of(List.of("Somchai Rakdee")), inserted);
+        assertEquals(List.of(1, 2), rows(response));
+        assertEquals(Map.of("name", List.of("Name is not unique")), response.getRejected().get(0).getErrors());
+        assertEquals(Map.of("email", List.of("Email is not unique")), response.getRejected().get(1).getErrors());
+    }
+
+    @Test
+    void importCsv_shouldInsertOneAtATime_whenTheBatchHitsAUserCreatedSinceTheCheck() {
+        doAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            if (users.size() > 1 || users.get(0).getName().equals("Jane Doe")) {
+                throw new DuplicateKeyException("created by another import");
+            }
+            inserted.add(List.of(users.get(0).getName()));
+            return null;
+        }).when(repository).insertAll(any());
+        when(repository.existsByEmail("jane.doe@example.com")).thenReturn(true);
+
+        UserImportResponse response = service.importCsv(csv("name,email,password\n" +
+                "Somchai Jaidee,somchai.jaidee@mail.kmutt.ac.th,password-1\n" +
+                "Jane Doe,jane.doe@example.com,password-2\n"));
+
+        assertEquals(1, response.getCreated());
+        assertEquals(List.of(List.of("Somchai Jaidee")), inserted);
+        assertEquals(List.of(2), rows(response));
+        assertEquals(Map.of("email", List.of("Email is not unique")), response.getRejected().get(0).getErrors());
+        verify(repository, times(3)).insertAll(any());
+    }
+
+    @Test
+    void importCsv_shouldNumberTheRowsByUser_acrossLinesAndBatches() {
+        // a spreadsheet program wrote the byte order mark, and the first user spans two lines and has no password
+        StringBuilder content = new StringBuilder("\uFEFFName,Email,Password,Role\n\n\"Somchai\nJaidee\",somchai.jaidee@mail.kmutt.ac.th,,\n");
+        for (int i = 2; i <= 500; i++) {
+            content.append("User ").append(i).append(",user").append(i).append("@mail.kmutt.ac.th,password-1,lecturer\n");
+        }
+        content.append("User 501,not-an-email,password-1,student\n");
+
+        UserImportResponse response = service.importCsv(csv(content.toString()));
+
+        assertEquals(499, response.getCreated());
+        assertEquals(List.of(1, 501), rows(response));
+        assertTrue(response.getRejected().get(0).getErrors().containsKey("password"));
+        assertTrue(response.getRejected().get(1).getErrors().containsKey("email"));
+        // the first batch was full, the second one had only the invalid row
+        assertEquals(1, inserted.size());
+        assertEquals(499, inserted.get(0).size());
+    }
+
+    private static ByteArrayInputStream csv(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<Integer> rows(UserImportResponse response) {
+        return response.getRejected().stream().map(RejectedUserRow::getRow).collect(Collectors.toList());
+    }
+
+    private static User user(String name, String email) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        return user;
+    }
+}
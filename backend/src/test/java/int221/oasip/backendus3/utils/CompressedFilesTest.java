@@ -0,0 +1,129 @@
+package int221.oasip.backendus3.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedFilesTest {
+    @TempDir
+    Path uploads;
+    private Path bucket;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        bucket = Files.createDirectory(uploads.resolve("bucket"));
+    }
+
+    @Test
+    void store_shouldCompressText_andReadItBackAsUploaded() throws IOException {
+        byte[] content = "date,name,room\n2022-05-05,Somchai,CB2301\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+        Path stored = CompressedFiles.store(file("rooms.csv", content), bucket, "rooms.csv");
+
+        assertEquals(bucket.resolve("rooms.csv" + CompressedFiles.SUFFIX), stored);
+        assertTrue(CompressedFiles.isCompressed(stored));
+        assertEquals("rooms.csv", CompressedFiles.originalName(stored));
+        assertTrue(Files.size(stored) < content.length / 10);
+        try (InputStream input = CompressedFiles.open(stored)) {
+            assertArrayEquals(content, input.readAllBytes());
+        }
+        assertEquals(1, count(bucket));
+        // the temporary file beside the bucket is gone
+        assertEquals(1, count(uploads));
+    }
+
+    @Test
+    void store_shouldKeepSmallFilesAsTheyAre() throws IOException {
+        byte[] content = "a".repeat(1023).getBytes(StandardCharsets.UTF_8);
+
+        Path stored = CompressedFiles.store(file("notes.txt", content), bucket, "notes.txt");
+
+        assertPlain(stored, "notes.txt", content);
+    }
+
+    @Test
+    void store_shouldKeepFormatsThatAreCompressedAlready() throws IOException {
+        // text after the signature would compress well, only the first bytes decide
+        byte[] png = withHead(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+        byte[] docx = withHead(new byte[]{'P', 'K', 0x03, 0x04});
+        byte[] mp4 = withHead(new byte[]{0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm'});
+
+        assertPlain(CompressedFiles.store(file("photo.png", png), bucket, "photo.png"), "photo.png", png);
+        assertPlain(CompressedFiles.store(file("report.docx", docx), bucket, "report.docx"), "report.docx", docx);
+        assertPlain(CompressedFiles.store(file("clip.mp4", mp4), bucket, "clip.mp4"), "clip.mp4", mp4);
+    }
+
+    @Test
+    void store_shouldKeepTheFileAsItIs_whenCompressingSavesLessThanATenth() throws IOException {
+        Random random = new Random(42);
+        // random bytes do not compress, the zeros at the end save about 5%
+        byte[] almostRandom = new byte[4000];
+        random.nextBytes(almostRandom);
+        for (int i = 3800; i < almostRandom.length; i++) {
+            almostRandom[i] = 0;
+        }
+        // half of it zeros saves about half
+        byte[] halfRandom = new byte[4000];
+        random.nextBytes(halfRandom);
+        for (int i = 2000; i < halfRandom.length; i++) {
+            halfRandom[i] = 0;
+        }
+        // no known signature starts with these
+        almostRandom[0] = halfRandom[0] = 'x';
+
+        assertPlain(CompressedFiles.store(file("almost.bin", almostRandom), bucket, "almost.bin"), "almost.bin", almostRandom);
+        assertTrue(CompressedFiles.isCompressed(CompressedFiles.store(file("half.bin", halfRandom), bucket, "half.bin")));
+    }
+
+    @Test
+    void acceptsGzip_shouldReadTheCodingsAndTheirWeights() {
+        assertTrue(CompressedFiles.acceptsGzip("gzip"));
+        assertTrue(CompressedFiles.acceptsGzip("deflate, GZIP, br"));
+        assertTrue(CompressedFiles.acceptsGzip("br;q=1.0, gzip;q=0.5"));
+        assertTrue(CompressedFiles.acceptsGzip("gzip;q=0.001"));
+
+        assertFalse(CompressedFiles.acceptsGzip(null));
+        assertFalse(CompressedFiles.acceptsGzip(""));
+        assertFalse(CompressedFiles.acceptsGzip("br, deflate"));
+        assertFalse(CompressedFiles.acceptsGzip("gzip;q=0"));
+        assertFalse(CompressedFiles.acceptsGzip("gzip; q=0.000"));
+        assertFalse(CompressedFiles.acceptsGzip("gzip;Q=0"));
+        // only named codings are sent compressed
+        assertFalse(CompressedFiles.acceptsGzip("*"));
+        assertFalse(CompressedFiles.acceptsGzip("x-gzip-like"));
+    }
+
+    private static MockMultipartFile file(String name, byte[] content) {
+        return new MockMultipartFile("file", name, null, content);
+    }
+
+    private static byte[] withHead(byte[] head) {
+        byte[] content = "plain text ".repeat(200).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(head, 0, content, 0, head.length);
+        return content;
+    }
+
+    private void assertPlain(Path stored, String name, byte[] content) throws IOException {
+        assertEquals(bucket.resolve(name), stored);
+        assertFalse(CompressedFiles.isCompressed(stored));
+        assertArrayEquals(content, Files.readAllBytes(stored));
+        assertFalse(Files.exists(bucket.resolve(name + CompressedFiles.SUFFIX)));
+    }
+
+    private static long count(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package int221.oasip.backendus3.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvReaderTest {
+    @Test
+    void readsQuotedFieldsAcrossLines() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("name,email\r\n\"Doe, \"\"Jane\"\"\",\"jane\nd@example.com\"\n\n,last\n"));
+
+        assertEquals(List.of("name", "email"), csv.read());
+        assertEquals(List.of("Doe, \"Jane\"", "jane\nd@example.com"), csv.read());
+        assertEquals(List.of("", "last"), csv.read());
+        assertNull(csv.read());
+    }
+
+    @Test
+    void rejectsAnUnclosedQuote() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("a,b\n\"c,d"));
+
+        assertEquals(List.of("a", "b"), csv.read());
+        assertThrows(IOException.class, csv::read);
+    }
+}
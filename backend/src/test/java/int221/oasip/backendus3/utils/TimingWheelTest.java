@@ -0,0 +1,74 @@
+package int221.oasip.backendus3.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+    private static final Instant START = Instant.parse("2022-05-05T08:00:00Z");
+
+    @Test
+    void expiresEveryTimerAtItsTickAcrossLevels() {
+        // 8 minutes per turn of level 0, 64 minutes of level 1, 512 minutes of level 2
+        TimingWheel<Integer> wheel = new TimingWheel<>(60_000, 8, 3, START);
+        Random random = new Random(42);
+        List<Integer> deadlines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int minutes = 1 + random.nextInt(500);
+            deadlines.add(minutes);
+            wheel.schedule(START.plus(minutes, ChronoUnit.MINUTES), minutes);
+        }
+
+        for (int minute = 1; minute <= 511; minute++) {
+            List<Integer> expired = wheel.advanceTo(START.plus(minute, ChronoUnit.MINUTES));
+            int expected = minute;
+            assertEquals(deadlines.stream().filter(deadline -> deadline == expected).count(), expired.size(), "minute " + minute);
+            assertTrue(expired.stream().allMatch(deadline -> deadline == expected), "minute " + minute);
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void cancelledTimersDoNotExpire() {
+        TimingWheel<String> wheel = new TimingWheel<>(60_000, 8, 3, START);
+        TimingWheel.Timer<String> kept = wheel.schedule(START.plus(100, ChronoUnit.MINUTES), "kept");
+        TimingWheel.Timer<String> cancelled = wheel.schedule(START.plus(100, ChronoUnit.MINUTES), "cancelled");
+        wheel.schedule(START.plus(30, ChronoUnit.SECONDS), "rounded up");
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertEquals(List.of("kept", "rounded up"), sorted(wheel.pending()));
+
+        assertEquals(List.of(), wheel.advanceTo(START.plus(59, ChronoUnit.SECONDS)));
+        assertEquals(List.of("rounded up"), wheel.advanceTo(START.plus(1, ChronoUnit.MINUTES)));
+        assertEquals(List.of("kept"), wheel.advanceTo(START.plus(3, ChronoUnit.HOURS)));
+        assertFalse(kept.cancel());
+    }
+
+    @Test
+    void passedDeadlinesExpireOnTheNextAdvance() {
+        TimingWheel<String> wheel = new TimingWheel<>(60_000, 8, 3, START);
+        wheel.schedule(START.minus(5, ChronoUnit.MINUTES), "late");
+        assertEquals(List.of("late"), wheel.advanceTo(START));
+    }
+
+    @Test
+    void rejectsDeadlinesAfterTheHorizon() {
+        TimingWheel<String> wheel = new TimingWheel<>(60_000, 8, 3, START);
+        assertEquals(START.plus(511, ChronoUnit.MINUTES), wheel.getHorizon());
+        wheel.schedule(wheel.getHorizon(), "last");
+        assertThrows(IllegalArgumentException.class, () -> wheel.schedule(wheel.getHorizon().plusMillis(1), "too late"));
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> copy = new ArrayList<>(values);
+        copy.sort(null);
+        return copy;
+    }
+}
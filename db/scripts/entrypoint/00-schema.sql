@@ -1,4 +1,5 @@
 -- MySQL Workbench Forward Engineering
+-- Version 1 of the schema, the backend applies later versions from backend/src/main/resources/db/migration/mysql
 
 SET @OLD_UNIQUE_CHECKS=@@UNIQUE_CHECKS, UNIQUE_CHECKS=0;
 SET @OLD_FOREIGN_KEY_CHECKS=@@FOREIGN_KEY_CHECKS, FOREIGN_KEY_CHECKS=0;
@@ -0,0 +1,15 @@
+USE oasip;
+
+-- Rebuild the per-day counts of the calendar from the event table, e.g. after seeding events with the event-*.sql
+-- scripts or before setting calendar.summary.enabled. Days are taken at calendar.summary.zone-offset (+07:00).
+
+DELETE FROM eventDaySummary;
+
+INSERT INTO eventDaySummary (summaryDate, eventCategoryId, eventCount, bookedMinutes)
+SELECT
+  CAST(TIMESTAMPADD(MINUTE, 7 * 60, eventStartTime) AS DATE) AS summaryDate,
+  eventCategoryId,
+  COUNT(*),
+  SUM(eventDuration)
+FROM event
+GROUP BY summaryDate, eventCategoryId;
@@ -0,0 +1,25 @@
+USE oasip;
+
+-- Claim 1-minute slots (event.slot-minutes) for events inserted directly into the event table,
+-- e.g. by the event-*.sql seed scripts. Run it after seeding events, migration V2 already did it for the events
+-- that existed when it ran.
+-- Events that already overlap each other keep only the slots that were claimed first.
+
+DELETE FROM eventSlot;
+
+INSERT IGNORE INTO eventSlot (eventCategoryId, slotStart, eventId)
+WITH RECURSIVE slots (eventId, eventCategoryId, slotStart, endTime) AS (
+  SELECT
+    eventId,
+    eventCategoryId,
+    DATE_FORMAT(eventStartTime, '%Y-%m-%d %H:%i:00'),
+    TIMESTAMPADD(MINUTE, eventDuration, eventStartTime)
+  FROM event
+  UNION ALL
+  SELECT eventId, eventCategoryId, TIMESTAMPADD(MINUTE, 1, slotStart), endTime
+  FROM slots
+  WHERE TIMESTAMPADD(MINUTE, 1, slotStart) < endTime
+)
+SELECT eventCategoryId, slotStart, eventId
+FROM slots
+ORDER BY eventId, slotStart;
@@ -72,7 +72,10 @@ export async function getLecturerCategories(): Promise<CategoryResponse[]> {
 }
 
 //CREATE
-export async function createEvent(newEvent: CreateEventRequest, file: File): Promise<EventResponse> {
+/**
+ * @param idempotencyKey same key for retries of the same booking, so it is only booked once
+ */
+export async function createEvent(newEvent: CreateEventRequest, file: File, idempotencyKey?: string): Promise<EventResponse> {
   const token = localStorage.getItem(accessTokenKey);
   const formData = new FormData();
   for (const [key, value] of Object.entries(newEvent)) {
@@ -90,6 +93,9 @@ export async function createEvent(newEvent: CreateEventRequest, file: File): Pro
       ...(token && {
         Authorization: `Bearer ${token}`,
       }),
+      ...(idempotencyKey && {
+        "Idempotency-Key": idempotencyKey,
+      }),
     },
     body: formData,
   });
@@ -97,7 +103,7 @@ export async function createEvent(newEvent: CreateEventRequest, file: File): Pro
   const data = await response.json();
   if (response.status === 201) {
     return data;
-  } else if (response.status === 400) {
+  } else if (response.status === 400 || response.status === 422) {
     throw data;
   } else {
     console.log("Cannot create event");
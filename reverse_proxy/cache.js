@@ -0,0 +1,47 @@
+// Cache tags for the API cache. Every tag has a version that is part of the cache key of the responses it tags,
+// so purging a tag only bumps its version and the old entries are never looked up again; they expire on their own.
+//
+// A tag that was never purged, or whose version expired from the dictionary, has version "0". The dictionary keeps
+// a version longer than any response stays valid in the cache, so a "0" key can never bring back an entry that was
+// cached before the tag was last purged.
+
+const FILES_PREFIX = '/api/events/files/';
+
+function version(tag) {
+    const value = ngx.shared.cache_tags.get(tag);
+    return value === undefined ? '0' : String(value);
+}
+
+function categoriesVersion(r) {
+    return version('categories');
+}
+
+function fileVersion(r) {
+    if (!r.uri.startsWith(FILES_PREFIX)) {
+        return '0';
+    }
+    return version('file:' + r.uri.substring(FILES_PREFIX.length).split('/')[0]);
+}
+
+// POST /purge with the tags to purge in the Cache-Tag header, separated by commas
+function purge(r) {
+    if (r.method !== 'POST') {
+        r.return(405);
+        return;
+    }
+    const header = r.headersIn['Cache-Tag'] || '';
+    const tags = header.split(',').map(tag => tag.trim()).filter(tag => tag.length > 0);
+    try {
+        for (const tag of tags) {
+            // a new tag starts from the current time, so it does not repeat the versions of an expired one
+            ngx.shared.cache_tags.incr(tag, 1, Date.now());
+        }
+    } catch (e) {
+        r.error('cannot purge ' + header + ': ' + e);
+        r.return(503);
+        return;
+    }
+    r.return(204);
+}
+
+export default {categoriesVersion, fileVersion, purge};